@@ -0,0 +1,220 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.r.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.sonatype.nexus.repository.r.internal.util.RPackagesUtils;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+
+import static org.sonatype.nexus.repository.r.internal.RAttributes.P_DEPENDS;
+import static org.sonatype.nexus.repository.r.internal.RAttributes.P_IMPORTS;
+import static org.sonatype.nexus.repository.r.internal.RAttributes.P_LICENSE;
+import static org.sonatype.nexus.repository.r.internal.RAttributes.P_LINKINGTO;
+import static org.sonatype.nexus.repository.r.internal.RAttributes.P_NEEDS_COMPILATION;
+import static org.sonatype.nexus.repository.r.internal.RAttributes.P_PACKAGE;
+import static org.sonatype.nexus.repository.r.internal.RAttributes.P_SUGGESTS;
+import static org.sonatype.nexus.repository.r.internal.RAttributes.P_VERSION;
+
+/**
+ * Generates synthetic, deterministic R metadata and archives shaped like those found on CRAN.
+ *
+ * @since 1.1.next
+ */
+final class RBenchmarkData
+{
+  private static final String[] LICENSES = {"GPL-2", "GPL-3", "GPL (>= 2)", "MIT + file LICENSE", "LGPL-3"};
+
+  /**
+   * Returns the PACKAGES entries of the specified number of packages, in the shape written by Nexus.
+   */
+  static List<Map<String, String>> packages(final int count, final long seed) {
+    Random random = new Random(seed);
+    List<Map<String, String>> entries = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      Map<String, String> entry = new LinkedHashMap<>();
+      entry.put(P_PACKAGE, packageName(i));
+      entry.put(P_VERSION, version(random));
+      entry.put(P_DEPENDS, "R (>= 3." + random.nextInt(6) + ".0)" + dependencies(random, count, 3));
+      entry.put(P_IMPORTS, dependencies(random, count, 8).substring(2));
+      if (random.nextBoolean()) {
+        entry.put(P_SUGGESTS, "testthat, knitr, rmarkdown" + dependencies(random, count, 4));
+      }
+      if (random.nextInt(5) == 0) {
+        entry.put(P_LINKINGTO, "Rcpp");
+      }
+      entry.put(P_LICENSE, LICENSES[random.nextInt(LICENSES.length)]);
+      entry.put(P_NEEDS_COMPILATION, random.nextInt(3) == 0 ? "yes" : "no");
+      entries.add(entry);
+    }
+    return entries;
+  }
+
+  /**
+   * Returns the gzip compressed PACKAGES file of the entries.
+   */
+  static byte[] packagesGz(final List<Map<String, String>> entries) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    RPackagesUtils.writePackagesGz(entries, out);
+    return out.toByteArray();
+  }
+
+  /**
+   * Returns the DESCRIPTION file of a package, with the fields and field lengths typical of CRAN packages.
+   */
+  static String description(final String packageName, final String version) {
+    return "Package: " + packageName + "\n" +
+        "Type: Package\n" +
+        "Title: Tools for the Analysis of Synthetic Benchmark Data\n" +
+        "Version: " + version + "\n" +
+        "Date: 2020-06-01\n" +
+        "Authors@R: c(person(\"Jane\", \"Doe\", role = c(\"aut\", \"cre\"), email = \"jane@example.org\"),\n" +
+        "    person(\"John\", \"Doe\", role = \"ctb\"))\n" +
+        "Description: Provides functions to generate, transform and summarise synthetic data sets\n" +
+        "    of various shapes and sizes. It is mostly useful to exercise code paths that handle\n" +
+        "    package metadata in repositories.\n" +
+        "License: GPL (>= 2)\n" +
+        "Depends: R (>= 3.5.0), methods\n" +
+        "Imports: stats, utils, graphics, grDevices, Rcpp (>= 1.0.0), magrittr, rlang\n" +
+        "Suggests: testthat (>= 2.1.0), knitr, rmarkdown, covr\n" +
+        "LinkingTo: Rcpp\n" +
+        "Encoding: UTF-8\n" +
+        "LazyData: true\n" +
+        "RoxygenNote: 7.1.0\n" +
+        "NeedsCompilation: yes\n" +
+        "Packaged: 2020-06-01 10:00:00 UTC; builder\n" +
+        "Author: Jane Doe [aut, cre], John Doe [ctb]\n" +
+        "Maintainer: Jane Doe <jane@example.org>\n" +
+        "Repository: CRAN\n" +
+        "Date/Publication: 2020-06-02 12:00:00 UTC\n";
+  }
+
+  /**
+   * Returns a gzip compressed tar archive of a package with the specified number of source files of the specified size.
+   * The DESCRIPTION file is written last so that finding it requires reading the whole archive.
+   */
+  static byte[] tarGz(final String packageName, final int files, final int fileSize) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (TarArchiveOutputStream tar = new TarArchiveOutputStream(new GzipCompressorOutputStream(out))) {
+      tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+      writeArchive(tar, packageName, files, fileSize, (name, size) -> {
+        TarArchiveEntry entry = new TarArchiveEntry(name);
+        entry.setSize(size);
+        return entry;
+      });
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Returns a zip archive of a package with the specified number of source files of the specified size. The
+   * DESCRIPTION file is written last so that finding it requires reading the whole archive.
+   */
+  static byte[] zip(final String packageName, final int files, final int fileSize) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (ZipArchiveOutputStream zip = new ZipArchiveOutputStream(out)) {
+      writeArchive(zip, packageName, files, fileSize, (name, size) -> new ZipArchiveEntry(name));
+    }
+    return out.toByteArray();
+  }
+
+  static String packageName(final int index) {
+    return "pkg" + Integer.toString(index, 36) + (index % 7 == 0 ? ".utils" : "");
+  }
+
+  static String version(final Random random) {
+    return random.nextInt(4) + "." + random.nextInt(20) + (random.nextBoolean() ? "-" : ".") + random.nextInt(30);
+  }
+
+  private static String dependencies(final Random random, final int count, final int max) {
+    StringBuilder dependencies = new StringBuilder();
+    int dependencyCount = 1 + random.nextInt(max);
+    for (int i = 0; i < dependencyCount; i++) {
+      dependencies.append(", ").append(packageName(random.nextInt(count)));
+      if (random.nextInt(4) == 0) {
+        dependencies.append(" (>= ").append(version(random)).append(')');
+      }
+    }
+    return dependencies.toString();
+  }
+
+  @FunctionalInterface
+  private interface EntryFactory
+  {
+    ArchiveEntry create(String name, long size);
+  }
+
+  private static void writeArchive(final ArchiveOutputStream archive,
+                                   final String packageName,
+                                   final int files,
+                                   final int fileSize,
+                                   final EntryFactory entries) throws IOException
+  {
+    Random random = new Random(packageName.hashCode());
+    byte[] content = new byte[fileSize];
+    for (int i = 0; i < files; i++) {
+      // source-like content that compresses roughly as well as real R code
+      for (int j = 0; j < fileSize; j++) {
+        content[j] = (byte) (random.nextInt(8) == 0 ? '\n' : 'a' + random.nextInt(26));
+      }
+      writeEntry(archive, entries.create(packageName + "/R/file" + i + ".R", fileSize), content);
+    }
+    byte[] description = description(packageName, "1.0-0").getBytes(StandardCharsets.UTF_8);
+    writeEntry(archive, entries.create(packageName + "/DESCRIPTION", description.length), description);
+  }
+
+  private static void writeEntry(final ArchiveOutputStream archive,
+                                 final ArchiveEntry entry,
+                                 final byte[] content) throws IOException
+  {
+    archive.putArchiveEntry(entry);
+    archive.write(content);
+    archive.closeArchiveEntry();
+  }
+
+  /**
+   * An output stream that discards everything written to it.
+   */
+  static final class NullOutputStream
+      extends OutputStream
+  {
+    @Override
+    public void write(final int b) {
+      // discard
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) {
+      // discard
+    }
+  }
+
+  private RBenchmarkData() {
+    // empty
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.r.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.sonatype.nexus.repository.r.internal.util.RDescriptionUtils;
+import org.sonatype.nexus.repository.r.internal.util.RMetadataUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static org.sonatype.nexus.repository.r.benchmarks.RBenchmarkData.description;
+import static org.sonatype.nexus.repository.r.benchmarks.RBenchmarkData.tarGz;
+import static org.sonatype.nexus.repository.r.benchmarks.RBenchmarkData.zip;
+
+/**
+ * Benchmarks of extracting and parsing DESCRIPTION files of R packages.
+ *
+ * @since 1.1.next
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RDescriptionBenchmark
+{
+  private static final String PACKAGE_NAME = "benchmark.pkg";
+
+  /**
+   * The number of source files in the archive besides the DESCRIPTION file; 20 files of 8KB make a small package,
+   * 400 files make an archive of several MB like the larger CRAN packages.
+   */
+  @Param({"20", "400"})
+  int archiveFiles;
+
+  byte[] description;
+
+  byte[] tarGz;
+
+  byte[] zip;
+
+  @Setup
+  public void setUp() throws IOException {
+    description = description(PACKAGE_NAME, "1.0-0").getBytes(StandardCharsets.UTF_8);
+    tarGz = tarGz(PACKAGE_NAME, archiveFiles, 8 * 1024);
+    zip = zip(PACKAGE_NAME, archiveFiles, 8 * 1024);
+  }
+
+  @Benchmark
+  public Map<String, String> parseDescriptionFile() {
+    return RMetadataUtils.parseDescriptionFile(new ByteArrayInputStream(description));
+  }
+
+  @Benchmark
+  public Map<String, String> extractDescriptionFromTarGz() {
+    return RDescriptionUtils.extractDescriptionFromArchive(PACKAGE_NAME + "_1.0-0.tar.gz",
+        new ByteArrayInputStream(tarGz));
+  }
+
+  @Benchmark
+  public Map<String, String> extractDescriptionFromZip() {
+    return RDescriptionUtils.extractDescriptionFromArchive(PACKAGE_NAME + "_1.0-0.zip", new ByteArrayInputStream(zip));
+  }
+}
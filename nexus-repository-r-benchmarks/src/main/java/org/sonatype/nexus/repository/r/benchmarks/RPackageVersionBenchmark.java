@@ -0,0 +1,138 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.r.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.sonatype.nexus.repository.r.internal.hosted.RPackageVersion;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import se.sawano.java.text.AlphanumericComparator;
+
+import static org.sonatype.nexus.repository.r.benchmarks.RBenchmarkData.version;
+
+/**
+ * Benchmarks of parsing and comparing R package versions, against the former implementation that compared the
+ * version strings alphanumerically after replacing dashes with a regular expression.
+ *
+ * @since 1.1.next
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RPackageVersionBenchmark
+{
+  @Param({"1000", "20000"})
+  int versionCount;
+
+  List<String> versionStrings;
+
+  List<RPackageVersion> versions;
+
+  List<AlphanumericVersion> alphanumericVersions;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(1L);
+    versionStrings = new ArrayList<>(versionCount);
+    versions = new ArrayList<>(versionCount);
+    alphanumericVersions = new ArrayList<>(versionCount);
+    for (int i = 0; i < versionCount; i++) {
+      String version = version(random);
+      versionStrings.add(version);
+      versions.add(new RPackageVersion(version));
+      alphanumericVersions.add(new AlphanumericVersion(version));
+    }
+  }
+
+  @Benchmark
+  public void parse(final Blackhole blackhole) {
+    for (String version : versionStrings) {
+      blackhole.consume(new RPackageVersion(version));
+    }
+  }
+
+  @Benchmark
+  public void compareTo(final Blackhole blackhole) {
+    for (int i = 1; i < versions.size(); i++) {
+      blackhole.consume(versions.get(i).compareTo(versions.get(i - 1)));
+    }
+  }
+
+  @Benchmark
+  public List<RPackageVersion> sort() {
+    List<RPackageVersion> sorted = new ArrayList<>(versions);
+    Collections.sort(sorted);
+    return sorted;
+  }
+
+  @Benchmark
+  public void parseAlphanumeric(final Blackhole blackhole) {
+    for (String version : versionStrings) {
+      blackhole.consume(new AlphanumericVersion(version));
+    }
+  }
+
+  @Benchmark
+  public void compareToAlphanumeric(final Blackhole blackhole) {
+    for (int i = 1; i < alphanumericVersions.size(); i++) {
+      blackhole.consume(alphanumericVersions.get(i).compareTo(alphanumericVersions.get(i - 1)));
+    }
+  }
+
+  @Benchmark
+  public List<AlphanumericVersion> sortAlphanumeric() {
+    List<AlphanumericVersion> sorted = new ArrayList<>(alphanumericVersions);
+    Collections.sort(sorted);
+    return sorted;
+  }
+
+  /**
+   * The former {@link RPackageVersion} implementation, kept as the baseline.
+   */
+  static class AlphanumericVersion
+      implements Comparable<AlphanumericVersion>
+  {
+    private static final AlphanumericComparator versionComparator = new AlphanumericComparator(Locale.US);
+
+    private final String normalizedVersion;
+
+    AlphanumericVersion(final String version) {
+      this.normalizedVersion = version.trim().replaceAll("-", ".");
+    }
+
+    @Override
+    public int compareTo(final AlphanumericVersion other) {
+      return versionComparator.compare(normalizedVersion, other.normalizedVersion);
+    }
+  }
+}
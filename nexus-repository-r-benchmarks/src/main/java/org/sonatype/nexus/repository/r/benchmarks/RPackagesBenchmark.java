@@ -0,0 +1,109 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.r.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import org.sonatype.nexus.repository.r.internal.hosted.RPackagesBuilder;
+import org.sonatype.nexus.repository.r.internal.util.RPackagesUtils;
+import org.sonatype.nexus.repository.view.Payload;
+import org.sonatype.nexus.repository.view.payloads.BytesPayload;
+
+import com.google.common.collect.ImmutableList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static org.sonatype.nexus.repository.r.benchmarks.RBenchmarkData.packages;
+import static org.sonatype.nexus.repository.r.benchmarks.RBenchmarkData.packagesGz;
+
+/**
+ * Benchmarks of building, parsing and merging PACKAGES files of CRAN-like sizes.
+ *
+ * @since 1.1.next
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class RPackagesBenchmark
+{
+  @Param({"1000", "20000", "50000"})
+  int packageCount;
+
+  List<Map<String, String>> entries;
+
+  List<Map<String, String>> otherEntries;
+
+  byte[] packagesGz;
+
+  byte[] otherPackagesGz;
+
+  @Setup
+  public void setUp() throws IOException {
+    entries = packages(packageCount, 1L);
+    // a second member sharing most packages with different versions, as a proxy of CRAN next to a hosted mirror
+    otherEntries = packages(packageCount, 2L);
+    packagesGz = packagesGz(entries);
+    otherPackagesGz = packagesGz(otherEntries);
+  }
+
+  @Benchmark
+  public List<Map<String, String>> parseMetadata() throws IOException {
+    try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(packagesGz))) {
+      return RPackagesUtils.parseMetadata(in);
+    }
+  }
+
+  @Benchmark
+  public void mergePackagesGz() throws IOException {
+    List<Payload> members = ImmutableList.of(
+        new BytesPayload(packagesGz, "application/x-gzip"),
+        new BytesPayload(otherPackagesGz, "application/x-gzip"));
+    RPackagesUtils.mergePackagesGz(members, new RBenchmarkData.NullOutputStream());
+  }
+
+  @Benchmark
+  public void writePackagesGz() throws IOException {
+    RPackagesUtils.writePackagesGz(entries, new RBenchmarkData.NullOutputStream());
+  }
+
+  @Benchmark
+  public void writePackagesRds() throws IOException {
+    RPackagesUtils.writePackagesRds(entries, new RBenchmarkData.NullOutputStream());
+  }
+
+  @Benchmark
+  public void buildPackagesGzFromBuilder() throws IOException {
+    RPackagesBuilder builder = new RPackagesBuilder();
+    entries.forEach(builder::append);
+    otherEntries.forEach(builder::append);
+    builder.writePackagesGz(new RBenchmarkData.NullOutputStream());
+  }
+}
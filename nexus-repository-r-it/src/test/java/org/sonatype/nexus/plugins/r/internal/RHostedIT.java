@@ -23,13 +23,16 @@ import org.sonatype.nexus.repository.storage.Asset;
 import org.sonatype.nexus.repository.storage.Component;
 import org.sonatype.nexus.repository.storage.ComponentMaintenance;
 
+import com.google.common.io.ByteStreams;
 import org.apache.http.HttpResponse;
 import org.junit.Before;
 import org.junit.Test;
 import org.ops4j.pax.exam.Configuration;
 import org.ops4j.pax.exam.Option;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.core.IsEqual.equalTo;
 import static org.junit.Assert.assertNotNull;
@@ -37,6 +40,7 @@ import static org.junit.Assert.assertNull;
 import static org.sonatype.nexus.plugins.r.internal.RITConfig.configureRWithMetadataProcessingInterval;
 import static org.sonatype.nexus.repository.http.HttpStatus.BAD_REQUEST;
 import static org.sonatype.nexus.repository.http.HttpStatus.NOT_FOUND;
+import static org.sonatype.nexus.repository.http.HttpStatus.OK;
 import static org.sonatype.nexus.repository.r.internal.util.PackageValidator.NOT_VALID_EXTENSION_ERROR_MESSAGE;
 import static org.sonatype.nexus.repository.r.internal.util.PackageValidator.NOT_VALID_PATH_ERROR_MESSAGE;
 
@@ -96,11 +100,26 @@ public class RHostedIT
   @Test
   public void testFetchNotSupportedMetadata() throws Exception
   {
-    HttpResponse resp = client.fetch(PACKAGES_RDS.fullPath);
+    HttpResponse resp = client.fetch(ARCHIVE_RDS.fullPath);
     assertThat(resp.getStatusLine().getStatusCode(), is(NOT_FOUND));
     assertThat(resp.getStatusLine().getReasonPhrase(), is("This metadata type is not supported for now."));
   }
 
+  @Test
+  public void testFetchGeneratedMetadata() throws Exception
+  {
+    HttpResponse packagesRds = client.fetch(PACKAGES_RDS.fullPath);
+    assertThat(packagesRds.getStatusLine().getStatusCode(), is(OK));
+    assertThat(componentAssetTestHelper.assetExists(repository, PACKAGES_RDS.fullPath), is(true));
+
+    HttpResponse packages = client.fetch(PACKAGES_RDS.basePath + "/PACKAGES");
+    assertThat(packages.getStatusLine().getStatusCode(), is(OK));
+    try (InputStream content = packages.getEntity().getContent()) {
+      String packagesContent = new String(ByteStreams.toByteArray(content), UTF_8);
+      assertThat(packagesContent, containsString("Package: " + AGRICOLAE_121_TARGZ.packageName));
+    }
+  }
+
   @Test
   public void testFetchPackage() throws Exception
   {
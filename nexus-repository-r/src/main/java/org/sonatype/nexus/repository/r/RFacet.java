@@ -14,6 +14,8 @@ package org.sonatype.nexus.repository.r;
 
 import java.util.Map;
 
+import javax.annotation.Nullable;
+
 import org.sonatype.nexus.repository.Facet;
 import org.sonatype.nexus.repository.storage.Asset;
 import org.sonatype.nexus.repository.storage.Component;
@@ -47,6 +49,14 @@ public interface RFacet
                           final String path,
                           final Map<String, String> attributes);
 
+  /**
+   * Find an asset by its path.
+   *
+   * @return found asset or null if not found
+   */
+  @Nullable
+  Asset findAsset(final StorageTx tx, final String path);
+
   /**
    * Find or Create Asset without Component
    *
@@ -13,6 +13,10 @@
 package org.sonatype.nexus.repository.r;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+
+import javax.annotation.Nullable;
 
 import org.sonatype.nexus.repository.Facet;
 import org.sonatype.nexus.repository.storage.Asset;
@@ -48,4 +52,38 @@ public interface RHostedFacet
    * @param basePath the path to build the metadata for
    */
   Content buildAndPutPackagesGz(String basePath) throws IOException;
+
+  /**
+   * Builds and stores the PACKAGES, PACKAGES.gz and PACKAGES.rds metadata for the base path of a metadata file. Nothing
+   * is built or stored for the path of any other file.
+   *
+   * @param path the full path of the requested metadata file
+   * @return the requested metadata, or {@code null} if it is not one of the generated metadata files
+   *
+   * @since 1.1.next
+   */
+  @Nullable
+  Content buildAndPutPackages(String path) throws IOException;
+
+  /**
+   * Builds and stores the PACKAGES, PACKAGES.gz and PACKAGES.rds metadata for several paths, reading the archives of
+   * the repository at most once.
+   *
+   * @param basePaths the paths to build the metadata for
+   * @return the stored metadata, keyed by the full path of each metadata file
+   *
+   * @since 1.1.next
+   */
+  Map<String, Content> buildAndPutPackages(Collection<String> basePaths) throws IOException;
+
+  /**
+   * Applies the current state of an archive that was created, updated or deleted to the incrementally maintained
+   * PACKAGES index, if any. The archive is read again from storage rather than taken from the event that reported the
+   * change, so that changes reported out of order still leave the index matching storage.
+   *
+   * @param path the path of the archive that changed
+   *
+   * @since 1.1.next
+   */
+  void updatePackagesIndex(String path);
 }
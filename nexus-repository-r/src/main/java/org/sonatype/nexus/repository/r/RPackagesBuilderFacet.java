@@ -32,4 +32,17 @@ public interface RPackagesBuilderFacet
    * @param basePath The base path of the PACKAGES.gz file to invalidate.
    */
   void invalidateMetadata(String basePath);
+
+  /**
+   * Suspends metadata invalidation, e.g. while restoring many archives. Base paths invalidated while suspended are
+   * invalidated once each when invalidation is resumed. Suspensions nest, so every call must be paired with a call to
+   * {@link #resumeInvalidation()}.
+   */
+  void suspendInvalidation();
+
+  /**
+   * Resumes metadata invalidation suspended by {@link #suspendInvalidation()}, invalidating each base path that was
+   * invalidated in the meantime once the last suspension is lifted.
+   */
+  void resumeInvalidation();
 }
@@ -16,6 +16,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.Map;
 
+import javax.annotation.Nullable;
+
 import org.sonatype.nexus.repository.Facet;
 import org.sonatype.nexus.repository.storage.AssetBlob;
 import org.sonatype.nexus.repository.storage.Query;
@@ -29,6 +31,13 @@ public interface RRestoreFacet
 {
   void restore(final AssetBlob assetBlob, final String path) throws IOException;
 
+  /**
+   * Restores an asset using the DESCRIPTION attributes already extracted from its blob, e.g. by
+   * {@link #extractComponentAttributesFromArchive(String, InputStream)}, which are only extracted again if missing.
+   */
+  void restore(final AssetBlob assetBlob, final String path, @Nullable final Map<String, String> attributes)
+      throws IOException;
+
   boolean assetExists(final String path);
 
   boolean componentRequired(final String name);
@@ -0,0 +1,165 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.r.internal;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.sonatype.goodies.lifecycle.LifecycleSupport;
+import org.sonatype.nexus.common.app.ManagedLifecycle;
+import org.sonatype.nexus.common.entity.EntityId;
+import org.sonatype.nexus.repository.Repository;
+import org.sonatype.nexus.repository.storage.Asset;
+import org.sonatype.nexus.repository.storage.Bucket;
+import org.sonatype.nexus.repository.storage.StorageFacet;
+import org.sonatype.nexus.repository.storage.StorageTx;
+import org.sonatype.nexus.thread.NexusThreadFactory;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.sonatype.nexus.common.app.ManagedLifecycle.Phase.SERVICES;
+import static org.sonatype.nexus.repository.storage.entity.EntityHelper.id;
+
+/**
+ * Records the downloads of R assets. By default an asset is saved with its updated last downloaded time within the
+ * transaction of the request that downloaded it. When a flush interval is configured, the downloaded assets are only
+ * remembered instead and are marked as downloaded in one transaction per repository when the interval has elapsed, so
+ * that requests for popular packages are read-only and do not contend for writes to the same assets.
+ *
+ * @since 1.1.next
+ */
+@Named
+@Singleton
+@ManagedLifecycle(phase = SERVICES)
+public class RDownloadRecorder
+    extends LifecycleSupport
+{
+  /**
+   * The time in milliseconds between flushes of the recorded downloads, 0 to save downloaded assets immediately.
+   */
+  private final long flushInterval;
+
+  /**
+   * The ids of the downloaded assets not flushed yet, per repository. The sets are only accessed atomically through
+   * the map so that an id recorded while a repository is being flushed is kept for the next flush.
+   */
+  private final ConcurrentMap<Repository, Set<EntityId>> downloads = new ConcurrentHashMap<>();
+
+  private ScheduledExecutorService executor;
+
+  /**
+   * Constructor.
+   *
+   * @param flushInterval The time in milliseconds between flushes of the recorded downloads, 0 to save downloaded
+   *                      assets immediately.
+   */
+  @Inject
+  public RDownloadRecorder(@Named("${nexus.r.downloads.flushInterval:-0}") final long flushInterval) {
+    checkArgument(flushInterval >= 0, "Flush interval must not be negative");
+    this.flushInterval = flushInterval;
+  }
+
+  @Override
+  protected void doStart() throws Exception {
+    if (flushInterval > 0) {
+      executor = new ScheduledThreadPoolExecutor(1, new NexusThreadFactory("r-downloads", "flush"));
+      executor.scheduleWithFixedDelay(this::flush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  @Override
+  protected void doStop() throws Exception {
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+    flush();
+  }
+
+  /**
+   * Marks an asset as downloaded, either saving it right away within the specified transaction or recording the
+   * download for the next flush.
+   *
+   * @param tx         The transaction the asset was read in.
+   * @param repository The repository of the asset.
+   * @param asset      The downloaded asset.
+   */
+  public void markAsDownloaded(final StorageTx tx, final Repository repository, final Asset asset) {
+    if (!asset.markAsDownloaded()) {
+      return;
+    }
+    if (flushInterval == 0) {
+      tx.saveAsset(asset);
+    }
+    else {
+      // the asset is only changed in memory, it is reloaded and marked again when flushed
+      EntityId assetId = id(asset);
+      downloads.compute(checkNotNull(repository), (key, ids) -> {
+        Set<EntityId> recorded = ids != null ? ids : new HashSet<>();
+        recorded.add(assetId);
+        return recorded;
+      });
+    }
+  }
+
+  /**
+   * Marks the assets whose downloads were recorded since the last flush as downloaded, in one transaction per
+   * repository. Recorded downloads that fail to be flushed are dropped; the asset is recorded again when it is next
+   * downloaded.
+   */
+  @VisibleForTesting
+  void flush() {
+    for (Repository repository : downloads.keySet()) {
+      Set<EntityId> ids = downloads.remove(repository);
+      if (ids == null) {
+        continue;
+      }
+      try {
+        flush(repository, ids);
+      }
+      catch (Exception e) {
+        log.warn("Failed to mark {} R assets as downloaded in repository {}", ids.size(), repository.getName(), e);
+      }
+    }
+  }
+
+  private void flush(final Repository repository, final Set<EntityId> ids) {
+    log.debug("Marking {} R assets as downloaded in repository {}", ids.size(), repository.getName());
+    StorageTx tx = repository.facet(StorageFacet.class).txSupplier().get();
+    try {
+      tx.begin();
+      Bucket bucket = tx.findBucket(repository);
+      for (EntityId assetId : ids) {
+        Asset asset = tx.findAsset(assetId, bucket);
+        if (asset != null && asset.markAsDownloaded()) {
+          tx.saveAsset(asset);
+        }
+      }
+      tx.commit();
+    }
+    finally {
+      tx.close();
+    }
+  }
+}
@@ -12,28 +12,45 @@
  */
 package org.sonatype.nexus.repository.r.internal;
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
+import javax.annotation.Nullable;
+import javax.inject.Inject;
 import javax.inject.Named;
 
+import org.sonatype.nexus.common.entity.EntityId;
 import org.sonatype.nexus.repository.FacetSupport;
 import org.sonatype.nexus.repository.r.RFacet;
+import org.sonatype.nexus.repository.r.internal.util.RFacetUtils;
 import org.sonatype.nexus.repository.storage.Asset;
+import org.sonatype.nexus.repository.storage.AssetDeletedEvent;
 import org.sonatype.nexus.repository.storage.Bucket;
 import org.sonatype.nexus.repository.storage.Component;
+import org.sonatype.nexus.repository.storage.ComponentDeletedEvent;
 import org.sonatype.nexus.repository.storage.StorageTx;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.eventbus.AllowConcurrentEvents;
+import com.google.common.eventbus.Subscribe;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.sonatype.nexus.repository.r.internal.RAttributes.P_PACKAGE;
 import static org.sonatype.nexus.repository.r.internal.RAttributes.P_VERSION;
-import static org.sonatype.nexus.repository.r.internal.util.RFacetUtils.findAsset;
-import static org.sonatype.nexus.repository.r.internal.util.RFacetUtils.findComponent;
 import static org.sonatype.nexus.repository.r.internal.util.RPathUtils.getAssetKind;
 import static org.sonatype.nexus.repository.r.internal.util.RPathUtils.getBasePath;
 import static org.sonatype.nexus.repository.storage.AssetEntityAdapter.P_ASSET_KIND;
+import static org.sonatype.nexus.repository.storage.MetadataNodeEntityAdapter.P_NAME;
+import static org.sonatype.nexus.repository.storage.entity.EntityHelper.id;
 
 /**
- * {@link RFacet} implementation.
+ * {@link RFacet} implementation. The ids of the assets and components found by their path, or by their name, version
+ * and group, are cached per repository so that popular packages are loaded by id instead of being queried for. The
+ * caches are trimmed when assets and components are deleted, but a cached id is only ever a hint: an entity loaded by
+ * it that no longer matches the lookup is discarded and looked up again.
  *
  * @since 1.1.next
  */
@@ -42,6 +59,43 @@ public class RFacetImpl
     extends FacetSupport
     implements RFacet
 {
+  /**
+   * The ids of the assets of this repository keyed by their path.
+   */
+  private final Cache<String, EntityId> assetIds;
+
+  /**
+   * The ids of the components of this repository keyed by their group, name and version.
+   */
+  private final Cache<List<String>, EntityId> componentIds;
+
+  /**
+   * Constructor.
+   *
+   * @param cacheSize   The maximum number of asset ids and of component ids cached for a repository.
+   * @param cacheExpiry The number of seconds after which a cached id is looked up again.
+   */
+  @Inject
+  public RFacetImpl(
+      @Named("${nexus.r.lookupCache.size:-10000}") final int cacheSize,
+      @Named("${nexus.r.lookupCache.expiry:-3600}") final int cacheExpiry)
+  {
+    this.assetIds = CacheBuilder.newBuilder()
+        .maximumSize(cacheSize)
+        .expireAfterWrite(cacheExpiry, SECONDS)
+        .build();
+    this.componentIds = CacheBuilder.newBuilder()
+        .maximumSize(cacheSize)
+        .expireAfterWrite(cacheExpiry, SECONDS)
+        .build();
+  }
+
+  @Override
+  protected void doStop() throws Exception {
+    assetIds.invalidateAll();
+    componentIds.invalidateAll();
+  }
+
   @Override
   public Component findOrCreateComponent(final StorageTx tx,
                                          final String path,
@@ -51,7 +105,7 @@ public class RFacetImpl
     String version = attributes.get(P_VERSION);
     String group = getBasePath(path);
 
-    Component component = findComponent(tx, getRepository(), name, version, group);
+    Component component = findComponent(tx, name, version, group);
     if (component == null) {
       Bucket bucket = tx.findBucket(getRepository());
       component = tx.createComponent(bucket, getRepository().getFormat())
@@ -100,4 +154,78 @@ public class RFacetImpl
 
     return asset;
   }
+
+  @Nullable
+  @Override
+  public Asset findAsset(final StorageTx tx, final String path) {
+    return findAsset(tx, tx.findBucket(getRepository()), path);
+  }
+
+  /**
+   * Removes the id of a deleted asset of this repository from the cache.
+   */
+  @Subscribe
+  @AllowConcurrentEvents
+  public void on(final AssetDeletedEvent event) {
+    if (getRepository().getName().equals(event.getRepositoryName())) {
+      assetIds.invalidate(event.getAsset().name());
+    }
+  }
+
+  /**
+   * Removes the id of a deleted component of this repository from the cache.
+   */
+  @Subscribe
+  @AllowConcurrentEvents
+  public void on(final ComponentDeletedEvent event) {
+    if (getRepository().getName().equals(event.getRepositoryName())) {
+      Component component = event.getComponent();
+      componentIds.invalidate(componentKey(component.name(), component.version(), component.group()));
+    }
+  }
+
+  /**
+   * Finds an asset by its path, loading it by its cached id when there is one.
+   */
+  @Nullable
+  private Asset findAsset(final StorageTx tx, final Bucket bucket, final String path) {
+    EntityId assetId = assetIds.getIfPresent(path);
+    if (assetId != null) {
+      Asset asset = tx.findAsset(assetId, bucket);
+      if (asset != null && path.equals(asset.name())) {
+        return asset;
+      }
+      assetIds.invalidate(path);
+    }
+    Asset asset = tx.findAssetWithProperty(P_NAME, path, bucket);
+    if (asset != null) {
+      assetIds.put(path, id(asset));
+    }
+    return asset;
+  }
+
+  /**
+   * Finds a component by its name, version and group, loading it by its cached id when there is one.
+   */
+  @Nullable
+  private Component findComponent(final StorageTx tx, final String name, final String version, final String group) {
+    List<String> key = componentKey(name, version, group);
+    EntityId componentId = componentIds.getIfPresent(key);
+    if (componentId != null) {
+      Component component = tx.findComponentInBucket(componentId, tx.findBucket(getRepository()));
+      if (component != null && key.equals(componentKey(component.name(), component.version(), component.group()))) {
+        return component;
+      }
+      componentIds.invalidate(key);
+    }
+    Component component = RFacetUtils.findComponent(tx, getRepository(), name, version, group);
+    if (component != null) {
+      componentIds.put(key, id(component));
+    }
+    return component;
+  }
+
+  private static List<String> componentKey(final String name, final String version, final String group) {
+    return Arrays.asList(group, name, version);
+  }
 }
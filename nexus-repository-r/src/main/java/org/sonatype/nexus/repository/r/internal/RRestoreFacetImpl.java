@@ -16,6 +16,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.Map;
 
+import javax.annotation.Nullable;
 import javax.inject.Named;
 
 import org.sonatype.nexus.common.collect.AttributesMap;
@@ -46,15 +47,25 @@ public class RRestoreFacetImpl
   @Override
   @TransactionalTouchBlob
   public void restore(final AssetBlob assetBlob, final String path) throws IOException {
+    restore(assetBlob, path, null);
+  }
+
+  @Override
+  @TransactionalTouchBlob
+  public void restore(final AssetBlob assetBlob,
+                      final String path,
+                      @Nullable final Map<String, String> extractedAttributes) throws IOException
+  {
     StorageTx tx = UnitOfWork.currentTx();
     RFacet facet = facet(RFacet.class);
 
     Asset asset;
     if (componentRequired(path)) {
-      Map<String, String> attributes;
-
-      try (InputStream is = assetBlob.getBlob().getInputStream()) {
-        attributes = extractDescriptionFromArchive(path, is);
+      Map<String, String> attributes = extractedAttributes;
+      if (attributes == null) {
+        try (InputStream is = assetBlob.getBlob().getInputStream()) {
+          attributes = extractDescriptionFromArchive(path, is);
+        }
       }
 
       Component component = facet.findOrCreateComponent(tx, path, attributes);
@@ -0,0 +1,103 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.r.internal;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.sonatype.goodies.lifecycle.LifecycleSupport;
+import org.sonatype.nexus.common.app.ManagedLifecycle;
+import org.sonatype.nexus.thread.NexusExecutorService;
+import org.sonatype.nexus.thread.NexusThreadFactory;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static org.sonatype.nexus.common.app.ManagedLifecycle.Phase.SERVICES;
+
+/**
+ * Runs the threads that work alongside a stream being read, e.g. the writer of piped metadata or the extractor of an
+ * archive's DESCRIPTION, on a bounded pool shared by all R repositories.
+ *
+ * Such a thread is only useful if it starts while its stream is being read, so tasks are never queued: when every
+ * thread is busy, {@link RejectedExecutionException} is thrown and the caller either falls back to doing without the
+ * thread or fails the request, which bounds the number of threads whatever the load.
+ *
+ * @since 1.1.next
+ */
+@Named
+@Singleton
+@ManagedLifecycle(phase = SERVICES)
+public class RStreamExecutor
+    extends LifecycleSupport
+{
+  /**
+   * The maximum number of threads running at the same time.
+   */
+  private final int threads;
+
+  private ThreadPoolExecutor executor;
+
+  /**
+   * Constructor.
+   *
+   * @param threads The maximum number of threads running at the same time.
+   */
+  @Inject
+  public RStreamExecutor(@Named("${nexus.r.streamThreads:-64}") final int threads) {
+    checkArgument(threads > 0, "Threads must be greater than 0");
+    this.threads = threads;
+  }
+
+  @Override
+  protected void doStart() throws Exception {
+    executor = new ThreadPoolExecutor(0, threads, 60L, TimeUnit.SECONDS, new SynchronousQueue<>(),
+        new NexusThreadFactory("r-stream", "stream-worker"));
+  }
+
+  @Override
+  protected void doStop() throws Exception {
+    executor.shutdownNow();
+    executor = null;
+  }
+
+  /**
+   * Starts a task on a thread of the pool.
+   *
+   * @throws RejectedExecutionException if every thread is busy.
+   */
+  public <T> Future<T> submit(final Callable<T> task) {
+    checkNotNull(task);
+    checkState(executor != null, "R stream executor is not started");
+    return executor.submit(task);
+  }
+
+  /**
+   * Starts a task on a thread of the pool, running as the current user.
+   *
+   * @throws RejectedExecutionException if every thread is busy.
+   */
+  public void executeAsCurrentUser(final Runnable task) {
+    checkNotNull(task);
+    checkState(executor != null, "R stream executor is not started");
+    NexusExecutorService.forCurrentSubject(executor).execute(task);
+  }
+}
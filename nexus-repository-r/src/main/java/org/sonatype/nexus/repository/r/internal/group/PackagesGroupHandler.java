@@ -12,13 +12,25 @@
  */
 package org.sonatype.nexus.repository.r.internal.group;
 
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
@@ -28,60 +40,363 @@ import org.sonatype.nexus.repository.group.GroupHandler;
 import org.sonatype.nexus.repository.http.HttpResponses;
 import org.sonatype.nexus.repository.http.HttpStatus;
 import org.sonatype.nexus.repository.r.internal.RException;
-import org.sonatype.nexus.repository.r.internal.util.RPackagesUtils;
+import org.sonatype.nexus.repository.r.internal.RStreamExecutor;
+import org.sonatype.nexus.repository.types.GroupType;
+import org.sonatype.nexus.repository.view.Content;
 import org.sonatype.nexus.repository.view.Context;
 import org.sonatype.nexus.repository.view.Payload;
+import org.sonatype.nexus.repository.view.Request;
 import org.sonatype.nexus.repository.view.Response;
+import org.sonatype.nexus.repository.view.ViewFacet;
+import org.sonatype.nexus.repository.view.payloads.BytesPayload;
+import org.sonatype.nexus.repository.view.payloads.StreamPayload;
 
-import static com.google.common.base.Preconditions.checkNotNull;
-import static org.apache.commons.compress.compressors.CompressorStreamFactory.GZIP;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
-import org.apache.commons.compress.compressors.CompressorException;
-import org.apache.commons.compress.compressors.CompressorStreamFactory;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.sonatype.nexus.repository.r.internal.util.RPackagesUtils.mergePackagesGz;
+import static org.sonatype.nexus.repository.r.internal.util.RPathUtils.extractRequestPath;
+import static org.sonatype.nexus.repository.r.internal.util.RStreamUtils.pipe;
+import static org.sonatype.nexus.repository.view.Payload.UNKNOWN_SIZE;
 
 /**
  * Support for merging R PACKAGES.gz together.
+ *
+ * Members are queried concurrently, each within a configurable timeout, and the responses that arrived in time are
+ * merged in member order. Nested group members share the dispatch tracking of the request and are therefore queried
+ * on the requesting thread. Members that cannot be queued because too many member requests are in progress are
+ * skipped. Stanzas are copied from the member files as they are, the first member providing a
+ * package wins.
+ *
+ * Merged content is cached per group repository and path, together with the ETags of the member responses it was
+ * merged from. As long as every member responds with the same ETags, the cached content is served without parsing
+ * or compressing anything again. Content is streamed to the client while it is merged and only cached once it has
+ * been written completely, provided it is not larger than the configured maximum entry size. Content merged while a
+ * member was skipped is never cached, so that a member that was slow once is not left out of the cached content.
  */
 @Named
 @Singleton
 class PackagesGroupHandler
     extends GroupHandler
 {
+  private static final String CONTENT_TYPE = "application/x-gzip";
+
+  private final Cache<MergedPackagesKey, MergedPackages> mergedPackages;
+
+  private final long cacheMaxEntrySize;
+
+  private final long memberTimeout;
+
+  private final RGroupMemberExecutor memberExecutor;
+
+  private final RStreamExecutor streamExecutor;
+
+  /**
+   * Constructor.
+   *
+   * @param cacheSize         The maximum total size in bytes of the cached merged content.
+   * @param cacheMaxEntrySize The maximum size in bytes of merged content to cache.
+   * @param cacheExpiry       The time in seconds after which merged content that is not requested is discarded.
+   * @param memberTimeout     The time in milliseconds to wait for the response of each member.
+   * @param memberExecutor    The executor querying the members.
+   * @param streamExecutor    The executor running the writers of merged content.
+   */
+  @Inject
+  PackagesGroupHandler(@Named("${nexus.r.group.packagesCache.size:-67108864}") final long cacheSize,
+                       @Named("${nexus.r.group.packagesCache.maxEntrySize:-16777216}") final long cacheMaxEntrySize,
+                       @Named("${nexus.r.group.packagesCache.expiry:-3600}") final long cacheExpiry,
+                       @Named("${nexus.r.group.memberTimeout:-30000}") final long memberTimeout,
+                       final RGroupMemberExecutor memberExecutor,
+                       final RStreamExecutor streamExecutor)
+  {
+    checkArgument(memberTimeout > 0, "Member timeout must be greater than 0");
+    this.cacheMaxEntrySize = cacheMaxEntrySize;
+    this.memberTimeout = memberTimeout;
+    this.memberExecutor = checkNotNull(memberExecutor);
+    this.streamExecutor = checkNotNull(streamExecutor);
+    this.mergedPackages = CacheBuilder.newBuilder()
+        .maximumWeight(cacheSize)
+        .weigher((MergedPackagesKey key, MergedPackages value) -> value.content.length)
+        .expireAfterAccess(cacheExpiry, TimeUnit.SECONDS)
+        .build();
+  }
+
   @Override
   protected Response doGet(@Nonnull final Context context,
                            @Nonnull final GroupHandler.DispatchedRepositories dispatched)
       throws Exception
   {
     GroupFacet groupFacet = context.getRepository().facet(GroupFacet.class);
-    Map<Repository, Response> responses = getAll(context, groupFacet.members(), dispatched);
-    List<Response> successfulResponses = responses.values().stream()
-        .filter(response -> response.getStatus().getCode() == HttpStatus.OK && response.getPayload() != null)
+    List<Repository> members = new ArrayList<>();
+    for (Repository member : groupFacet.members()) {
+      // track repositories we have dispatched to, prevent circular dispatch for nested groups
+      if (dispatched.contains(member)) {
+        log.trace("Skipping already dispatched member: {}", member);
+        continue;
+      }
+      dispatched.add(member);
+      members.add(member);
+    }
+    Map<Repository, Response> responses = dispatch(context, members);
+    boolean complete = responses.size() == members.size();
+    Response response = merge(context.getRepository(), extractRequestPath(context), responses, complete);
+    return response != null ? response : notFoundResponse(context);
+  }
+
+  /**
+   * Dispatches the request to the members concurrently and returns the responses received within the member timeout,
+   * in member order. Members that cannot be queued, fail or do not respond in time are logged and skipped.
+   *
+   * Each member queried on a separate thread gets its own copy of the request and its context, since neither is safe
+   * to share between threads.
+   */
+  @VisibleForTesting
+  Map<Repository, Response> dispatch(final Context context, final List<Repository> members) {
+    Request request = context.getRequest();
+    Map<Repository, Future<Response>> pending = new LinkedHashMap<>();
+    List<Repository> dispatchable = new ArrayList<>(members.size());
+    for (Repository member : members) {
+      if (member.getType() instanceof GroupType) {
+        dispatchable.add(member);
+        continue;
+      }
+      try {
+        Context memberContext = copyContext(context);
+        pending.put(member, memberExecutor.submitAsCurrentUser(
+            () -> member.facet(ViewFacet.class).dispatch(memberContext.getRequest(), memberContext)));
+        dispatchable.add(member);
+      }
+      catch (RejectedExecutionException e) {
+        log.warn("Skipping member {} of R group {}: too many member requests in progress for {}", member.getName(),
+            context.getRepository().getName(), request.getPath());
+      }
+    }
+
+    long deadline = System.currentTimeMillis() + memberTimeout;
+    Map<Repository, Response> responses = new LinkedHashMap<>();
+    for (Repository member : dispatchable) {
+      Future<Response> future = pending.get(member);
+      try {
+        Response response = future != null
+            ? future.get(Math.max(deadline - System.currentTimeMillis(), 0L), TimeUnit.MILLISECONDS)
+            : member.facet(ViewFacet.class).dispatch(request, context);
+        responses.put(member, response);
+      }
+      catch (TimeoutException e) {
+        future.cancel(true);
+        log.warn("Skipping member {} of R group {}: no response for {} within {}ms", member.getName(),
+            context.getRepository().getName(), request.getPath(), memberTimeout);
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        pending.values().forEach(remaining -> remaining.cancel(true));
+        throw new RException(null, e);
+      }
+      catch (Exception e) {
+        log.warn("Skipping member {} of R group {}: failed to fetch {}", member.getName(),
+            context.getRepository().getName(), request.getPath(), e);
+      }
+    }
+    return responses;
+  }
+
+  /**
+   * Copies a context and its request, so that a member can be queried on another thread.
+   */
+  private static Context copyContext(final Context context) {
+    Context copy = new Context(context.getRepository(), new Request.Builder().copy(context.getRequest()).build());
+    context.getAttributes().backing().forEach(copy.getAttributes()::set);
+    return copy;
+  }
+
+  /**
+   * Merges the successful member responses, reusing the previously merged content when none of them changed.
+   *
+   * @param complete {@code true} if every member responded, {@code false} if some were skipped, in which case the
+   *                 merged content is neither taken from nor put in the cache.
+   * @return the merged response, or {@code null} if no member responded successfully
+   */
+  @Nullable
+  @VisibleForTesting
+  Response merge(final Repository repository,
+                 final String path,
+                 final Map<Repository, Response> responses,
+                 final boolean complete)
+  {
+    List<Entry<Repository, Response>> successfulResponses = responses.entrySet().stream()
+        .filter(entry -> isSuccessful(entry.getValue()))
         .collect(Collectors.toList());
     if (successfulResponses.isEmpty()) {
-      return notFoundResponse(context);
+      return null;
     }
     if (successfulResponses.size() == 1) {
-      return successfulResponses.get(0);
+      return successfulResponses.get(0).getValue();
+    }
+
+    List<String> memberETags = complete ? getMemberETags(successfulResponses) : null;
+    if (memberETags == null) {
+      List<Payload> payloads = getPayloads(successfulResponses);
+      return HttpResponses.ok(new Content(new StreamPayload(
+          () -> pipe(streamExecutor, out -> mergePackagesGz(payloads, out)), UNKNOWN_SIZE, CONTENT_TYPE)));
+    }
+
+    MergedPackagesKey key = new MergedPackagesKey(repository.getName(), path);
+    MergedPackages merged = mergedPackages.getIfPresent(key);
+    if (merged != null && merged.memberETags.equals(memberETags)) {
+      return HttpResponses.ok(new Content(new BytesPayload(merged.content, CONTENT_TYPE)));
+    }
+    List<Payload> payloads = getPayloads(successfulResponses);
+    return HttpResponses.ok(new Content(new StreamPayload(
+        () -> pipe(streamExecutor, out -> mergeAndCache(key, memberETags, payloads, out)),
+        UNKNOWN_SIZE, CONTENT_TYPE)));
+  }
+
+  /**
+   * Merges the member content to the output stream, caching the merged content if it was written completely and is not
+   * larger than the maximum entry size.
+   */
+  private void mergeAndCache(final MergedPackagesKey key,
+                             final List<String> memberETags,
+                             final List<Payload> payloads,
+                             final OutputStream out) throws IOException
+  {
+    CapturingOutputStream capturing = new CapturingOutputStream(out, cacheMaxEntrySize);
+    mergePackagesGz(payloads, capturing);
+    byte[] content = capturing.getCaptured();
+    if (content != null) {
+      mergedPackages.put(key, new MergedPackages(memberETags, content));
+    }
+    else {
+      log.debug("Not caching merged {} of R group {}: larger than {} bytes", key.path, key.repositoryName,
+          cacheMaxEntrySize);
+    }
+  }
+
+  private boolean isSuccessful(final Response response) {
+    return response.getStatus().getCode() == HttpStatus.OK && response.getPayload() != null;
+  }
+
+  private List<Payload> getPayloads(final List<Entry<Repository, Response>> responses) {
+    return responses.stream()
+        .map(entry -> checkNotNull(entry.getValue().getPayload()))
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Returns the member name and ETag of each response, in member order, or {@code null} if any response lacks an ETag
+   * and the merged content therefore cannot be reused.
+   */
+  @Nullable
+  private List<String> getMemberETags(final List<Entry<Repository, Response>> responses) {
+    List<String> memberETags = new ArrayList<>(responses.size());
+    for (Entry<Repository, Response> entry : responses) {
+      Payload payload = entry.getValue().getPayload();
+      String etag = payload instanceof Content
+          ? ((Content) payload).getAttributes().get(Content.CONTENT_ETAG, String.class)
+          : null;
+      if (etag == null) {
+        return null;
+      }
+      memberETags.add(entry.getKey().getName() + ':' + etag);
+    }
+    return memberETags;
+  }
+
+  /**
+   * Passes bytes through to a stream while keeping a copy of them, until more bytes than a maximum were written.
+   */
+  private static final class CapturingOutputStream
+      extends FilterOutputStream
+  {
+    private final long maxSize;
+
+    @Nullable
+    private ByteArrayOutputStream captured = new ByteArrayOutputStream();
+
+    CapturingOutputStream(final OutputStream out, final long maxSize) {
+      super(out);
+      this.maxSize = maxSize;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+      out.write(b);
+      capture(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+      out.write(b, off, len);
+      capture(b, off, len);
     }
 
-    List<List<Map<String, String>>> parts = successfulResponses.stream().map(this::parseResponse).collect(
-        Collectors.toList());
-    List<Map<String, String>> merged = RPackagesUtils.merge(parts);
+    private void capture(final byte[] b, final int off, final int len) {
+      if (captured == null) {
+        return;
+      }
+      if (captured.size() + (long) len > maxSize) {
+        captured = null;
+        return;
+      }
+      captured.write(b, off, len);
+    }
 
-    return HttpResponses.ok(RPackagesUtils.buildPackages(merged));
+    /**
+     * Returns the bytes written, or {@code null} if more bytes than the maximum were written.
+     */
+    @Nullable
+    byte[] getCaptured() {
+      return captured != null ? captured.toByteArray() : null;
+    }
   }
 
-  protected List<Map<String, String>> parseResponse(@Nonnull final Response response) {
-    Payload payload = checkNotNull(response.getPayload());
-    try (InputStream in = payload.openInputStream()) {
-      final CompressorStreamFactory compressorStreamFactory = new CompressorStreamFactory();
-      try (InputStream cin = compressorStreamFactory.createCompressorInputStream(GZIP, in)) {
-        return RPackagesUtils.parseMetadata(cin);
+  /**
+   * Identifies merged metadata of a path in a group repository.
+   */
+  private static final class MergedPackagesKey
+  {
+    private final String repositoryName;
+
+    private final String path;
+
+    MergedPackagesKey(final String repositoryName, final String path) {
+      this.repositoryName = checkNotNull(repositoryName);
+      this.path = checkNotNull(path);
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
       }
+      MergedPackagesKey that = (MergedPackagesKey) o;
+      return repositoryName.equals(that.repositoryName) && path.equals(that.path);
     }
-    catch (IOException | CompressorException e) {
-      throw new RException(null, e);
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(repositoryName, path);
     }
   }
 
+  /**
+   * Merged metadata and the member ETags it was merged from.
+   */
+  private static final class MergedPackages
+  {
+    private final List<String> memberETags;
+
+    private final byte[] content;
+
+    MergedPackages(final List<String> memberETags, final byte[] content) {
+      this.memberETags = memberETags;
+      this.content = content;
+    }
+  }
 }
@@ -0,0 +1,102 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.r.internal.group;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.sonatype.goodies.lifecycle.LifecycleSupport;
+import org.sonatype.nexus.common.app.ManagedLifecycle;
+import org.sonatype.nexus.thread.NexusExecutorService;
+import org.sonatype.nexus.thread.NexusThreadFactory;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static org.sonatype.nexus.common.app.ManagedLifecycle.Phase.SERVICES;
+
+/**
+ * Queries the members of R group repositories on a bounded pool shared by all R groups.
+ *
+ * Member requests that find every thread busy wait in a bounded queue, where they still count against the member
+ * timeout of their group request. Once the queue is full as well, {@link RejectedExecutionException} is thrown and
+ * the member is skipped, so that neither threads nor waiting requests pile up whatever the load.
+ *
+ * @since 1.1.next
+ */
+@Named
+@Singleton
+@ManagedLifecycle(phase = SERVICES)
+class RGroupMemberExecutor
+    extends LifecycleSupport
+{
+  /**
+   * The maximum number of members queried at the same time.
+   */
+  private final int threads;
+
+  /**
+   * The maximum number of member requests waiting for a thread.
+   */
+  private final int queueSize;
+
+  private ThreadPoolExecutor executor;
+
+  /**
+   * Constructor.
+   *
+   * @param threads   The maximum number of members queried at the same time across all requests.
+   * @param queueSize The maximum number of member requests waiting for a thread across all requests.
+   */
+  @Inject
+  RGroupMemberExecutor(@Named("${nexus.r.group.memberThreads:-20}") final int threads,
+                       @Named("${nexus.r.group.memberQueueSize:-100}") final int queueSize)
+  {
+    checkArgument(threads > 0, "Member threads must be greater than 0");
+    checkArgument(queueSize > 0, "Member queue size must be greater than 0");
+    this.threads = threads;
+    this.queueSize = queueSize;
+  }
+
+  @Override
+  protected void doStart() throws Exception {
+    executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize),
+        new NexusThreadFactory("r-group", "member-dispatch"));
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  @Override
+  protected void doStop() throws Exception {
+    executor.shutdownNow();
+    executor = null;
+  }
+
+  /**
+   * Submits a member request, running as the current user.
+   *
+   * @throws RejectedExecutionException if every thread is busy and the queue is full.
+   */
+  <T> Future<T> submitAsCurrentUser(final Callable<T> task) {
+    checkNotNull(task);
+    checkState(executor != null, "R group member executor is not started");
+    return NexusExecutorService.forCurrentSubject(executor).submit(task);
+  }
+}
@@ -24,7 +24,6 @@ import org.sonatype.nexus.rest.ValidationErrorsException;
 
 import static org.sonatype.nexus.repository.r.internal.util.PackageValidator.validateArchiveUploadPath;
 import static org.sonatype.nexus.repository.r.internal.util.RPathUtils.extractRequestPath;
-import static org.sonatype.nexus.repository.r.internal.util.RPathUtils.getBasePath;
 
 /**
  * R hosted handlers.
@@ -43,7 +42,7 @@ public final class HostedHandlers
 
     Content content;
     if ((content = hostedFacet.getStoredContent(path)) != null
-        || (content = hostedFacet.buildAndPutPackagesGz(getBasePath(path))) != null) {
+        || (content = hostedFacet.buildAndPutPackages(path)) != null) {
       return HttpResponses.ok(content);
     }
 
@@ -12,18 +12,38 @@
  */
 package org.sonatype.nexus.repository.r.internal.hosted;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
+import javax.annotation.Nullable;
+import javax.inject.Inject;
 import javax.inject.Named;
 
 import org.sonatype.nexus.repository.FacetSupport;
 import org.sonatype.nexus.repository.r.RFacet;
 import org.sonatype.nexus.repository.r.RHostedFacet;
+import org.sonatype.nexus.repository.r.internal.RDownloadRecorder;
+import org.sonatype.nexus.repository.r.internal.RStreamExecutor;
+import org.sonatype.nexus.repository.r.internal.util.RDescriptionExtractingInputStream;
 import org.sonatype.nexus.repository.r.internal.util.RFacetUtils;
+import org.sonatype.nexus.repository.r.internal.util.RStreamUtils.StreamWriter;
 import org.sonatype.nexus.repository.storage.Asset;
 import org.sonatype.nexus.repository.storage.Component;
 import org.sonatype.nexus.repository.storage.StorageFacet;
@@ -36,16 +56,23 @@ import org.sonatype.nexus.repository.view.Content;
 import org.sonatype.nexus.repository.view.Payload;
 import org.sonatype.nexus.transaction.UnitOfWork;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.Lists.partition;
+import static java.util.Collections.singleton;
+import static java.util.stream.Collectors.toSet;
 import static org.sonatype.nexus.repository.r.internal.AssetKind.ARCHIVE;
 import static org.sonatype.nexus.repository.r.internal.util.RDescriptionUtils.extractDescriptionFromArchive;
-import static org.sonatype.nexus.repository.r.internal.util.RFacetUtils.browseAllAssetsByKind;
-import static org.sonatype.nexus.repository.r.internal.util.RFacetUtils.findAsset;
+import static org.sonatype.nexus.repository.r.internal.util.RFacetUtils.browseAssetsByGroups;
+import static org.sonatype.nexus.repository.r.internal.util.RFacetUtils.extractAssetKind;
 import static org.sonatype.nexus.repository.r.internal.util.RFacetUtils.saveAsset;
 import static org.sonatype.nexus.repository.r.internal.util.RFacetUtils.toContent;
+import static org.sonatype.nexus.repository.r.internal.util.RPathUtils.PACKAGES_FILENAME;
 import static org.sonatype.nexus.repository.r.internal.util.RPathUtils.PACKAGES_GZ_FILENAME;
+import static org.sonatype.nexus.repository.r.internal.util.RPathUtils.PACKAGES_RDS_FILENAME;
 import static org.sonatype.nexus.repository.r.internal.util.RPathUtils.buildPath;
 import static org.sonatype.nexus.repository.r.internal.util.RPathUtils.getBasePath;
+import static org.sonatype.nexus.repository.r.internal.util.RStreamUtils.pipe;
 
 /**
  * {@link RHostedFacet} implementation.
@@ -55,19 +82,75 @@ public class RHostedFacetImpl
     extends FacetSupport
     implements RHostedFacet
 {
+  /**
+   * The flag indicating if PACKAGES metadata should be built from the incrementally maintained index.
+   */
+  private final boolean incrementalPackages;
+
+  /**
+   * The maximum number of base paths whose PACKAGES metadata is compressed and stored in parallel.
+   */
+  private final int parallelism;
+
+  /**
+   * The per-base path table of the latest package versions, only used when building incrementally.
+   */
+  private final RPackagesIndex packagesIndex = new RPackagesIndex();
+
+  /**
+   * The sequence of the archive changes read for the index.
+   */
+  private final AtomicLong indexUpdates = new AtomicLong();
+
+  /**
+   * The sequence number of the last change applied to the index, keyed by archive path.
+   */
+  private final Map<String, Long> appliedIndexUpdates = new HashMap<>();
+
+  /**
+   * The recorder of downloaded assets.
+   */
+  private final RDownloadRecorder downloadRecorder;
+
+  /**
+   * The executor running the threads that write and read metadata and archives as they are streamed.
+   */
+  private final RStreamExecutor streamExecutor;
+
+  /**
+   * Constructor.
+   *
+   * @param incrementalPackages {@code true} to maintain PACKAGES metadata from an incremental index, {@code false} to
+   *                            rescan every archive in the repository on each rebuild.
+   * @param parallelism         The maximum number of base paths whose PACKAGES metadata is built in parallel.
+   * @param downloadRecorder    The recorder of downloaded assets.
+   * @param streamExecutor      The executor running the threads that work alongside streamed content.
+   */
+  @Inject
+  public RHostedFacetImpl(
+      @Named("${nexus.r.hosted.incrementalPackages:-false}") final boolean incrementalPackages,
+      @Named("${nexus.r.packagesBuilder.parallelism:-4}") final int parallelism,
+      final RDownloadRecorder downloadRecorder,
+      final RStreamExecutor streamExecutor)
+  {
+    checkArgument(parallelism > 0, "Parallelism must be greater than 0");
+    this.incrementalPackages = incrementalPackages;
+    this.parallelism = parallelism;
+    this.downloadRecorder = checkNotNull(downloadRecorder);
+    this.streamExecutor = checkNotNull(streamExecutor);
+  }
+
   @Override
   @TransactionalTouchBlob
   public Content getStoredContent(final String contentPath) {
     checkNotNull(contentPath);
     StorageTx tx = UnitOfWork.currentTx();
 
-    Asset asset = findAsset(tx, tx.findBucket(getRepository()), contentPath);
+    Asset asset = facet(RFacet.class).findAsset(tx, contentPath);
     if (asset == null) {
       return null;
     }
-    if (asset.markAsDownloaded()) {
-      tx.saveAsset(asset);
-    }
+    downloadRecorder.markAsDownloaded(tx, getRepository(), asset);
     return toContent(asset, tx.requireBlob(asset.requireBlobRef()));
   }
 
@@ -76,8 +159,12 @@ public class RHostedFacetImpl
     checkNotNull(path);
     checkNotNull(payload);
     StorageFacet storageFacet = facet(StorageFacet.class);
-    try (TempBlob tempBlob = storageFacet.createTempBlob(payload, RFacetUtils.HASH_ALGORITHMS)) {
-      return doPutArchive(path, tempBlob, payload);
+    try (RDescriptionExtractingInputStream in =
+             new RDescriptionExtractingInputStream(path, payload.openInputStream(), streamExecutor);
+         TempBlob tempBlob = storageFacet.createTempBlob(in, RFacetUtils.HASH_ALGORITHMS)) {
+      Map<String, String> description = in.getDescription();
+      return description != null ?
+          doPutArchive(path, tempBlob, payload, description) : doPutArchive(path, tempBlob, payload);
     }
   }
 
@@ -86,14 +173,24 @@ public class RHostedFacetImpl
                                final TempBlob archiveContent,
                                final Payload payload) throws IOException
   {
-
-    StorageTx tx = UnitOfWork.currentTx();
-    RFacet rFacet = facet(RFacet.class);
-
     Map<String, String> attributes;
     try (InputStream is = archiveContent.get()) {
       attributes = extractDescriptionFromArchive(path, is);
     }
+    return doPutArchive(path, archiveContent, payload, attributes);
+  }
+
+  /**
+   * Stores an archive whose DESCRIPTION attributes have already been extracted, e.g. while it was being uploaded.
+   */
+  @TransactionalStoreBlob
+  protected Asset doPutArchive(final String path,
+                               final TempBlob archiveContent,
+                               final Payload payload,
+                               final Map<String, String> attributes) throws IOException
+  {
+    StorageTx tx = UnitOfWork.currentTx();
+    RFacet rFacet = facet(RFacet.class);
 
     Component component = rFacet.findOrCreateComponent(tx, path, attributes);
     Asset asset = rFacet.findOrCreateAsset(tx, component, path, attributes);
@@ -106,26 +203,199 @@ public class RHostedFacetImpl
   @TransactionalTouchMetadata
   public Content buildAndPutPackagesGz(final String basePath) throws IOException {
     checkNotNull(basePath);
+    return buildAndPutPackages(singleton(basePath)).get(buildPath(basePath, PACKAGES_GZ_FILENAME));
+  }
+
+  @Override
+  @TransactionalTouchMetadata
+  public Content buildAndPutPackages(final String path) throws IOException {
+    checkNotNull(path);
+    if (!isGeneratedMetadata(path)) {
+      // any other PACKAGES* path is not ours to build, so a miss on it must not rewrite the metadata
+      return null;
+    }
+    return buildAndPutPackages(singleton(getBasePath(path))).get(path);
+  }
+
+  private static boolean isGeneratedMetadata(final String path) {
+    String filename = path.substring(path.lastIndexOf('/') + 1);
+    return PACKAGES_FILENAME.equals(filename) || PACKAGES_GZ_FILENAME.equals(filename) ||
+        PACKAGES_RDS_FILENAME.equals(filename);
+  }
+
+  @Override
+  @TransactionalTouchMetadata
+  public Map<String, Content> buildAndPutPackages(final Collection<String> basePaths) throws IOException {
+    checkNotNull(basePaths);
     StorageTx tx = UnitOfWork.currentTx();
-    RPackagesBuilder packagesBuilder = new RPackagesBuilder();
-    Iterable<Asset> archiveAssets = browseAllAssetsByKind(tx, tx.findBucket(getRepository()), ARCHIVE);
-    StreamSupport.stream(archiveAssets.spliterator(), false) // packageInfoBuilder doesn't support multithreading
-        .filter(asset -> basePath.equals(getBasePath(asset.name())))
-        .forEach(packagesBuilder::append);
-    byte[] packagesBytes = packagesBuilder.buildPackagesGz();
-    StorageFacet storageFacet = getRepository().facet(StorageFacet.class);
-    try (InputStream is = new ByteArrayInputStream(packagesBytes)) {
-      TempBlob tempPackagesGz = storageFacet.createTempBlob(is, RFacetUtils.HASH_ALGORITHMS);
-      return doPutPackagesGz(tx, basePath, tempPackagesGz);
+    Map<String, TempBlob> packagesBlobs = createPackagesBlobs(createPackagesBuilders(tx, basePaths));
+    try {
+      Map<String, Content> packages = new LinkedHashMap<>();
+      for (Entry<String, TempBlob> entry : packagesBlobs.entrySet()) {
+        packages.put(entry.getKey(), doPutPackages(tx, entry.getKey(), entry.getValue()));
+      }
+      return packages;
+    }
+    finally {
+      packagesBlobs.values().forEach(TempBlob::close);
+    }
+  }
+
+  /**
+   * Creates a populated {@link RPackagesBuilder} for each base path, making at most one pass over the archives of the
+   * base paths that are not yet loaded into the index (or of all base paths when not building incrementally).
+   */
+  private Map<String, RPackagesBuilder> createPackagesBuilders(final StorageTx tx, final Collection<String> basePaths) {
+    Map<String, RPackagesBuilder> packagesBuilders = new LinkedHashMap<>();
+    if (incrementalPackages) {
+      Set<String> unloadedPaths = basePaths.stream()
+          .filter(basePath -> !packagesIndex.isLoaded(basePath))
+          .collect(toSet());
+      if (!unloadedPaths.isEmpty()) {
+        log.debug("Loading R packages index for paths {} in repository {}", unloadedPaths, getRepository().getName());
+        packagesIndex.load(unloadedPaths, browseArchiveAssets(tx, unloadedPaths)::iterator);
+      }
+      basePaths.forEach(basePath -> packagesBuilders.put(basePath, packagesIndex.newBuilder(basePath)));
+    }
+    else {
+      basePaths.forEach(basePath -> packagesBuilders.put(basePath, new RPackagesBuilder()));
+      // packageInfoBuilder doesn't support multithreading, but each base path has its own builder
+      browseArchiveAssets(tx, packagesBuilders.keySet())
+          .forEach(asset -> packagesBuilders.get(getBasePath(asset.name())).append(asset));
+    }
+    return packagesBuilders;
+  }
+
+  /**
+   * Writes the PACKAGES, PACKAGES.gz and PACKAGES.rds content of each builder to temporary blobs, keyed by the path of
+   * the metadata asset. All files are written from the same collected package information, up to the configured
+   * parallelism at a time: the calling thread writes one file of each round and the stream executor the others, or the
+   * calling thread when the stream executor has no thread available.
+   */
+  private Map<String, TempBlob> createPackagesBlobs(final Map<String, RPackagesBuilder> packagesBuilders)
+      throws IOException
+  {
+    Map<String, StreamWriter> writers = new LinkedHashMap<>();
+    packagesBuilders.forEach((basePath, packagesBuilder) -> {
+      writers.put(buildPath(basePath, PACKAGES_FILENAME), packagesBuilder::writePackages);
+      writers.put(buildPath(basePath, PACKAGES_GZ_FILENAME), packagesBuilder::writePackagesGz);
+      writers.put(buildPath(basePath, PACKAGES_RDS_FILENAME), packagesBuilder::writePackagesRds);
+    });
+
+    StorageFacet storageFacet = facet(StorageFacet.class);
+    Map<String, TempBlob> packagesBlobs = new LinkedHashMap<>();
+    IOException failure = null;
+    for (List<Entry<String, StreamWriter>> round : partition(new ArrayList<>(writers.entrySet()), parallelism)) {
+      Map<String, Future<TempBlob>> tasks = new LinkedHashMap<>();
+      for (int i = 0; i < round.size(); i++) {
+        StreamWriter writer = round.get(i).getValue();
+        tasks.put(round.get(i).getKey(), start(() -> createPackagesBlob(storageFacet, writer), i == round.size() - 1));
+      }
+      for (Entry<String, Future<TempBlob>> entry : tasks.entrySet()) {
+        try {
+          packagesBlobs.put(entry.getKey(), entry.getValue().get());
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          failure = new InterruptedIOException("Interrupted while building R metadata");
+        }
+        catch (ExecutionException e) {
+          failure = new IOException("Error building R metadata " + entry.getKey(), e.getCause());
+        }
+      }
+      if (failure != null) {
+        packagesBlobs.values().forEach(TempBlob::close);
+        throw failure;
+      }
+    }
+    return packagesBlobs;
+  }
+
+  /**
+   * Starts a task on the stream executor, or runs it on the calling thread if requested or if the stream executor has
+   * no thread available.
+   */
+  private Future<TempBlob> start(final Callable<TempBlob> task, final boolean onCallingThread) {
+    if (!onCallingThread) {
+      try {
+        return streamExecutor.submit(task);
+      }
+      catch (RejectedExecutionException e) {
+        log.debug("No thread available to build R metadata in repository {}", getRepository().getName());
+      }
     }
+    FutureTask<TempBlob> future = new FutureTask<>(task);
+    future.run();
+    return future;
+  }
+
+  private TempBlob createPackagesBlob(final StorageFacet storageFacet, final StreamWriter writer) throws IOException {
+    try (InputStream is = pipe(streamExecutor, writer)) {
+      return storageFacet.createTempBlob(is, RFacetUtils.HASH_ALGORITHMS);
+    }
+  }
+
+  @Override
+  public void updatePackagesIndex(final String path) {
+    checkNotNull(path);
+    if (!incrementalPackages) {
+      return;
+    }
+    // a read starting later sees at least the changes seen by the reads started before it
+    long update = indexUpdates.incrementAndGet();
+    Asset asset;
+    try {
+      asset = findArchive(path);
+    }
+    catch (RuntimeException e) {
+      // the change may be lost, so load the base path again on its next rebuild
+      packagesIndex.invalidate(getBasePath(path));
+      throw e;
+    }
+    // reads can complete out of order, so a read is only applied if no later one has been
+    synchronized (appliedIndexUpdates) {
+      Long applied = appliedIndexUpdates.get(path);
+      if (applied != null && applied > update) {
+        return;
+      }
+      appliedIndexUpdates.put(path, update);
+      if (asset != null) {
+        packagesIndex.put(asset);
+      }
+      else {
+        packagesIndex.remove(path);
+      }
+    }
+  }
+
+  @Nullable
+  private Asset findArchive(final String path) {
+    StorageTx tx = facet(StorageFacet.class).txSupplier().get();
+    try {
+      tx.begin();
+      Asset asset = facet(RFacet.class).findAsset(tx, path);
+      return asset != null && ARCHIVE == extractAssetKind(asset) ? asset : null;
+    }
+    finally {
+      tx.close();
+    }
+  }
+
+  /**
+   * Streams the archives directly under the base paths in a single pass, using the component group of each archive
+   * (which is its base path) so that only the archives of the requested paths are read.
+   */
+  private Stream<Asset> browseArchiveAssets(final StorageTx tx, final Set<String> basePaths) {
+    return StreamSupport.stream(browseAssetsByGroups(tx, getRepository(), basePaths, ARCHIVE).spliterator(), false)
+        .filter(asset -> basePaths.contains(getBasePath(asset.name())));
   }
 
   @TransactionalStoreBlob
-  protected Content doPutPackagesGz(final StorageTx tx, final String basePath, final TempBlob tempPackagesGz)
+  protected Content doPutPackages(final StorageTx tx, final String path, final TempBlob tempPackages)
       throws IOException
   {
     RFacet rFacet = facet(RFacet.class);
-    Asset asset = rFacet.findOrCreateAsset(tx, buildPath(basePath, PACKAGES_GZ_FILENAME));
-    return saveAsset(tx, asset, tempPackagesGz, "", null);
+    Asset asset = rFacet.findOrCreateAsset(tx, path);
+    return saveAsset(tx, asset, tempPackages, "", null);
   }
 }
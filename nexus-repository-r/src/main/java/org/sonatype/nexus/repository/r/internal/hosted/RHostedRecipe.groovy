@@ -33,7 +33,6 @@ import org.sonatype.nexus.repository.view.Route
 import org.sonatype.nexus.repository.view.Router.Builder
 import org.sonatype.nexus.repository.view.ViewFacet
 import org.sonatype.nexus.repository.view.matchers.ActionMatcher
-import org.sonatype.nexus.repository.view.matchers.token.TokenMatcher
 
 import static org.sonatype.nexus.repository.http.HttpMethods.GET
 import static org.sonatype.nexus.repository.http.HttpMethods.HEAD
@@ -41,7 +40,6 @@ import static org.sonatype.nexus.repository.r.internal.AssetKind.ARCHIVE
 import static org.sonatype.nexus.repository.r.internal.AssetKind.PACKAGES
 import static org.sonatype.nexus.repository.view.matchers.logic.LogicMatchers.and
 import static org.sonatype.nexus.repository.view.matchers.logic.LogicMatchers.not
-import static org.sonatype.nexus.repository.view.matchers.logic.LogicMatchers.or
 
 /**
  * R proxy repository recipe.
@@ -93,8 +91,8 @@ class RHostedRecipe
   private ViewFacet configure(final ConfigurableViewFacet facet) {
     Builder builder = new Builder()
 
-    // PACKAGES.gz is the only supported metadata in hosted for now
-    builder.route(packagesGzMatcher()
+    // PACKAGES, PACKAGES.gz and PACKAGES.rds are generated together from the hosted archives
+    builder.route(packagesMatcher()
         .handler(timingHandler)
         .handler(assetKindHandler.rcurry(PACKAGES))
         .handler(securityHandler)
@@ -149,24 +147,12 @@ class RHostedRecipe
     return facet
   }
 
-  static Route.Builder packagesGzMatcher() {
-    new Route.Builder().matcher(
-        and(
-            new ActionMatcher(GET, HEAD),
-            packagesGzTokenMatcher()
-        ))
-  }
-
   static Route.Builder notSupportedMetadataMatcher() {
     new Route.Builder().matcher(
         and(
             new ActionMatcher(GET, HEAD),
-            or(metadataRdsPathMatcher(), packagesTokenMatcher()),
-            not(packagesGzTokenMatcher())
+            metadataRdsPathMatcher(),
+            not(packagesTokenMatcher())
         ))
   }
-
-  static TokenMatcher packagesGzTokenMatcher() {
-    return new TokenMatcher('/{path:.+}/PACKAGES.gz')
-  }
 }
@@ -0,0 +1,344 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.r.internal.hosted;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.sonatype.goodies.lifecycle.LifecycleSupport;
+import org.sonatype.nexus.common.app.ManagedLifecycle;
+import org.sonatype.nexus.thread.NexusThreadFactory;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static org.sonatype.nexus.common.app.ManagedLifecycle.Phase.SERVICES;
+
+/**
+ * Schedules rebuilds of R hosted metadata, coalescing invalidations for the same repository and base path. A rebuild
+ * runs once no further invalidation has been requested for the debounce interval, or once the maximum delay since the
+ * first pending invalidation has elapsed, whichever comes first. Invalidations requested while a rebuild for the same
+ * key is running are not lost; they schedule another rebuild after the running one completes.
+ *
+ * A failed rebuild is retried with an exponential backoff, starting at the retry delay and doubling with each
+ * consecutive failure up to the maximum retry delay, until it succeeds or the repository's rebuilds are cancelled.
+ *
+ * Rebuilds run on a bounded pool of threads so that callers (usually event handlers) never block.
+ *
+ * @since 1.1.next
+ */
+@Named
+@Singleton
+@ManagedLifecycle(phase = SERVICES)
+public class RMetadataRebuildScheduler
+    extends LifecycleSupport
+{
+  /**
+   * The time in milliseconds without further invalidations after which a rebuild is started.
+   */
+  private final long interval;
+
+  /**
+   * The maximum time in milliseconds between the first pending invalidation and the start of the rebuild.
+   */
+  private final long maxDelay;
+
+  /**
+   * The maximum number of rebuilds running at the same time.
+   */
+  private final int threads;
+
+  /**
+   * The time in milliseconds after which a failed rebuild is first retried.
+   */
+  private final long retryDelay;
+
+  /**
+   * The maximum time in milliseconds between consecutive retries of a failing rebuild.
+   */
+  private final long maxRetryDelay;
+
+  /**
+   * The pending and running rebuilds, guarded by {@code this}.
+   */
+  private final Map<RebuildKey, PendingRebuild> rebuilds = new HashMap<>();
+
+  private ScheduledExecutorService executor;
+
+  /**
+   * Constructor.
+   *
+   * @param interval      The time in milliseconds without further invalidations after which a rebuild is started.
+   * @param maxDelay      The maximum time in milliseconds a pending rebuild is postponed by subsequent invalidations.
+   * @param threads       The maximum number of rebuilds running at the same time.
+   * @param retryDelay    The time in milliseconds after which a failed rebuild is first retried.
+   * @param maxRetryDelay The maximum time in milliseconds between consecutive retries of a failing rebuild.
+   */
+  @Inject
+  public RMetadataRebuildScheduler(
+      @Named("${nexus.r.packagesBuilder.interval:-1000}") final long interval,
+      @Named("${nexus.r.packagesBuilder.maxDelay:-30000}") final long maxDelay,
+      @Named("${nexus.r.packagesBuilder.threads:-2}") final int threads,
+      @Named("${nexus.r.packagesBuilder.retryDelay:-5000}") final long retryDelay,
+      @Named("${nexus.r.packagesBuilder.maxRetryDelay:-300000}") final long maxRetryDelay)
+  {
+    checkArgument(interval >= 0, "Interval must not be negative");
+    checkArgument(threads > 0, "Threads must be greater than 0");
+    checkArgument(retryDelay > 0, "Retry delay must be greater than 0");
+    this.interval = interval;
+    // a maximum delay shorter than the interval would make the interval meaningless
+    this.maxDelay = Math.max(maxDelay, interval);
+    this.threads = threads;
+    this.retryDelay = retryDelay;
+    this.maxRetryDelay = Math.max(maxRetryDelay, retryDelay);
+  }
+
+  @Override
+  protected void doStart() throws Exception {
+    ScheduledThreadPoolExecutor scheduledExecutor =
+        new ScheduledThreadPoolExecutor(threads, new NexusThreadFactory("r-metadata", "rebuild"));
+    scheduledExecutor.setRemoveOnCancelPolicy(true);
+    executor = scheduledExecutor;
+  }
+
+  @Override
+  protected void doStop() throws Exception {
+    synchronized (this) {
+      rebuilds.values().forEach(PendingRebuild::cancel);
+      rebuilds.clear();
+    }
+    executor.shutdownNow();
+    executor = null;
+  }
+
+  /**
+   * Requests a rebuild for the specified repository and base path. This method never blocks on a rebuild.
+   *
+   * @param repositoryName The name of the repository.
+   * @param basePath       The base path of the metadata to rebuild.
+   * @param rebuild        The rebuild to run; only the most recently requested rebuild for a key is run.
+   */
+  public synchronized void request(final String repositoryName, final String basePath, final Runnable rebuild) {
+    checkNotNull(rebuild);
+    checkState(executor != null, "R metadata rebuild scheduler is not started");
+    RebuildKey key = new RebuildKey(repositoryName, basePath);
+    long now = System.currentTimeMillis();
+    PendingRebuild pending = rebuilds.get(key);
+    if (pending == null) {
+      pending = new PendingRebuild(rebuild, now);
+      rebuilds.put(key, pending);
+      schedule(key, pending, interval);
+    }
+    else if (pending.running) {
+      pending.rerun(rebuild, now);
+    }
+    else {
+      // the scheduled check postpones the rebuild according to the updated request time
+      pending.rebuild = rebuild;
+      pending.lastRequested = now;
+    }
+  }
+
+  /**
+   * Discards all pending (not yet running) rebuilds and retries for the specified repository.
+   *
+   * @param repositoryName The name of the repository.
+   */
+  public synchronized void cancel(final String repositoryName) {
+    Iterator<Map.Entry<RebuildKey, PendingRebuild>> entries = rebuilds.entrySet().iterator();
+    while (entries.hasNext()) {
+      Map.Entry<RebuildKey, PendingRebuild> entry = entries.next();
+      if (entry.getKey().repositoryName.equals(repositoryName)) {
+        PendingRebuild pending = entry.getValue();
+        if (pending.running) {
+          pending.rerun = false;
+          pending.cancelled = true;
+        }
+        else {
+          pending.cancel();
+          entries.remove();
+        }
+      }
+    }
+  }
+
+  private void schedule(final RebuildKey key, final PendingRebuild pending, final long delay) {
+    pending.future = executor.schedule(() -> check(key, pending), Math.max(delay, 0L), TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Runs the rebuild if it is due, otherwise checks again once it will be. A failed rebuild is checked again once its
+   * backoff has elapsed.
+   */
+  private void check(final RebuildKey key, final PendingRebuild pending) {
+    Runnable rebuild;
+    synchronized (this) {
+      if (rebuilds.get(key) != pending) {
+        return;
+      }
+      long now = System.currentTimeMillis();
+      long due = pending.due(interval, maxDelay);
+      if (now < due) {
+        schedule(key, pending, due - now);
+        return;
+      }
+      pending.running = true;
+      rebuild = pending.rebuild;
+    }
+    Exception failure = null;
+    try {
+      log.debug("Rebuilding R metadata for path {} in repository {}", key.basePath, key.repositoryName);
+      rebuild.run();
+    }
+    catch (Exception e) {
+      failure = e;
+    }
+    finally {
+      synchronized (this) {
+        pending.running = false;
+        long now = System.currentTimeMillis();
+        boolean retry = failure != null && !pending.cancelled && executor != null;
+        if (failure == null) {
+          pending.failures = 0;
+        }
+        else if (retry) {
+          long delay = pending.backoff(now, retryDelay, maxRetryDelay);
+          log.warn("Failed to rebuild R metadata for path {} in repository {}, retrying in {}ms", key.basePath,
+              key.repositoryName, delay, failure);
+        }
+        else {
+          log.warn("Failed to rebuild R metadata for path {} in repository {}", key.basePath, key.repositoryName,
+              failure);
+        }
+        if ((pending.rerun || retry) && executor != null) {
+          pending.rerun = false;
+          schedule(key, pending, pending.due(interval, maxDelay) - now);
+        }
+        else if (rebuilds.get(key) == pending) {
+          rebuilds.remove(key);
+        }
+      }
+    }
+  }
+
+  /**
+   * The state of the rebuild for a single key, guarded by the scheduler.
+   */
+  private static class PendingRebuild
+  {
+    private Runnable rebuild;
+
+    private long firstRequested;
+
+    private long lastRequested;
+
+    private boolean running;
+
+    private boolean rerun;
+
+    private boolean cancelled;
+
+    /**
+     * The number of consecutive failures of the rebuild.
+     */
+    private int failures;
+
+    /**
+     * The time before which the rebuild must not run again because it failed.
+     */
+    private long notBefore;
+
+    private ScheduledFuture<?> future;
+
+    PendingRebuild(final Runnable rebuild, final long now) {
+      this.rebuild = rebuild;
+      this.firstRequested = now;
+      this.lastRequested = now;
+    }
+
+    void rerun(final Runnable rebuild, final long now) {
+      if (!rerun) {
+        rerun = true;
+        firstRequested = now;
+      }
+      this.rebuild = rebuild;
+      lastRequested = now;
+      cancelled = false;
+    }
+
+    long due(final long interval, final long maxDelay) {
+      return Math.max(Math.min(lastRequested + interval, firstRequested + maxDelay), notBefore);
+    }
+
+    /**
+     * Records a failure of the rebuild, postponing the next run by a delay doubling with each consecutive failure.
+     *
+     * @return the delay in milliseconds.
+     */
+    long backoff(final long now, final long retryDelay, final long maxRetryDelay) {
+      long delay = retryDelay << Math.min(failures, 30);
+      delay = delay > 0 ? Math.min(delay, maxRetryDelay) : maxRetryDelay;
+      failures++;
+      notBefore = now + delay;
+      return delay;
+    }
+
+    void cancel() {
+      if (future != null) {
+        future.cancel(false);
+      }
+    }
+  }
+
+  /**
+   * Identifies the metadata of a base path in a repository.
+   */
+  private static final class RebuildKey
+  {
+    private final String repositoryName;
+
+    private final String basePath;
+
+    RebuildKey(final String repositoryName, final String basePath) {
+      this.repositoryName = checkNotNull(repositoryName);
+      this.basePath = checkNotNull(basePath);
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      RebuildKey that = (RebuildKey) o;
+      return repositoryName.equals(that.repositoryName) && basePath.equals(that.basePath);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(repositoryName, basePath);
+    }
+  }
+}
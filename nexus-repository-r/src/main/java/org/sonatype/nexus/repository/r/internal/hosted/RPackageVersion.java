@@ -12,17 +12,21 @@
  */
 package org.sonatype.nexus.repository.r.internal.hosted;
 
+import java.util.Arrays;
 import java.util.Locale;
-import java.util.Objects;
+
+import javax.annotation.Nullable;
 
 import se.sawano.java.text.AlphanumericComparator;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
- * Class representing a single valid R package version that can be compared to other versions. Version formats
- * explicitly supported/tested are those that include digits separated by dots or dashes, but this is not internally
- * enforced (and using other version schemes will result in undefined behavior).
+ * Class representing a single valid R package version that can be compared to other versions. Valid versions are
+ * sequences of non-negative integers separated by dots or dashes, which are parsed once into their numeric components
+ * and compared component by component as R does, a version that is a prefix of another being the lesser one. Versions
+ * that are not valid are compared alphanumerically instead (and using other version schemes will result in undefined
+ * ordering between valid and invalid versions).
  *
  * Refer to R's {@code package_version} and {@code utils::compareVersions} functions for implementation details.
  */
@@ -30,7 +34,7 @@ public class RPackageVersion
     implements Comparable<RPackageVersion>
 {
   /**
-   * An alphanumeric comparator that will produce the proper ordering for R version strings.
+   * An alphanumeric comparator used for version strings that are not valid R versions.
    */
   private static final AlphanumericComparator versionComparator = new AlphanumericComparator(Locale.US);
 
@@ -40,9 +44,10 @@ public class RPackageVersion
   private final String originalVersion;
 
   /**
-   * The normalized version string with all dashes replaced with dots for quick alphanumeric comparison.
+   * The numeric components of the version, or {@code null} if the version is not a valid R version.
    */
-  private final String normalizedVersion;
+  @Nullable
+  private final int[] components;
 
   /**
    * Constructor.
@@ -51,24 +56,48 @@ public class RPackageVersion
    */
   public RPackageVersion(final String version) {
     this.originalVersion = checkNotNull(version).trim();
-    this.normalizedVersion = originalVersion.replaceAll("-", ".");
+    this.components = parse(originalVersion);
+  }
+
+  /**
+   * Returns the version string as originally provided, without surrounding whitespace.
+   */
+  public String getVersion() {
+    return originalVersion;
   }
 
   /**
-   * Compares two {@code RPackageVersion}s with the assumption that both are valid version strings.
+   * Compares two {@code RPackageVersion}s component by component, or alphanumerically if either is not a valid version.
    *
    * @param other The {@code RPackageVersion} with which to compare.
    * @return Integer indicating if the version is less than, equal to, or greater than this version.
    */
   @Override
   public int compareTo(final RPackageVersion other) {
-    return versionComparator.compare(normalizedVersion, other.normalizedVersion);
+    if (components == null || other.components == null) {
+      return versionComparator.compare(normalizedVersion(), other.normalizedVersion());
+    }
+    int length = Math.min(components.length, other.components.length);
+    for (int i = 0; i < length; i++) {
+      int result = Integer.compare(components[i], other.components[i]);
+      if (result != 0) {
+        return result;
+      }
+    }
+    return Integer.compare(components.length, other.components.length);
+  }
+
+  /**
+   * Returns whether this version is greater than another, e.g. when picking the latest version of a package.
+   */
+  public boolean isGreaterThan(final RPackageVersion other) {
+    return compareTo(other) > 0;
   }
 
   /**
    * Returns whether or not this {@code RPackageVersion} is equal to another object. For purposes of the comparison,
-   * the two will be equal if and only if both are {@code RPackageVersion}s and their normalized version strings are
-   * equal.
+   * the two will be equal if and only if both are {@code RPackageVersion}s and either both are valid versions with the
+   * same components or neither is and their normalized version strings are equal.
    *
    * @param o The other object.
    * @return {@code true} if equal, {@code false} otherwise
@@ -82,21 +111,25 @@ public class RPackageVersion
       return false;
     }
     RPackageVersion that = (RPackageVersion) o;
-    return Objects.equals(normalizedVersion, that.normalizedVersion);
+    if (components == null || that.components == null) {
+      return components == null && that.components == null && normalizedVersion().equals(that.normalizedVersion());
+    }
+    return Arrays.equals(components, that.components);
   }
 
   /**
-   * Returns a hash code for this {@code RPackageVersion} derived from the hash code for the normalized version string.
+   * Returns a hash code for this {@code RPackageVersion} derived from its components, or from the normalized version
+   * string if the version is not valid.
    *
    * @return The hash code for this {@code RPackageVersion}.
    */
   @Override
   public int hashCode() {
-    return Objects.hash(normalizedVersion);
+    return components != null ? Arrays.hashCode(components) : normalizedVersion().hashCode();
   }
 
   /**
-   * Returns a string representation containing both the original version string and its normalized representation
+   * Returns a string representation containing both the original version string and its parsed representation
    * internal to the instance.
    *
    * @return The string representation.
@@ -105,7 +138,56 @@ public class RPackageVersion
   public String toString() {
     return "RPackageVersion{" +
         "originalVersion='" + originalVersion + '\'' +
-        ", normalizedVersion='" + normalizedVersion + '\'' +
+        ", components=" + Arrays.toString(components) +
         '}';
   }
+
+  /**
+   * Returns the version string with all dashes replaced with dots, for alphanumeric comparison.
+   */
+  private String normalizedVersion() {
+    return originalVersion.replace('-', '.');
+  }
+
+  /**
+   * Parses a version string into its numeric components, returning {@code null} if it is not a sequence of integers
+   * separated by dots or dashes.
+   */
+  @Nullable
+  private static int[] parse(final String version) {
+    int length = version.length();
+    if (length == 0) {
+      return null;
+    }
+    int count = 1;
+    for (int i = 0; i < length; i++) {
+      char c = version.charAt(i);
+      if (c == '.' || c == '-') {
+        count++;
+      }
+    }
+    int[] components = new int[count];
+    int component = 0;
+    int digits = 0;
+    long value = 0;
+    for (int i = 0; i <= length; i++) {
+      char c = i < length ? version.charAt(i) : '.';
+      if (c >= '0' && c <= '9') {
+        value = value * 10 + (c - '0');
+        if (value > Integer.MAX_VALUE) {
+          return null;
+        }
+        digits++;
+      }
+      else if ((c == '.' || c == '-') && digits > 0) {
+        components[component++] = (int) value;
+        value = 0;
+        digits = 0;
+      }
+      else {
+        return null;
+      }
+    }
+    return components;
+  }
 }
@@ -12,26 +12,16 @@
  */
 package org.sonatype.nexus.repository.r.internal.hosted;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.util.Enumeration;
+import java.io.OutputStream;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.TreeMap;
 
-import javax.mail.internet.InternetHeaders;
-
+import org.sonatype.nexus.repository.r.internal.util.RPackagesUtils;
 import org.sonatype.nexus.repository.storage.Asset;
 
-import org.apache.commons.compress.compressors.CompressorException;
-import org.apache.commons.compress.compressors.CompressorOutputStream;
-import org.apache.commons.compress.compressors.CompressorStreamFactory;
-
-import static com.google.common.base.Charsets.UTF_8;
 import static java.util.Collections.unmodifiableMap;
-import static org.apache.commons.compress.compressors.CompressorStreamFactory.GZIP;
 import static org.sonatype.nexus.repository.r.internal.RAttributes.P_DEPENDS;
 import static org.sonatype.nexus.repository.r.internal.RAttributes.P_IMPORTS;
 import static org.sonatype.nexus.repository.r.internal.RAttributes.P_LICENSE;
@@ -42,14 +32,12 @@ import static org.sonatype.nexus.repository.r.internal.RAttributes.P_SUGGESTS;
 import static org.sonatype.nexus.repository.r.internal.RAttributes.P_VERSION;
 
 /**
- * Builds the contents of a PACKAGES.gz file based on the provided assets, taking into account the greatest version of a
- * particular package that is available in a (hosted) repository.
+ * Builds the contents of the PACKAGES, PACKAGES.gz and PACKAGES.rds files based on the provided assets, taking into
+ * account the greatest version of a particular package that is available in a (hosted) repository.
  *
  * Note that this maintains all pertinent information for the "latest" version of each package in memory, though the
  * actual amount of information for each package is rather small.
  *
- * TODO: Add support for other metadata types (PACKAGES, PACKAGES.rds etc.)
- *
  * @since 1.1.next
  */
 public class RPackagesBuilder
@@ -81,69 +69,75 @@ public class RPackagesBuilder
    * @param asset The asset to process.
    */
   public void append(final Asset asset) {
-    // is this a newer version of this asset's package than the one we currently have (if we have one)?
-    String packageName = asset.formatAttributes().get(P_PACKAGE, String.class);
-    RPackageVersion oldVersion = packageVersions.get(packageName);
-    RPackageVersion newVersion = new RPackageVersion(asset.formatAttributes().get(P_VERSION, String.class));
-    if (oldVersion == null || newVersion.compareTo(oldVersion) > 0) {
+    append(extractPackageInformation(asset));
+  }
 
+  /**
+   * Processes the information for a single package version, updating the greatest version and details for the package
+   * if appropriate.
+   *
+   * @param information The package information as returned by {@link #extractPackageInformation(Asset)}.
+   */
+  public void append(final Map<String, String> information) {
+    // is this a newer version of this package than the one we currently have (if we have one)?
+    String packageName = information.get(P_PACKAGE);
+    RPackageVersion oldVersion = packageVersions.get(packageName);
+    RPackageVersion newVersion = new RPackageVersion(information.get(P_VERSION));
+    if (oldVersion == null || newVersion.isGreaterThan(oldVersion)) {
       // if so, use the most recent information instead and update the greatest version encountered
-      Map<String, String> newInformation = new HashMap<>();
-      newInformation.put(P_PACKAGE, asset.formatAttributes().get(P_PACKAGE, String.class));
-      newInformation.put(P_VERSION, asset.formatAttributes().get(P_VERSION, String.class));
-      newInformation.put(P_DEPENDS, asset.formatAttributes().get(P_DEPENDS, String.class));
-      newInformation.put(P_IMPORTS, asset.formatAttributes().get(P_IMPORTS, String.class));
-      newInformation.put(P_SUGGESTS, asset.formatAttributes().get(P_SUGGESTS, String.class));
-      newInformation.put(P_LINKINGTO, asset.formatAttributes().get(P_LINKINGTO, String.class));
-      newInformation.put(P_LICENSE, asset.formatAttributes().get(P_LICENSE, String.class));
-      newInformation.put(P_NEEDS_COMPILATION, asset.formatAttributes().get(P_NEEDS_COMPILATION, String.class));
-
       packageVersions.put(packageName, newVersion);
-      packageInformation.put(packageName, newInformation);
+      packageInformation.put(packageName, information);
     }
   }
 
   /**
-   * Using collected package details builds PACKAGES.gz file and returns it as byte array.
+   * Extracts the package information that is written to the PACKAGES file from the format attributes of an asset.
+   *
+   * @param asset The archive asset.
+   * @return The map of package information.
+   */
+  public static Map<String, String> extractPackageInformation(final Asset asset) {
+    Map<String, String> information = new HashMap<>();
+    information.put(P_PACKAGE, asset.formatAttributes().get(P_PACKAGE, String.class));
+    information.put(P_VERSION, asset.formatAttributes().get(P_VERSION, String.class));
+    information.put(P_DEPENDS, asset.formatAttributes().get(P_DEPENDS, String.class));
+    information.put(P_IMPORTS, asset.formatAttributes().get(P_IMPORTS, String.class));
+    information.put(P_SUGGESTS, asset.formatAttributes().get(P_SUGGESTS, String.class));
+    information.put(P_LINKINGTO, asset.formatAttributes().get(P_LINKINGTO, String.class));
+    information.put(P_LICENSE, asset.formatAttributes().get(P_LICENSE, String.class));
+    information.put(P_NEEDS_COMPILATION, asset.formatAttributes().get(P_NEEDS_COMPILATION, String.class));
+    return information;
+  }
+
+  /**
+   * Using collected package details writes a PACKAGES.gz file to the provided stream, one package at a time, without
+   * buffering the compressed content. The stream is not closed.
    * <p>
    * Call this method ONLY after all information about packages is appended to packageInformation map.
    *
-   * @return PACKAGES.gz as byte array.
+   * @param out The stream to write PACKAGES.gz to.
    */
-  public byte[] buildPackagesGz() throws IOException {
-    try (ByteArrayOutputStream os = new ByteArrayOutputStream()) {
-      CompressorStreamFactory compressorStreamFactory = new CompressorStreamFactory();
-      try (CompressorOutputStream cos = compressorStreamFactory.createCompressorOutputStream(GZIP, os);
-           OutputStreamWriter writer = new OutputStreamWriter(cos, UTF_8)) {
-        for (Entry<String, Map<String, String>> eachPackage : packageInformation.entrySet()) {
-          writePackageInfo(writer, eachPackage.getValue());
-        }
-      }
-      return os.toByteArray();
-    }
-    catch (CompressorException e) {
-      throw new IOException("Error compressing metadata", e);
-    }
+  public void writePackagesGz(final OutputStream out) throws IOException {
+    RPackagesUtils.writePackagesGz(packageInformation.values(), out);
   }
 
-  private void writePackageInfo(final OutputStreamWriter writer, final Map<String, String> packageInfo)
-      throws IOException
-  {
-    InternetHeaders headers = new InternetHeaders();
-    headers.addHeader(P_PACKAGE, packageInfo.get(P_PACKAGE));
-    headers.addHeader(P_VERSION, packageInfo.get(P_VERSION));
-    headers.addHeader(P_DEPENDS, packageInfo.get(P_DEPENDS));
-    headers.addHeader(P_IMPORTS, packageInfo.get(P_IMPORTS));
-    headers.addHeader(P_SUGGESTS, packageInfo.get(P_SUGGESTS));
-    headers.addHeader(P_LINKINGTO, packageInfo.get(P_LINKINGTO));
-    headers.addHeader(P_LICENSE, packageInfo.get(P_LICENSE));
-    headers.addHeader(P_NEEDS_COMPILATION, packageInfo.get(P_NEEDS_COMPILATION));
-    Enumeration<String> headerLines = headers.getAllHeaderLines();
-    while (headerLines.hasMoreElements()) {
-      String line = headerLines.nextElement();
-      writer.write(line, 0, line.length());
-      writer.write('\n');
-    }
-    writer.write('\n');
+  /**
+   * Using collected package details writes an uncompressed PACKAGES file to the provided stream. The stream is not
+   * closed.
+   *
+   * @param out The stream to write PACKAGES to.
+   */
+  public void writePackages(final OutputStream out) throws IOException {
+    RPackagesUtils.writePackages(packageInformation.values(), out);
+  }
+
+  /**
+   * Using collected package details writes a PACKAGES.rds file (the serialized matrix of package information) to the
+   * provided stream. The stream is not closed.
+   *
+   * @param out The stream to write PACKAGES.rds to.
+   */
+  public void writePackagesRds(final OutputStream out) throws IOException {
+    RPackagesUtils.writePackagesRds(packageInformation.values(), out);
   }
 }
@@ -14,6 +14,11 @@ package org.sonatype.nexus.repository.r.internal.hosted;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -34,14 +39,15 @@ import com.google.common.eventbus.AllowConcurrentEvents;
 import com.google.common.eventbus.Subscribe;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 import static org.sonatype.nexus.common.stateguard.StateGuardLifecycleSupport.State.STARTED;
 import static org.sonatype.nexus.repository.r.internal.AssetKind.ARCHIVE;
 import static org.sonatype.nexus.repository.r.internal.util.RPathUtils.getBasePath;
 
 /**
- * Implementation of {@link RPackagesBuilderFacet} targeted for use with hosted repositories. Uses event dispatching to
- * ensure that we do not have race conditions when processing and rebuilding metadata, and also imposes a waiting period
- * to batch metadata updates.
+ * Implementation of {@link RPackagesBuilderFacet} targeted for use with hosted repositories. Uses event dispatching and
+ * a {@link RMetadataRebuildScheduler} to ensure that we do not have race conditions when processing and rebuilding
+ * metadata, and also imposes a waiting period to batch metadata updates.
  *
  * @since 1.1.next
  */
@@ -56,33 +62,58 @@ public class RPackagesBuilderFacetImpl
   private final EventManager eventManager;
 
   /**
-   * The interval in milliseconds to wait between rebuilds.
+   * The scheduler coalescing and running the rebuilds.
    */
-  private final long interval;
+  private final RMetadataRebuildScheduler rebuildScheduler;
 
   /**
-   * The flag indicating if we are currently waiting to rebuild.
+   * The base paths invalidated since the last rebuild started.
    */
-  private boolean waiting;
+  private final Set<String> invalidatedBasePaths = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Whether or not a rebuild of this repository is running. Rebuilds are serialized so that an older rebuild never
+   * overwrites a newer one, but without making rebuilds wait for each other: the running rebuild picks up the paths
+   * invalidated in the meantime instead.
+   */
+  private final AtomicBoolean rebuilding = new AtomicBoolean();
+
+  /**
+   * The base paths invalidated while invalidation is suspended, guarded by {@link #suspensionLock}.
+   */
+  private final Set<String> deferredBasePaths = new HashSet<>();
+
+  /**
+   * The number of active suspensions of invalidation, guarded by {@link #suspensionLock}.
+   */
+  private int suspensions;
+
+  private final Object suspensionLock = new Object();
 
   /**
    * Constructor.
    *
-   * @param eventManager The event manager to use when posting new events.
-   * @param interval     The interval in milliseconds to wait between rebuilds.
+   * @param eventManager     The event manager to use when posting new events.
+   * @param rebuildScheduler The scheduler coalescing and running the rebuilds.
    */
   @Inject
   public RPackagesBuilderFacetImpl(
       final EventManager eventManager,
-      @Named("${nexus.r.packagesBuilder.interval:-1000}") final long interval)
+      final RMetadataRebuildScheduler rebuildScheduler)
   {
     this.eventManager = checkNotNull(eventManager);
-    this.interval = interval;
+    this.rebuildScheduler = checkNotNull(rebuildScheduler);
+  }
+
+  @Override
+  protected void doStop() throws Exception {
+    rebuildScheduler.cancel(getRepository().getName());
   }
 
   /**
    * Handles {@link AssetEvent} events concurrently, requesting a metadata invalidation and rebuild if warranted
-   * by the event contents.
+   * by the event contents. Archive events from every node update the PACKAGES index, so that the index of each node
+   * follows the uploads made through the others, but only the node where the change happened rebuilds the metadata.
    *
    * @param event The event to handle.
    */
@@ -90,8 +121,11 @@ public class RPackagesBuilderFacetImpl
   @Guarded(by = STARTED)
   @AllowConcurrentEvents
   public void on(final AssetEvent event) {
-    if (shouldInvalidate(event)) {
-      invalidateMetadata(getBasePath(event.getAsset().name()));
+    if (isArchiveEvent(event)) {
+      getRepository().facet(RHostedFacet.class).updatePackagesIndex(event.getAsset().name());
+      if (event.isLocal()) {
+        invalidateMetadata(getBasePath(event.getAsset().name()));
+      }
     }
   }
 
@@ -104,56 +138,119 @@ public class RPackagesBuilderFacetImpl
    */
   @Override
   public void invalidateMetadata(final String basePath) {
-    if (!waiting) {
-      eventManager.post(new RMetadataInvalidationEvent(getRepository().getName(), basePath));
+    synchronized (suspensionLock) {
+      if (suspensions > 0) {
+        deferredBasePaths.add(basePath);
+        return;
+      }
+    }
+    eventManager.post(new RMetadataInvalidationEvent(getRepository().getName(), basePath));
+  }
+
+  @Override
+  public void suspendInvalidation() {
+    synchronized (suspensionLock) {
+      suspensions++;
+    }
+  }
+
+  @Override
+  public void resumeInvalidation() {
+    Set<String> basePaths;
+    synchronized (suspensionLock) {
+      checkState(suspensions > 0, "Invalidation is not suspended");
+      if (--suspensions > 0) {
+        return;
+      }
+      basePaths = new HashSet<>(deferredBasePaths);
+      deferredBasePaths.clear();
     }
+    log.debug("Resuming R metadata invalidation for paths {} in repository {}", basePaths, getRepository().getName());
+    basePaths.forEach(this::invalidateMetadata);
   }
 
   /**
-   * Listen for invalidation of the metadata, wait a configured time and then rebuild. The waiting allows throwing away
-   * of subsequent events to reduce the number of rebuilds if multiple archives are being uploaded. This method must NOT
-   * be allowed to process concurrent events as race conditions may result when rebuilding the data.
+   * Listen for invalidation of the metadata and request a rebuild from the {@link RMetadataRebuildScheduler}, which
+   * coalesces subsequent invalidations of the same base path to reduce the number of rebuilds if multiple archives are
+   * being uploaded, and runs the rebuild on its own threads so that this method never blocks.
    */
   @Subscribe
+  @AllowConcurrentEvents
   public void on(final RMetadataInvalidationEvent event) {
     if (getRepository().getName().equals(event.getRepositoryName())) {
-      try {
-        waiting = true;
-        Thread.sleep(interval);
-      }
-      catch (InterruptedException e) {
-        log.warn("R invalidation thread interrupted on repository {}, proceeding with invalidation",
+      invalidatedBasePaths.add(event.getBasePath());
+      rebuildScheduler.request(event.getRepositoryName(), event.getBasePath(), this::rebuildMetadata);
+    }
+  }
+
+  /**
+   * Rebuilds the metadata of every base path invalidated so far, including those whose own rebuild is still pending;
+   * those rebuilds then find nothing left to do. If another rebuild of this repository is running, returns at once and
+   * leaves the invalidated paths to it rather than tying up a scheduler thread.
+   *
+   * @throws UncheckedIOException if the metadata could not be rebuilt, in which case the paths stay invalidated and the
+   *                              scheduler retries the rebuild.
+   */
+  private void rebuildMetadata() {
+    do {
+      if (!rebuilding.compareAndSet(false, true)) {
+        log.debug("R PACKAGES metadata of repository {} is being rebuilt, leaving the invalidated paths to it",
             getRepository().getName());
-        Thread.currentThread().interrupt();
+        return;
       }
-      waiting = false;
-      log.info("Rebuilding R PACKAGES.gz metadata for repository {}", getRepository().getName());
-      UnitOfWork.begin(getRepository().facet(StorageFacet.class).txSupplier());
       try {
-        RHostedFacet hostedFacet = getRepository().facet(RHostedFacet.class);
-        hostedFacet.buildAndPutPackagesGz(event.getBasePath());
-      }
-      catch (IOException e) {
-        throw new UncheckedIOException(e);
+        Set<String> basePaths;
+        while (!(basePaths = takeInvalidatedBasePaths()).isEmpty()) {
+          rebuildMetadata(basePaths);
+        }
       }
       finally {
-        UnitOfWork.end();
+        rebuilding.set(false);
+      }
+      // paths invalidated after the last pass but skipped by a concurrent rebuild before the flag was cleared
+    } while (!invalidatedBasePaths.isEmpty());
+  }
+
+  private Set<String> takeInvalidatedBasePaths() {
+    Set<String> basePaths = new HashSet<>();
+    for (Iterator<String> iterator = invalidatedBasePaths.iterator(); iterator.hasNext(); ) {
+      basePaths.add(iterator.next());
+      iterator.remove();
+    }
+    return basePaths;
+  }
+
+  private void rebuildMetadata(final Set<String> basePaths) {
+    log.info("Rebuilding R PACKAGES metadata for paths {} in repository {}", basePaths, getRepository().getName());
+    boolean rebuilt = false;
+    UnitOfWork.begin(getRepository().facet(StorageFacet.class).txSupplier());
+    try {
+      RHostedFacet hostedFacet = getRepository().facet(RHostedFacet.class);
+      hostedFacet.buildAndPutPackages(basePaths);
+      rebuilt = true;
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    finally {
+      UnitOfWork.end();
+      if (!rebuilt) {
+        // keep the paths invalidated so that the retry of this rebuild picks them up again
+        invalidatedBasePaths.addAll(basePaths);
       }
     }
   }
 
   /**
-   * Returns whether or not an asset event should result in an invalidation request. In order for the event to mandate
-   * that we rebuild metadata, it must both refer to this particular repository, and it also must refer to an uploaded
-   * archive and not to one of the metadata files itself. This helps ensure that we don't end up responding to metadata
-   * changes when rebuilding metadata and end up in a loop.
+   * Returns whether or not an asset event refers to an archive of this repository. Only such events should result in
+   * an invalidation request: events about the metadata files themselves are ignored, which helps ensure that we don't
+   * end up responding to metadata changes when rebuilding metadata and end up in a loop.
    *
    * @param assetEvent The asset event to process.
    * @return true if an archive, false if a packages file
    */
-  private boolean shouldInvalidate(final AssetEvent assetEvent) {
-    return assetEvent.isLocal() &&
-        getRepository().getName().equals(assetEvent.getRepositoryName()) &&
+  private boolean isArchiveEvent(final AssetEvent assetEvent) {
+    return getRepository().getName().equals(assetEvent.getRepositoryName()) &&
         isArchiveAssetKind(assetEvent.getAsset());
   }
 
@@ -0,0 +1,260 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.r.internal.hosted;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.sonatype.nexus.repository.storage.Asset;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.Collections.singleton;
+import static org.sonatype.nexus.repository.r.internal.RAttributes.P_PACKAGE;
+import static org.sonatype.nexus.repository.r.internal.RAttributes.P_VERSION;
+import static org.sonatype.nexus.repository.r.internal.hosted.RPackagesBuilder.extractPackageInformation;
+import static org.sonatype.nexus.repository.r.internal.util.RPathUtils.getBasePath;
+
+/**
+ * Incrementally maintained table of the archives in a hosted repository, partitioned by base path, which keeps track of
+ * the greatest version of every package. Archive additions, replacements and deletions are applied one at a time, so
+ * that PACKAGES metadata for a base path can be regenerated in time proportional to the number of packages under that
+ * path instead of the number of assets in the repository.
+ *
+ * A base path has to be loaded once (from a scan of its archives) before its table is used. Changes received while a
+ * base path is being loaded take precedence over the scanned assets, so that no change is lost to the race between
+ * the scan and the asset events.
+ *
+ * @since 1.1.next
+ */
+public class RPackagesIndex
+{
+  private final ConcurrentMap<String, BasePathPackages> basePaths = new ConcurrentHashMap<>();
+
+  /**
+   * Returns whether or not the table for the specified base path has been loaded.
+   *
+   * @param basePath The base path.
+   * @return {@code true} if the base path is loaded and kept up to date incrementally.
+   */
+  public boolean isLoaded(final String basePath) {
+    BasePathPackages packages = basePaths.get(basePath);
+    return packages != null && packages.isLoaded();
+  }
+
+  /**
+   * Loads the table for the specified base path from the provided archive assets. Loading a base path that has already
+   * been loaded has no effect.
+   *
+   * @param basePath The base path.
+   * @param assets   All archive assets located directly under the base path.
+   */
+  public void load(final String basePath, final Iterable<Asset> assets) {
+    load(singleton(checkNotNull(basePath)), assets);
+  }
+
+  /**
+   * Loads the tables for several base paths from a single pass over the provided archive assets. Assets that are not
+   * located directly under one of the base paths are ignored.
+   *
+   * @param paths  The base paths.
+   * @param assets All archive assets located directly under the base paths.
+   */
+  public void load(final Collection<String> paths, final Iterable<Asset> assets) {
+    checkNotNull(paths);
+    checkNotNull(assets);
+    Map<String, BasePathPackages> loading = new HashMap<>();
+    for (String basePath : paths) {
+      loading.put(basePath, basePaths.computeIfAbsent(basePath, path -> new BasePathPackages()));
+    }
+    for (Asset asset : assets) {
+      BasePathPackages packages = loading.get(getBasePath(asset.name()));
+      if (packages != null) {
+        packages.load(asset.name(), extractPackageInformation(asset));
+      }
+    }
+    loading.values().forEach(BasePathPackages::loaded);
+  }
+
+  /**
+   * Applies a created or updated archive asset to the table for its base path, if that base path is being tracked.
+   *
+   * @param asset The archive asset.
+   */
+  public void put(final Asset asset) {
+    BasePathPackages packages = basePaths.get(getBasePath(asset.name()));
+    if (packages != null) {
+      packages.put(asset.name(), extractPackageInformation(asset));
+    }
+  }
+
+  /**
+   * Applies a deleted archive asset to the table for its base path, if that base path is being tracked.
+   *
+   * @param asset The archive asset.
+   */
+  public void remove(final Asset asset) {
+    remove(asset.name());
+  }
+
+  /**
+   * Applies a deleted archive to the table for its base path, if that base path is being tracked.
+   *
+   * @param assetName The name of the archive asset.
+   */
+  public void remove(final String assetName) {
+    BasePathPackages packages = basePaths.get(getBasePath(assetName));
+    if (packages != null) {
+      packages.remove(assetName);
+    }
+  }
+
+  /**
+   * Stops tracking the specified base path; it will have to be loaded again before it is used.
+   *
+   * @param basePath The base path.
+   */
+  public void invalidate(final String basePath) {
+    basePaths.remove(basePath);
+  }
+
+  /**
+   * Creates a {@link RPackagesBuilder} containing the greatest version of every package under a loaded base path.
+   *
+   * @param basePath The base path.
+   * @return The populated builder.
+   */
+  public RPackagesBuilder newBuilder(final String basePath) {
+    RPackagesBuilder builder = new RPackagesBuilder();
+    BasePathPackages packages = basePaths.get(basePath);
+    if (packages != null) {
+      packages.appendLatest(builder);
+    }
+    return builder;
+  }
+
+  /**
+   * The table of packages for a single base path.
+   */
+  private static class BasePathPackages
+  {
+    /**
+     * The information for every archive under the base path, keyed by package name and then by asset name.
+     */
+    private final Map<String, Map<String, Map<String, String>>> packages = new HashMap<>();
+
+    /**
+     * The information for the greatest version of each package, keyed by package name.
+     */
+    private final Map<String, Map<String, String>> latest = new HashMap<>();
+
+    /**
+     * The package names of the archives under the base path, keyed by asset name.
+     */
+    private final Map<String, String> assetPackages = new HashMap<>();
+
+    /**
+     * The asset names that were added, replaced or deleted while loading, which the scanned assets must not override.
+     */
+    private Set<String> changedWhileLoading = new HashSet<>();
+
+    synchronized boolean isLoaded() {
+      return changedWhileLoading == null;
+    }
+
+    synchronized void load(final String assetName, final Map<String, String> information) {
+      if (changedWhileLoading != null && !changedWhileLoading.contains(assetName)) {
+        doPut(assetName, information);
+      }
+    }
+
+    synchronized void loaded() {
+      changedWhileLoading = null;
+    }
+
+    synchronized void put(final String assetName, final Map<String, String> information) {
+      if (changedWhileLoading != null) {
+        changedWhileLoading.add(assetName);
+      }
+      doPut(assetName, information);
+    }
+
+    synchronized void remove(final String assetName) {
+      if (changedWhileLoading != null) {
+        changedWhileLoading.add(assetName);
+      }
+      doRemove(assetName);
+    }
+
+    synchronized void appendLatest(final RPackagesBuilder builder) {
+      latest.values().forEach(builder::append);
+    }
+
+    private void doPut(final String assetName, final Map<String, String> information) {
+      String packageName = information.get(P_PACKAGE);
+      if (packageName == null || information.get(P_VERSION) == null) {
+        doRemove(assetName);
+        return;
+      }
+      if (!packageName.equals(assetPackages.get(assetName))) {
+        // a replaced archive may now describe a different package
+        doRemove(assetName);
+      }
+      assetPackages.put(assetName, packageName);
+      Map<String, String> replaced =
+          packages.computeIfAbsent(packageName, name -> new HashMap<>()).put(assetName, information);
+
+      Map<String, String> current = latest.get(packageName);
+      if (current == null || current == replaced) {
+        // first version of the package, or the archive holding the greatest version was replaced
+        updateLatest(packageName);
+      }
+      else if (isGreater(information, current)) {
+        latest.put(packageName, information);
+      }
+    }
+
+    private void doRemove(final String assetName) {
+      String packageName = assetPackages.remove(assetName);
+      if (packageName == null) {
+        return;
+      }
+      Map<String, Map<String, String>> versions = packages.get(packageName);
+      Map<String, String> removed = versions.remove(assetName);
+      if (versions.isEmpty()) {
+        packages.remove(packageName);
+        latest.remove(packageName);
+      }
+      else if (latest.get(packageName) == removed) {
+        updateLatest(packageName);
+      }
+    }
+
+    private void updateLatest(final String packageName) {
+      Map<String, String> greatest = null;
+      RPackageVersion greatestVersion = null;
+      for (Map<String, String> information : packages.get(packageName).values()) {
+        RPackageVersion version = new RPackageVersion(information.get(P_VERSION));
+        if (greatestVersion == null || version.isGreaterThan(greatestVersion)) {
+          greatest = information;
+          greatestVersion = version;
+        }
+      }
+      latest.put(packageName, greatest);
+    }
+  }
+}
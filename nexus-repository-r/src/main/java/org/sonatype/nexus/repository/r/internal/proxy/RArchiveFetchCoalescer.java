@@ -0,0 +1,132 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.r.internal.proxy;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+import javax.annotation.Nullable;
+
+import org.sonatype.goodies.common.ComponentSupport;
+import org.sonatype.nexus.repository.view.Content;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.google.common.base.Throwables;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Coalesces concurrent requests for the same R archive of a proxy repository. The first request for a path fetches
+ * and stores the archive while the requests for the same path arriving in the meantime wait for it, and then serve the
+ * stored archive instead of fetching it again. A failure or a missing archive is reported to the waiting requests as
+ * well, so that they do not retry the upstream one after another.
+ *
+ * @since 1.1.next
+ */
+public class RArchiveFetchCoalescer
+    extends ComponentSupport
+{
+  /**
+   * Gets the content of an archive.
+   */
+  @FunctionalInterface
+  public interface ArchiveGet
+  {
+    @Nullable
+    Content get() throws IOException;
+  }
+
+  /**
+   * The requests in progress keyed by archive path, completed with whether the archive was available.
+   */
+  private final ConcurrentMap<String, CompletableFuture<Boolean>> requests = new ConcurrentHashMap<>();
+
+  /**
+   * The requests for archives.
+   */
+  private final Meter archiveRequests;
+
+  /**
+   * The requests for archives that waited for a concurrent request for the same archive.
+   */
+  private final Meter coalescedRequests;
+
+  public RArchiveFetchCoalescer() {
+    MetricRegistry registry = SharedMetricRegistries.getOrCreate("nexus");
+    this.archiveRequests = registry.meter(name(RArchiveFetchCoalescer.class, "archiveRequests"));
+    this.coalescedRequests = registry.meter(name(RArchiveFetchCoalescer.class, "coalescedRequests"));
+  }
+
+  /**
+   * Gets an archive, waiting for a concurrent request for the same path if there is one. The get is invoked by the
+   * first request for a path, and once that request succeeded with content by each request that waited for it; the
+   * archive is expected to be stored by then so that these gets do not fetch it again.
+   *
+   * @param path The path of the archive.
+   * @param get  The get of the archive for the calling request.
+   * @return The content of the archive, or {@code null} if it is not available.
+   */
+  @Nullable
+  public Content get(final String path, final ArchiveGet get) throws IOException {
+    checkNotNull(path);
+    checkNotNull(get);
+    archiveRequests.mark();
+    CompletableFuture<Boolean> request = new CompletableFuture<>();
+    CompletableFuture<Boolean> firstRequest = requests.putIfAbsent(path, request);
+    if (firstRequest == null) {
+      try {
+        Content content = get.get();
+        request.complete(content != null);
+        return content;
+      }
+      catch (Throwable e) {
+        // completed with errors as well, so that the waiting requests never wait for a request that is gone
+        request.completeExceptionally(e);
+        throw e;
+      }
+      finally {
+        requests.remove(path, request);
+      }
+    }
+
+    coalescedRequests.mark();
+    log.debug("Waiting for the request in progress for R archive {}", path);
+    return await(path, firstRequest) ? get.get() : null;
+  }
+
+  /**
+   * Waits for the first request for an archive, rethrowing its failure.
+   *
+   * @return {@code true} if the archive should be available.
+   */
+  private boolean await(final String path, final CompletableFuture<Boolean> firstRequest) throws IOException {
+    try {
+      return firstRequest.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for R archive " + path);
+    }
+    catch (ExecutionException e) {
+      Throwables.propagateIfPossible(e.getCause(), IOException.class);
+      throw new IOException(e.getCause());
+    }
+  }
+}
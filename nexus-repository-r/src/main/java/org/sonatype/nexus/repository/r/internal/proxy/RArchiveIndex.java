@@ -0,0 +1,107 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.r.internal.proxy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import org.sonatype.nexus.repository.cache.CacheController;
+import org.sonatype.nexus.repository.cache.CacheInfo;
+import org.sonatype.nexus.repository.r.internal.util.RDcfParser;
+import org.sonatype.nexus.repository.r.internal.util.RDcfStanza;
+
+import com.google.common.collect.ImmutableSetMultimap;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.sonatype.nexus.repository.r.internal.RAttributes.P_PACKAGE;
+import static org.sonatype.nexus.repository.r.internal.RAttributes.P_VERSION;
+import static org.sonatype.nexus.repository.r.internal.util.RPathUtils.getArchiveCoordinates;
+
+/**
+ * The package versions listed by the PACKAGES index of a contrib path of an R proxy's upstream, used to answer
+ * requests for archives the upstream does not have without asking it.
+ *
+ * The index is only trusted while the PACKAGES it was built from is fresh, so that archives published upstream since
+ * then are still fetched once the PACKAGES is stale.
+ *
+ * @since 1.1.next
+ */
+public final class RArchiveIndex
+{
+  /**
+   * The field of a PACKAGES stanza giving the location of an archive outside of the contrib path.
+   */
+  static final String P_PATH = "Path";
+
+  private final ImmutableSetMultimap<String, String> versions;
+
+  @Nullable
+  private final CacheInfo cacheInfo;
+
+  RArchiveIndex(final ImmutableSetMultimap<String, String> versions, @Nullable final CacheInfo cacheInfo) {
+    this.versions = checkNotNull(versions);
+    this.cacheInfo = cacheInfo;
+  }
+
+  /**
+   * Parses the package versions of a PACKAGES index, skipping the packages whose archives are elsewhere.
+   *
+   * @param in        The PACKAGES index.
+   * @param cacheInfo The cache info of the PACKAGES index, {@code null} if unknown.
+   */
+  public static RArchiveIndex parse(final InputStream in, @Nullable final CacheInfo cacheInfo) throws IOException {
+    ImmutableSetMultimap.Builder<String, String> versions = ImmutableSetMultimap.builder();
+    RDcfParser parser = new RDcfParser(in);
+    for (RDcfStanza stanza = parser.next(); stanza != null; stanza = parser.next()) {
+      String name = stanza.get(P_PACKAGE);
+      String version = stanza.get(P_VERSION);
+      if (name != null && version != null && !stanza.containsKey(P_PATH)) {
+        versions.put(name, version);
+      }
+    }
+    return new RArchiveIndex(versions.build(), cacheInfo);
+  }
+
+  /**
+   * Returns whether or not the index proves that the upstream does not have an archive of its contrib path. Archives
+   * whose filename does not give their package and version are never proven absent, nor is any archive once the
+   * index is stale according to the {@code cacheController}.
+   */
+  public boolean provesAbsent(final String archivePath, final CacheController cacheController) {
+    if (cacheInfo == null || cacheController.isStale(cacheInfo)) {
+      return false;
+    }
+    Map<String, String> coordinates = getArchiveCoordinates(archivePath);
+    if (coordinates.isEmpty()) {
+      return false;
+    }
+    return !versions.containsEntry(coordinates.get(P_PACKAGE), coordinates.get(P_VERSION));
+  }
+
+  /**
+   * Returns a copy of the index for a PACKAGES index verified to be unchanged upstream.
+   */
+  public RArchiveIndex withCacheInfo(final CacheInfo cacheInfo) {
+    return new RArchiveIndex(versions, cacheInfo);
+  }
+
+  /**
+   * Returns the number of package versions in the index.
+   */
+  public int size() {
+    return versions.size();
+  }
+}
@@ -0,0 +1,415 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.r.internal.proxy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.sonatype.goodies.lifecycle.LifecycleSupport;
+import org.sonatype.nexus.blobstore.api.Blob;
+import org.sonatype.nexus.common.app.ManagedLifecycle;
+import org.sonatype.nexus.repository.Repository;
+import org.sonatype.nexus.repository.r.RFacet;
+import org.sonatype.nexus.repository.r.internal.util.RDcfParser;
+import org.sonatype.nexus.repository.r.internal.util.RDcfStanza;
+import org.sonatype.nexus.repository.storage.Asset;
+import org.sonatype.nexus.repository.storage.StorageFacet;
+import org.sonatype.nexus.repository.storage.StorageTx;
+import org.sonatype.nexus.repository.view.Content;
+import org.sonatype.nexus.thread.NexusExecutorService;
+import org.sonatype.nexus.thread.NexusThreadFactory;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.sonatype.nexus.common.app.ManagedLifecycle.Phase.SERVICES;
+import static org.sonatype.nexus.repository.r.internal.AssetKind.ARCHIVE;
+import static org.sonatype.nexus.repository.r.internal.RAttributes.P_DEPENDS;
+import static org.sonatype.nexus.repository.r.internal.RAttributes.P_IMPORTS;
+import static org.sonatype.nexus.repository.r.internal.RAttributes.P_LINKINGTO;
+import static org.sonatype.nexus.repository.r.internal.RAttributes.P_PACKAGE;
+import static org.sonatype.nexus.repository.r.internal.RAttributes.P_VERSION;
+import static org.sonatype.nexus.repository.r.internal.proxy.RArchiveIndex.P_PATH;
+import static org.sonatype.nexus.repository.r.internal.util.RPathUtils.PACKAGES_FILENAME;
+import static org.sonatype.nexus.repository.r.internal.util.RPathUtils.PACKAGES_GZ_FILENAME;
+import static org.sonatype.nexus.repository.r.internal.util.RPathUtils.buildPath;
+import static org.sonatype.nexus.repository.r.internal.util.RPathUtils.getArchiveCoordinates;
+import static org.sonatype.nexus.repository.r.internal.util.RPathUtils.getBasePath;
+
+/**
+ * Warms R proxy repositories with the dependencies of the archives fetched from their upstream. The packages an archive
+ * depends on, imports or links to are resolved up to the configured depth against the PACKAGES index already cached
+ * for the archive's base path, and the archives missing from the repository are fetched in the background, so that
+ * clients installing a package find most of its dependencies cached when they request them.
+ *
+ * Prefetching is best-effort: it only uses a cached index, never fetches the dependencies of archives fetched by
+ * background requests, and drops prefetches while its queue is full.
+ *
+ * @since 1.1.next
+ */
+@Named
+@Singleton
+@ManagedLifecycle(phase = SERVICES)
+public class RDependencyPrefetcher
+    extends LifecycleSupport
+{
+  /**
+   * The packages that come with R itself and are never in a repository.
+   */
+  private static final Set<String> BASE_PACKAGES = ImmutableSet.of("R", "base", "compiler", "datasets", "graphics",
+      "grDevices", "grid", "methods", "parallel", "splines", "stats", "stats4", "tcltk", "tools", "utils");
+
+  private static final List<String> DEPENDENCY_FIELDS = ImmutableList.of(P_DEPENDS, P_IMPORTS, P_LINKINGTO);
+
+  private static final List<String> ARCHIVE_EXTENSIONS = ImmutableList.of(".tar.gz", ".tgz", ".zip");
+
+  private static final int QUEUE_CAPACITY = 1000;
+
+  /**
+   * The number of levels of dependencies prefetched, 0 to disable prefetching.
+   */
+  private final int depth;
+
+  /**
+   * The maximum number of prefetches running at the same time.
+   */
+  private final int threads;
+
+  /**
+   * The parsed PACKAGES indexes keyed by repository name and base path.
+   */
+  private final Cache<String, PackagesIndex> indexes;
+
+  /**
+   * The repository names and paths of the queued and running prefetches.
+   */
+  private final Set<String> prefetches = ConcurrentHashMap.newKeySet();
+
+  private ThreadPoolExecutor executor;
+
+  /**
+   * Constructor.
+   *
+   * @param depth            The number of levels of dependencies prefetched, 0 to disable prefetching.
+   * @param threads          The maximum number of prefetches running at the same time.
+   * @param indexCacheSize   The maximum number of parsed PACKAGES indexes kept, one per repository and contrib path.
+   * @param indexCacheExpiry The time in seconds after which a parsed PACKAGES index that is not used is discarded.
+   */
+  @Inject
+  public RDependencyPrefetcher(
+      @Named("${nexus.r.proxy.prefetch.depth:-0}") final int depth,
+      @Named("${nexus.r.proxy.prefetch.threads:-4}") final int threads,
+      @Named("${nexus.r.proxy.prefetch.indexCache.size:-32}") final long indexCacheSize,
+      @Named("${nexus.r.proxy.prefetch.indexCache.expiry:-3600}") final long indexCacheExpiry)
+  {
+    checkArgument(depth >= 0, "Depth must not be negative");
+    checkArgument(threads > 0, "Threads must be greater than 0");
+    this.depth = depth;
+    this.threads = threads;
+    this.indexes = CacheBuilder.newBuilder()
+        .maximumSize(indexCacheSize)
+        .expireAfterAccess(indexCacheExpiry, TimeUnit.SECONDS)
+        .build();
+  }
+
+  @Override
+  protected void doStart() throws Exception {
+    if (depth > 0) {
+      executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+          new ArrayBlockingQueue<>(QUEUE_CAPACITY), new NexusThreadFactory("r-proxy", "dependency-prefetcher"));
+      executor.allowCoreThreadTimeOut(true);
+    }
+  }
+
+  @Override
+  protected void doStop() throws Exception {
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+    prefetches.clear();
+    indexes.invalidateAll();
+  }
+
+  /**
+   * Prefetches the dependencies of an archive fetched into a proxy repository, in the background and as the current
+   * user. This method never blocks.
+   *
+   * @param repository The proxy repository.
+   * @param path       The path of the fetched archive.
+   */
+  public void prefetch(final Repository repository, final String path) {
+    checkNotNull(repository);
+    checkNotNull(path);
+    if (depth > 0) {
+      submit(repository, "dependencies:" + path, () -> prefetchDependencies(repository, path));
+    }
+  }
+
+  private void submit(final Repository repository, final String key, final Runnable prefetch) {
+    ThreadPoolExecutor prefetchExecutor = executor;
+    String prefetchKey = repository.getName() + ':' + key;
+    if (prefetchExecutor == null || !prefetches.add(prefetchKey)) {
+      return;
+    }
+    try {
+      NexusExecutorService.forCurrentSubject(prefetchExecutor).execute(() -> {
+        try {
+          prefetch.run();
+        }
+        catch (Exception e) {
+          log.debug("Failed to prefetch {} in repository {}", key, repository.getName(), e);
+        }
+        finally {
+          prefetches.remove(prefetchKey);
+        }
+      });
+    }
+    catch (RejectedExecutionException e) {
+      prefetches.remove(prefetchKey);
+      log.debug("Dropped prefetch of {} in repository {}", key, repository.getName());
+    }
+  }
+
+  private void prefetchDependencies(final Repository repository, final String path) {
+    String name = getArchiveCoordinates(path).get(P_PACKAGE);
+    if (name == null) {
+      return;
+    }
+    String basePath = getBasePath(path);
+    Map<String, PackageEntry> index = loadIndex(repository, basePath);
+    if (index == null) {
+      log.debug("No cached PACKAGES for {} in repository {}, not prefetching", basePath, repository.getName());
+      return;
+    }
+
+    String extension = getArchiveExtension(path);
+    List<String> archivePaths = new ArrayList<>();
+    for (String dependency : resolveDependencies(index, name, depth)) {
+      archivePaths.add(buildPath(basePath, dependency + '_' + index.get(dependency).version + extension));
+    }
+    for (String archivePath : findMissing(repository, archivePaths)) {
+      submit(repository, archivePath, () -> fetch(repository, archivePath));
+    }
+  }
+
+  /**
+   * Returns the extension of an archive, which is the same for all archives under a base path.
+   */
+  private static String getArchiveExtension(final String path) {
+    for (String extension : ARCHIVE_EXTENSIONS) {
+      if (path.endsWith(extension)) {
+        return extension;
+      }
+    }
+    return ARCHIVE_EXTENSIONS.get(0);
+  }
+
+  /**
+   * Loads the cached PACKAGES index of a base path, parsing it again only when the cached asset changed.
+   */
+  @Nullable
+  private Map<String, PackageEntry> loadIndex(final Repository repository, final String basePath) {
+    String packagesPath = null;
+    String blobRef = null;
+    Blob blob = null;
+    StorageTx tx = repository.facet(StorageFacet.class).txSupplier().get();
+    try {
+      tx.begin();
+      RFacet rFacet = repository.facet(RFacet.class);
+      for (String filename : ImmutableList.of(PACKAGES_GZ_FILENAME, PACKAGES_FILENAME)) {
+        Asset asset = rFacet.findAsset(tx, buildPath(basePath, filename));
+        if (asset != null) {
+          packagesPath = asset.name();
+          blobRef = asset.requireBlobRef().toString();
+          blob = tx.requireBlob(asset.requireBlobRef());
+          break;
+        }
+      }
+    }
+    finally {
+      tx.close();
+    }
+    if (blob == null) {
+      return null;
+    }
+
+    String key = repository.getName() + ':' + basePath;
+    PackagesIndex cached = indexes.getIfPresent(key);
+    if (cached != null && cached.blobRef.equals(blobRef)) {
+      return cached.packages;
+    }
+    Map<String, PackageEntry> packages;
+    try (InputStream in = packagesPath.endsWith(".gz") ?
+        new GZIPInputStream(blob.getInputStream()) : blob.getInputStream()) {
+      packages = parseIndex(in);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    indexes.put(key, new PackagesIndex(blobRef, packages));
+    return packages;
+  }
+
+  private List<String> findMissing(final Repository repository, final List<String> archivePaths) {
+    List<String> missing = new ArrayList<>();
+    StorageTx tx = repository.facet(StorageFacet.class).txSupplier().get();
+    try {
+      tx.begin();
+      RFacet rFacet = repository.facet(RFacet.class);
+      for (String archivePath : archivePaths) {
+        if (rFacet.findAsset(tx, archivePath) == null) {
+          missing.add(archivePath);
+        }
+      }
+    }
+    finally {
+      tx.close();
+    }
+    return missing;
+  }
+
+  /**
+   * Fetches an archive through the proxy as a client request for it would.
+   */
+  private void fetch(final Repository repository, final String path) {
+    try {
+      Content content = RProxyRequests.get(repository, path, ARCHIVE);
+      log.debug("Prefetched R archive {} into repository {}: {}", path, repository.getName(),
+          content != null ? "found" : "not found");
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Parses the packages of a PACKAGES index with their versions and dependencies, skipping the packages whose
+   * archives are elsewhere.
+   */
+  @VisibleForTesting
+  static Map<String, PackageEntry> parseIndex(final InputStream in) throws IOException {
+    Map<String, PackageEntry> packages = new HashMap<>();
+    RDcfParser parser = new RDcfParser(in);
+    for (RDcfStanza stanza = parser.next(); stanza != null; stanza = parser.next()) {
+      String name = stanza.get(P_PACKAGE);
+      String version = stanza.get(P_VERSION);
+      if (name != null && version != null && !stanza.containsKey(P_PATH)) {
+        packages.put(name, new PackageEntry(version, parseDependencies(stanza)));
+      }
+    }
+    return packages;
+  }
+
+  /**
+   * Returns the names of the packages a package depends on, imports or links to, without their version requirements
+   * and without the packages that come with R.
+   */
+  @VisibleForTesting
+  static List<String> parseDependencies(final Map<String, String> attributes) {
+    List<String> dependencies = new ArrayList<>();
+    for (String field : DEPENDENCY_FIELDS) {
+      String value = attributes.get(field);
+      if (value == null) {
+        continue;
+      }
+      for (String dependency : value.split(",")) {
+        int requirement = dependency.indexOf('(');
+        String name = (requirement >= 0 ? dependency.substring(0, requirement) : dependency).trim();
+        if (!name.isEmpty() && !BASE_PACKAGES.contains(name) && !dependencies.contains(name)) {
+          dependencies.add(name);
+        }
+      }
+    }
+    return dependencies;
+  }
+
+  /**
+   * Resolves the packages listed in the index that a package needs, directly or through up to {@code depth} levels
+   * of dependencies.
+   */
+  @VisibleForTesting
+  static Set<String> resolveDependencies(final Map<String, PackageEntry> index, final String name, final int depth) {
+    Set<String> resolved = new LinkedHashSet<>();
+    List<String> level = Collections.singletonList(name);
+    for (int i = 0; i < depth && !level.isEmpty(); i++) {
+      List<String> nextLevel = new ArrayList<>();
+      for (String dependent : level) {
+        for (String dependency : index.getOrDefault(dependent, PackageEntry.NONE).dependencies) {
+          if (!dependency.equals(name) && index.containsKey(dependency) && resolved.add(dependency)) {
+            nextLevel.add(dependency);
+          }
+        }
+      }
+      level = nextLevel;
+    }
+    return resolved;
+  }
+
+  /**
+   * A package of a PACKAGES index.
+   */
+  @VisibleForTesting
+  static final class PackageEntry
+  {
+    static final PackageEntry NONE = new PackageEntry("", Collections.emptyList());
+
+    final String version;
+
+    final List<String> dependencies;
+
+    PackageEntry(final String version, final List<String> dependencies) {
+      this.version = version;
+      this.dependencies = dependencies;
+    }
+  }
+
+  /**
+   * A parsed PACKAGES index and the blob it was parsed from.
+   */
+  private static final class PackagesIndex
+  {
+    final String blobRef;
+
+    final Map<String, PackageEntry> packages;
+
+    PackagesIndex(final String blobRef, final Map<String, PackageEntry> packages) {
+      this.blobRef = blobRef;
+      this.packages = packages;
+    }
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.r.internal.proxy;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.sonatype.goodies.lifecycle.LifecycleSupport;
+import org.sonatype.nexus.common.app.ManagedLifecycle;
+import org.sonatype.nexus.thread.NexusExecutorService;
+import org.sonatype.nexus.thread.NexusThreadFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static org.sonatype.nexus.common.app.ManagedLifecycle.Phase.SERVICES;
+
+/**
+ * Runs the extractions of DESCRIPTION from proxied R archives that were stored before their DESCRIPTION was read, on
+ * a fixed number of threads shared by all R proxy repositories. The number of extractions waiting for a thread is
+ * exposed as the {@code queueDepth} gauge of the shared metric registry, and bounded: extractions submitted while the
+ * queue is full are dropped, leaving their archives with the attributes they were stored with.
+ *
+ * @since 1.1.next
+ */
+@Named
+@Singleton
+@ManagedLifecycle(phase = SERVICES)
+public class RDescriptionExtractionQueue
+    extends LifecycleSupport
+{
+  private static final String QUEUE_DEPTH = name(RDescriptionExtractionQueue.class, "queueDepth");
+
+  /**
+   * The maximum number of extractions running at the same time.
+   */
+  private final int threads;
+
+  /**
+   * The maximum number of extractions waiting for a thread.
+   */
+  private final int queueSize;
+
+  private ThreadPoolExecutor executor;
+
+  /**
+   * Constructor.
+   *
+   * @param threads   The maximum number of extractions running at the same time.
+   * @param queueSize The maximum number of extractions waiting for a thread.
+   */
+  @Inject
+  public RDescriptionExtractionQueue(@Named("${nexus.r.proxy.descriptionThreads:-2}") final int threads,
+                                     @Named("${nexus.r.proxy.descriptionQueueSize:-10000}") final int queueSize)
+  {
+    checkArgument(threads > 0, "Threads must be greater than 0");
+    checkArgument(queueSize > 0, "Queue size must be greater than 0");
+    this.threads = threads;
+    this.queueSize = queueSize;
+  }
+
+  @Override
+  protected void doStart() throws Exception {
+    executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<>(queueSize), new NexusThreadFactory("r-proxy", "description-extractor"));
+    executor.allowCoreThreadTimeOut(true);
+    MetricRegistry registry = SharedMetricRegistries.getOrCreate("nexus");
+    registry.remove(QUEUE_DEPTH);
+    registry.register(QUEUE_DEPTH, (Gauge<Integer>) this::getQueueDepth);
+  }
+
+  @Override
+  protected void doStop() throws Exception {
+    SharedMetricRegistries.getOrCreate("nexus").remove(QUEUE_DEPTH);
+    // the archives whose extraction is dropped keep the attributes they were stored with
+    executor.shutdownNow();
+    executor = null;
+  }
+
+  /**
+   * Queues the extraction of DESCRIPTION from an archive, to run as the current user. This method never blocks: the
+   * extraction is logged and dropped if the queue is full.
+   *
+   * @param path       The path of the archive.
+   * @param extraction The extraction, which is expected to store the extracted attributes itself.
+   */
+  public void submit(final String path, final Runnable extraction) {
+    checkNotNull(path);
+    checkNotNull(extraction);
+    checkState(executor != null, "R description extraction queue is not started");
+    try {
+      NexusExecutorService.forCurrentSubject(executor).execute(() -> {
+        try {
+          extraction.run();
+        }
+        catch (Exception e) {
+          log.warn("Failed to extract DESCRIPTION of R archive {}", path, e);
+        }
+      });
+    }
+    catch (RejectedExecutionException e) {
+      log.warn("Not extracting DESCRIPTION of R archive {}: {} extractions already waiting", path, queueSize);
+    }
+  }
+
+  /**
+   * Returns the number of extractions waiting for a thread.
+   */
+  public int getQueueDepth() {
+    ThreadPoolExecutor queueExecutor = executor;
+    return queueExecutor != null ? queueExecutor.getQueue().size() : 0;
+  }
+}
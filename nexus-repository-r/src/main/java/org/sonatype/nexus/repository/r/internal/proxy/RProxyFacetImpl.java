@@ -14,12 +14,25 @@ package org.sonatype.nexus.repository.r.internal.proxy;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.inject.Inject;
 import javax.inject.Named;
 
+import org.sonatype.nexus.blobstore.api.Blob;
+import org.sonatype.nexus.common.collect.AttributesMap;
 import org.sonatype.nexus.repository.cache.CacheController;
 import org.sonatype.nexus.repository.cache.CacheInfo;
 import org.sonatype.nexus.repository.config.Configuration;
@@ -27,26 +40,43 @@ import org.sonatype.nexus.repository.proxy.ProxyFacet;
 import org.sonatype.nexus.repository.proxy.ProxyFacetSupport;
 import org.sonatype.nexus.repository.r.RFacet;
 import org.sonatype.nexus.repository.r.internal.AssetKind;
+import org.sonatype.nexus.repository.r.internal.RDownloadRecorder;
+import org.sonatype.nexus.repository.r.internal.RStreamExecutor;
+import org.sonatype.nexus.repository.r.internal.util.RDescriptionExtractingInputStream;
 import org.sonatype.nexus.repository.r.internal.util.RFacetUtils;
+import org.sonatype.nexus.repository.r.internal.util.RTeeInputStream;
 import org.sonatype.nexus.repository.storage.Asset;
 import org.sonatype.nexus.repository.storage.Component;
 import org.sonatype.nexus.repository.storage.StorageFacet;
 import org.sonatype.nexus.repository.storage.StorageTx;
 import org.sonatype.nexus.repository.storage.TempBlob;
 import org.sonatype.nexus.repository.transaction.TransactionalStoreBlob;
+import org.sonatype.nexus.repository.transaction.TransactionalStoreMetadata;
 import org.sonatype.nexus.repository.transaction.TransactionalTouchBlob;
 import org.sonatype.nexus.repository.transaction.TransactionalTouchMetadata;
 import org.sonatype.nexus.repository.view.Content;
 import org.sonatype.nexus.repository.view.Context;
 import org.sonatype.nexus.repository.view.Payload;
+import org.sonatype.nexus.repository.view.payloads.StreamPayload;
 import org.sonatype.nexus.transaction.UnitOfWork;
 
+import com.google.common.annotations.VisibleForTesting;
+
 import static com.google.common.base.Preconditions.checkNotNull;
+import static org.sonatype.nexus.repository.http.HttpMethods.GET;
+import static org.sonatype.nexus.repository.r.internal.AssetKind.ARCHIVE;
+import static org.sonatype.nexus.repository.r.internal.AssetKind.PACKAGES;
+import static org.sonatype.nexus.repository.r.internal.RAttributes.P_PACKAGE;
+import static org.sonatype.nexus.repository.r.internal.RAttributes.P_VERSION;
+import static org.sonatype.nexus.repository.r.internal.proxy.RProxyRequests.isBackground;
 import static org.sonatype.nexus.repository.r.internal.util.RDescriptionUtils.extractDescriptionFromArchive;
-import static org.sonatype.nexus.repository.r.internal.util.RFacetUtils.findAsset;
 import static org.sonatype.nexus.repository.r.internal.util.RFacetUtils.saveAsset;
 import static org.sonatype.nexus.repository.r.internal.util.RFacetUtils.toContent;
+import static org.sonatype.nexus.repository.r.internal.util.RPathUtils.PACKAGES_FILENAME;
+import static org.sonatype.nexus.repository.r.internal.util.RPathUtils.PACKAGES_GZ_FILENAME;
 import static org.sonatype.nexus.repository.r.internal.util.RPathUtils.extractRequestPath;
+import static org.sonatype.nexus.repository.r.internal.util.RPathUtils.getArchiveCoordinates;
+import static org.sonatype.nexus.repository.r.internal.util.RPathUtils.getBasePath;
 
 /**
  * R {@link ProxyFacet} implementation.
@@ -55,12 +85,168 @@ import static org.sonatype.nexus.repository.r.internal.util.RPathUtils.extractRe
 public class RProxyFacetImpl
     extends ProxyFacetSupport
 {
+  /**
+   * The recorder of downloaded assets.
+   */
+  private final RDownloadRecorder downloadRecorder;
+
+  /**
+   * The executor running the threads that read archives as they are streamed.
+   */
+  private final RStreamExecutor streamExecutor;
+
+  /**
+   * The coalescer of concurrent requests for the same archive, {@code null} if every request is handled on its own.
+   */
+  @Nullable
+  private final RArchiveFetchCoalescer archiveFetchCoalescer;
+
+  /**
+   * The flag indicating if fetched archives are streamed to the client while they are stored.
+   */
+  private final boolean passThroughArchives;
+
+  /**
+   * The time in milliseconds a client streamed an archive can keep the archive's store waiting before it is detached.
+   */
+  private final long passThroughTimeout;
+
+  /**
+   * The stores of the archives streamed to clients that are still in progress, keyed by archive path.
+   */
+  private final ConcurrentMap<String, CompletableFuture<Void>> streamedArchives = new ConcurrentHashMap<>();
+
+  /**
+   * The queue of DESCRIPTION extractions from archives stored before their DESCRIPTION was read, {@code null} if
+   * DESCRIPTION is read while an archive is stored.
+   */
+  @Nullable
+  private final RDescriptionExtractionQueue descriptionQueue;
+
+  /**
+   * The prefetcher of the dependencies of fetched archives.
+   */
+  private final RDependencyPrefetcher dependencyPrefetcher;
+
+  /**
+   * The indexes of the archives listed by the last PACKAGES stored for each contrib path, keyed by contrib path,
+   * {@code null} if every archive miss is forwarded to the upstream.
+   */
+  @Nullable
+  private final ConcurrentMap<String, RArchiveIndex> archiveIndexes;
+
+  /**
+   * Constructor.
+   *
+   * @param downloadRecorder     The recorder of downloaded assets.
+   * @param streamExecutor       The executor running the threads that work alongside streamed archives.
+   * @param coalesceArchives     {@code true} to fetch and store an archive once for concurrent requests for it.
+   * @param passThroughArchives  {@code true} to stream a fetched archive to the client while it is stored,
+   *                             {@code false} to only serve it once it has been stored.
+   * @param passThroughTimeout   The time in milliseconds a client streamed an archive can keep the archive's store
+   *                             waiting before it is detached.
+   * @param descriptionQueue     The queue of DESCRIPTION extractions from stored archives.
+   * @param asyncDescription     {@code true} to store an archive named after its package and version without
+   *                             waiting for its DESCRIPTION, which is read afterwards by the {@code descriptionQueue}.
+   * @param dependencyPrefetcher The prefetcher of the dependencies of fetched archives.
+   * @param indexArchiveMisses   {@code true} to answer requests for archives missing from a fresh PACKAGES of their
+   *                             contrib path without asking the upstream.
+   */
+  @Inject
+  public RProxyFacetImpl(
+      final RDownloadRecorder downloadRecorder,
+      final RStreamExecutor streamExecutor,
+      @Named("${nexus.r.proxy.coalesceArchives:-true}") final boolean coalesceArchives,
+      @Named("${nexus.r.proxy.passThroughArchives:-false}") final boolean passThroughArchives,
+      @Named("${nexus.r.proxy.passThroughTimeout:-30000}") final long passThroughTimeout,
+      final RDescriptionExtractionQueue descriptionQueue,
+      @Named("${nexus.r.proxy.asyncDescription:-false}") final boolean asyncDescription,
+      final RDependencyPrefetcher dependencyPrefetcher,
+      @Named("${nexus.r.proxy.indexArchiveMisses:-false}") final boolean indexArchiveMisses)
+  {
+    this.downloadRecorder = checkNotNull(downloadRecorder);
+    this.streamExecutor = checkNotNull(streamExecutor);
+    this.archiveFetchCoalescer = coalesceArchives ? new RArchiveFetchCoalescer() : null;
+    this.passThroughArchives = passThroughArchives;
+    this.passThroughTimeout = passThroughTimeout;
+    this.descriptionQueue = asyncDescription ? checkNotNull(descriptionQueue) : null;
+    this.dependencyPrefetcher = checkNotNull(dependencyPrefetcher);
+    this.archiveIndexes = indexArchiveMisses ? new ConcurrentHashMap<>() : null;
+  }
+
   // HACK: Workaround for known CGLIB issue, forces an Import-Package for org.sonatype.nexus.repository.config
   @Override
   protected void doValidate(final Configuration configuration) throws Exception {
     super.doValidate(configuration);
   }
 
+  @Override
+  protected void doStop() throws Exception {
+    if (archiveIndexes != null) {
+      archiveIndexes.clear();
+    }
+    super.doStop();
+  }
+
+  @Nullable
+  @Override
+  public Content get(final Context context) throws IOException {
+    if (context.getAttributes().require(AssetKind.class) != ARCHIVE) {
+      return super.get(context);
+    }
+    String path = extractRequestPath(context);
+    if (archiveFetchCoalescer == null) {
+      return getArchive(path, context);
+    }
+    return archiveFetchCoalescer.get(path, () -> getArchive(path, context));
+  }
+
+  /**
+   * Gets an archive, first waiting for the archive to be stored if it is being streamed to another client, so that it
+   * is not fetched again.
+   */
+  @Nullable
+  private Content getArchive(final String path, final Context context) throws IOException {
+    CompletableFuture<Void> streamed = streamedArchives.get(path);
+    if (streamed != null) {
+      try {
+        streamed.get();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for R archive " + path);
+      }
+      catch (ExecutionException e) {
+        log.debug("Failed to store streamed R archive {}, fetching it again", path, e);
+      }
+    }
+    if (isAbsentUpstream(path) && getCachedContent(context) == null) {
+      log.debug("R archive {} is not in the PACKAGES of repository {}, not fetching it", path,
+          getRepository().getName());
+      return null;
+    }
+    return getThroughProxy(context);
+  }
+
+  /**
+   * Gets content from the proxy cache, fetching it from the upstream when it is missing or stale.
+   */
+  @VisibleForTesting
+  Content getThroughProxy(final Context context) throws IOException {
+    return super.get(context);
+  }
+
+  /**
+   * Returns whether or not the index of an archive's contrib path proves that the upstream does not have the archive.
+   */
+  private boolean isAbsentUpstream(final String path) {
+    if (archiveIndexes == null) {
+      return false;
+    }
+    RArchiveIndex index = archiveIndexes.get(getBasePath(path));
+    return index != null && index.provesAbsent(path, cacheControllerHolder.get(PACKAGES.getCacheType()));
+  }
+
   @Nullable
   @Override
   protected Content getCachedContent(final Context context) {
@@ -80,20 +266,78 @@ public class RProxyFacetImpl
     AssetKind assetKind = context.getAttributes().require(AssetKind.class);
     switch (assetKind) {
       case RDS_METADATA:
-      case PACKAGES:
         return putMetadata(extractRequestPath(context), content);
+      case PACKAGES:
+        return storePackages(extractRequestPath(context), content);
       case ARCHIVE:
-        return putArchive(extractRequestPath(context), content);
+        return storeArchive(context, extractRequestPath(context), content);
       default:
         throw new IllegalStateException();
     }
   }
 
+  private Content storeArchive(final Context context, final String path, final Content content) throws IOException {
+    boolean background = isBackground(context);
+    Content stored;
+    if (passThroughArchives && !background && GET.equals(context.getRequest().getAction())) {
+      stored = streamArchive(path, content);
+    }
+    else {
+      stored = putArchive(path, content);
+    }
+    if (!background) {
+      dependencyPrefetcher.prefetch(getRepository(), path);
+    }
+    return stored;
+  }
+
+  private Content storePackages(final String path, final Content content) throws IOException {
+    Content stored = putMetadata(path, content);
+    if (archiveIndexes != null) {
+      indexPackages(path, stored, content.getAttributes().get(CacheInfo.class));
+    }
+    return stored;
+  }
+
+  /**
+   * Rebuilds the archive index of a contrib path from a PACKAGES or PACKAGES.gz just stored. The index is dropped if
+   * the PACKAGES cannot be read, so that archive misses are forwarded to the upstream again.
+   */
+  private void indexPackages(final String path, final Content packages, @Nullable final CacheInfo cacheInfo) {
+    if (!isPackagesIndex(path)) {
+      return;
+    }
+    String basePath = getBasePath(path);
+    try (InputStream in = path.endsWith(PACKAGES_GZ_FILENAME) ?
+        new GZIPInputStream(packages.openInputStream()) : packages.openInputStream()) {
+      RArchiveIndex index = RArchiveIndex.parse(in, cacheInfo);
+      archiveIndexes.put(basePath, index);
+      log.debug("Indexed {} R package versions of {} in repository {}", index.size(), path, getRepository().getName());
+    }
+    catch (IOException e) {
+      log.warn("Failed to index R packages of {} in repository {}", path, getRepository().getName(), e);
+      archiveIndexes.remove(basePath);
+    }
+  }
+
+  /**
+   * Returns whether or not a path is the PACKAGES or PACKAGES.gz of a contrib path, from which archives are indexed.
+   */
+  private static boolean isPackagesIndex(final String path) {
+    String filename = path.substring(path.lastIndexOf('/') + 1);
+    return PACKAGES_FILENAME.equals(filename) || PACKAGES_GZ_FILENAME.equals(filename);
+  }
+
   @Override
   protected void indicateVerified(final Context context, final Content content, final CacheInfo cacheInfo)
       throws IOException
   {
     setCacheInfo(content, cacheInfo);
+    String path = extractRequestPath(context);
+    if (archiveIndexes != null && context.getAttributes().require(AssetKind.class) == PACKAGES &&
+        isPackagesIndex(path)) {
+      archiveIndexes.computeIfPresent(getBasePath(path), (basePath, index) -> index.withCacheInfo(cacheInfo));
+    }
   }
 
   @TransactionalTouchMetadata
@@ -114,12 +358,117 @@ public class RProxyFacetImpl
   }
 
   private Content putArchive(final String path, final Content content) throws IOException {
+    return putArchive(path, content, content.openInputStream());
+  }
+
+  private Content putArchive(final String path, final Content content, final InputStream archive) throws IOException {
     checkNotNull(path);
     checkNotNull(content);
     StorageFacet storageFacet = facet(StorageFacet.class);
-    try (TempBlob tempBlob = storageFacet.createTempBlob(content.openInputStream(), RFacetUtils.HASH_ALGORITHMS)) {
-      return doPutArchive(path, tempBlob, content);
+    Map<String, String> coordinates = getArchiveCoordinates(path);
+    if (descriptionQueue != null && !coordinates.isEmpty()) {
+      Content stored;
+      try (TempBlob tempBlob = storageFacet.createTempBlob(archive, RFacetUtils.HASH_ALGORITHMS)) {
+        stored = doPutArchive(path, tempBlob, content, coordinates);
+      }
+      descriptionQueue.submit(path, () -> completeArchive(path));
+      return stored;
+    }
+    try (RDescriptionExtractingInputStream in = new RDescriptionExtractingInputStream(path, archive, streamExecutor);
+         TempBlob tempBlob = storageFacet.createTempBlob(in, RFacetUtils.HASH_ALGORITHMS)) {
+      Map<String, String> description = in.getDescription();
+      return description != null ?
+          doPutArchive(path, tempBlob, content, description) : doPutArchive(path, tempBlob, content);
+    }
+  }
+
+  /**
+   * Stores a fetched archive on a separate thread and returns content that streams the archive to the client as it is
+   * being read from the upstream. The archive's asset is created once the whole archive has been read; if the upstream
+   * fails before that, nothing is stored and reading the returned content fails as well. If no thread is available to
+   * store the archive, it is stored before being served, as if it was not streamed.
+   *
+   * Only the first opening of the returned content streams the archive from the upstream; any later opening waits for
+   * the archive to be stored and reads the stored blob.
+   */
+  private Content streamArchive(final String path, final Content content) throws IOException {
+    checkNotNull(path);
+    checkNotNull(content);
+    InputStream upstream = content.openInputStream();
+    RTeeInputStream archive = new RTeeInputStream(upstream, passThroughTimeout);
+    StorageFacet storageFacet = facet(StorageFacet.class);
+    CompletableFuture<Void> stored = new CompletableFuture<>();
+    streamedArchives.put(path, stored);
+    try {
+      streamExecutor.executeAsCurrentUser(() -> storeStreamedArchive(path, content, archive, stored, storageFacet));
+    }
+    catch (RejectedExecutionException e) {
+      streamedArchives.remove(path, stored);
+      log.debug("No thread available to store R archive {} while streaming it, storing it first", path);
+      // nothing has been read through the tee yet, so the upstream stream is still whole
+      return putArchive(path, content, upstream);
+    }
+
+    AtomicBoolean branched = new AtomicBoolean();
+    Content streamedContent = new Content(new StreamPayload(
+        () -> branched.compareAndSet(false, true) ? archive.branch() : openStoredArchive(path, stored),
+        content.getSize(), content.getContentType()));
+    AttributesMap attributes = content.getAttributes();
+    streamedContent.getAttributes().set(Content.CONTENT_LAST_MODIFIED, attributes.get(Content.CONTENT_LAST_MODIFIED));
+    streamedContent.getAttributes().set(Content.CONTENT_ETAG, attributes.get(Content.CONTENT_ETAG));
+    streamedContent.getAttributes().set(CacheInfo.class, attributes.get(CacheInfo.class));
+    return streamedContent;
+  }
+
+  private void storeStreamedArchive(final String path,
+                                    final Content content,
+                                    final RTeeInputStream archive,
+                                    final CompletableFuture<Void> stored,
+                                    final StorageFacet storageFacet)
+  {
+    UnitOfWork.begin(storageFacet.txSupplier());
+    try (InputStream in = archive) {
+      putArchive(path, content, in);
+      stored.complete(null);
+    }
+    catch (Exception e) {
+      log.warn("Failed to store streamed R archive {}", path, e);
+      stored.completeExceptionally(e);
+    }
+    finally {
+      UnitOfWork.end();
+      streamedArchives.remove(path, stored);
+    }
+  }
+
+  /**
+   * Opens an archive streamed to a client once it has been stored.
+   */
+  private InputStream openStoredArchive(final String path, final CompletableFuture<Void> stored) throws IOException {
+    try {
+      stored.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for R archive " + path);
+    }
+    catch (ExecutionException e) {
+      throw new IOException("Failed to store streamed R archive " + path, e.getCause());
     }
+    Blob blob;
+    StorageTx tx = facet(StorageFacet.class).txSupplier().get();
+    try {
+      tx.begin();
+      Asset asset = facet(RFacet.class).findAsset(tx, path);
+      if (asset == null) {
+        throw new IOException("Streamed R archive " + path + " is no longer stored");
+      }
+      blob = tx.requireBlob(asset.requireBlobRef());
+    }
+    finally {
+      tx.close();
+    }
+    return blob.getInputStream();
   }
 
   @TransactionalStoreBlob
@@ -127,19 +476,106 @@ public class RProxyFacetImpl
                                  final TempBlob archiveContent,
                                  final Content content) throws IOException
   {
-    RFacet rFacet = facet(RFacet.class);
-    StorageTx tx = UnitOfWork.currentTx();
-
     Map<String, String> attributes;
     try (InputStream is = archiveContent.get()) {
       attributes = extractDescriptionFromArchive(path, is);
     }
+    return doPutArchive(path, archiveContent, content, attributes);
+  }
+
+  /**
+   * Stores an archive whose DESCRIPTION attributes have already been extracted, e.g. while it was being fetched.
+   */
+  @TransactionalStoreBlob
+  protected Content doPutArchive(final String path,
+                                 final TempBlob archiveContent,
+                                 final Content content,
+                                 final Map<String, String> attributes) throws IOException
+  {
+    RFacet rFacet = facet(RFacet.class);
+    StorageTx tx = UnitOfWork.currentTx();
 
     Component component = rFacet.findOrCreateComponent(tx, path, attributes);
     Asset asset = rFacet.findOrCreateAsset(tx, component, path, attributes);
     return saveAsset(tx, asset, archiveContent, content);
   }
 
+  /**
+   * Reads the DESCRIPTION of an archive stored with the package name and version from its filename only, and updates
+   * the archive's attributes and component. The archive is read outside of any transaction.
+   */
+  private void completeArchive(final String path) {
+    StorageFacet storageFacet = facet(StorageFacet.class);
+    Blob blob;
+    UnitOfWork.begin(storageFacet.txSupplier());
+    try {
+      blob = getArchiveBlob(path);
+    }
+    finally {
+      UnitOfWork.end();
+    }
+    if (blob == null) {
+      log.debug("R archive {} was deleted before its DESCRIPTION was read", path);
+      return;
+    }
+
+    Map<String, String> attributes;
+    try (InputStream in = blob.getInputStream()) {
+      attributes = extractDescriptionFromArchive(path, in);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    UnitOfWork.begin(storageFacet.txSupplier());
+    try {
+      updateArchive(path, attributes);
+    }
+    finally {
+      UnitOfWork.end();
+    }
+  }
+
+  @Nullable
+  @TransactionalTouchBlob
+  protected Blob getArchiveBlob(final String path) {
+    StorageTx tx = UnitOfWork.currentTx();
+
+    Asset asset = facet(RFacet.class).findAsset(tx, path);
+    return asset != null ? tx.requireBlob(asset.requireBlobRef()) : null;
+  }
+
+  @TransactionalStoreMetadata
+  protected void updateArchive(final String path, final Map<String, String> attributes) {
+    StorageTx tx = UnitOfWork.currentTx();
+
+    Asset asset = facet(RFacet.class).findAsset(tx, path);
+    if (asset == null || asset.componentId() == null) {
+      return;
+    }
+    for (Entry<String, String> attribute : attributes.entrySet()) {
+      asset.formatAttributes().set(attribute.getKey(), attribute.getValue());
+    }
+    tx.saveAsset(asset);
+
+    Component component = tx.findComponentInBucket(asset.componentId(), tx.findBucket(getRepository()));
+    String name = attributes.get(P_PACKAGE);
+    String version = attributes.get(P_VERSION);
+    if (component == null || name == null || version == null ||
+        (name.equals(component.name()) && version.equals(component.version()))) {
+      return;
+    }
+    if (RFacetUtils.findComponent(tx, getRepository(), name, version, component.group()) != null) {
+      // components are unique by name, version and group, so the archive keeps the component it was stored with
+      log.warn("Not renaming component of R archive {} to {} {}: another archive already has that component", path,
+          name, version);
+      return;
+    }
+    log.debug("Renaming component of R archive {} to {} {} according to its DESCRIPTION", path, name, version);
+    component.name(name).version(version);
+    tx.saveComponent(component);
+  }
+
   private Content putMetadata(final String path, final Content content)
       throws IOException
   {
@@ -165,13 +601,11 @@ public class RProxyFacetImpl
   protected Content getAsset(final String name) {
     StorageTx tx = UnitOfWork.currentTx();
 
-    Asset asset = findAsset(tx, tx.findBucket(getRepository()), name);
+    Asset asset = facet(RFacet.class).findAsset(tx, name);
     if (asset == null) {
       return null;
     }
-    if (asset.markAsDownloaded()) {
-      tx.saveAsset(asset);
-    }
+    downloadRecorder.markAsDownloaded(tx, getRepository(), asset);
     return toContent(asset, tx.requireBlob(asset.requireBlobRef()));
   }
 
@@ -0,0 +1,257 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.r.internal.proxy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import javax.inject.Named;
+
+import org.sonatype.nexus.repository.Repository;
+import org.sonatype.nexus.repository.RepositoryTaskSupport;
+import org.sonatype.nexus.repository.r.internal.RFormat;
+import org.sonatype.nexus.repository.r.internal.proxy.RDependencyPrefetcher.PackageEntry;
+import org.sonatype.nexus.repository.storage.Asset;
+import org.sonatype.nexus.repository.storage.StorageFacet;
+import org.sonatype.nexus.repository.storage.StorageTx;
+import org.sonatype.nexus.repository.types.ProxyType;
+import org.sonatype.nexus.repository.view.Content;
+import org.sonatype.nexus.thread.NexusExecutorService;
+import org.sonatype.nexus.thread.NexusThreadFactory;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Splitter;
+
+import static java.util.Collections.singleton;
+import static org.sonatype.nexus.repository.r.internal.AssetKind.ARCHIVE;
+import static org.sonatype.nexus.repository.r.internal.AssetKind.PACKAGES;
+import static org.sonatype.nexus.repository.r.internal.util.RFacetUtils.browseAssetsByGroups;
+import static org.sonatype.nexus.repository.r.internal.util.RPathUtils.PACKAGES_GZ_FILENAME;
+import static org.sonatype.nexus.repository.r.internal.util.RPathUtils.buildPath;
+import static org.sonatype.nexus.repository.r.internal.util.RPathUtils.removeInitialSlashFromPath;
+
+/**
+ * Task mirroring R proxy repositories: the PACKAGES index of each configured contrib path is fetched from the upstream
+ * and the archives it lists that are missing from the repository are fetched through the proxy, in parallel, so that
+ * the repository serves them without going upstream. Archives are stored the same way as when a client requests them.
+ *
+ * Runs are incremental: archives already in the repository are skipped, so a run only fetches the versions published
+ * since the previous run, and a run that failed or was canceled picks up where it stopped when run again.
+ *
+ * @since 1.1.next
+ */
+@Named
+public class RProxyMirrorTask
+    extends RepositoryTaskSupport
+{
+  public static final String PATHS_FIELD_ID = "paths";
+
+  public static final String PARALLELISM_FIELD_ID = "parallelism";
+
+  public static final String DEFAULT_PATHS = "src/contrib";
+
+  public static final int DEFAULT_PARALLELISM = 4;
+
+  private static final long PROGRESS_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+
+  @Override
+  protected boolean appliesTo(final Repository repository) {
+    return RFormat.NAME.equals(repository.getFormat().getValue()) && repository.getType() instanceof ProxyType;
+  }
+
+  @Override
+  protected void execute(final Repository repository) {
+    for (String path : Splitter.on(',').trimResults().omitEmptyStrings()
+        .split(getConfiguration().getString(PATHS_FIELD_ID, DEFAULT_PATHS))) {
+      if (isCanceled()) {
+        return;
+      }
+      try {
+        mirror(repository, removeInitialSlashFromPath(path));
+      }
+      catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  @Override
+  public String getMessage() {
+    return "Mirroring R proxy repository " + getRepositoryField();
+  }
+
+  /**
+   * Fetches the archives of a contrib path missing from the repository.
+   */
+  private void mirror(final Repository repository, final String basePath) throws IOException {
+    Map<String, PackageEntry> index = fetchIndex(repository, basePath);
+    if (index == null) {
+      log.warn("No {} found upstream of R proxy repository {} for {}", PACKAGES_GZ_FILENAME, repository.getName(),
+          basePath);
+      return;
+    }
+    List<String> missing = findMissing(repository, basePath, index);
+    log.info("Mirroring {} of {} R archives under {} into repository {}", missing.size(), index.size(), basePath,
+        repository.getName());
+    if (missing.isEmpty()) {
+      return;
+    }
+
+    int parallelism = Math.max(1, getConfiguration().getInteger(PARALLELISM_FIELD_ID, DEFAULT_PARALLELISM));
+    ExecutorService executor = NexusExecutorService.forCurrentSubject(
+        Executors.newFixedThreadPool(parallelism, new NexusThreadFactory("r-mirror", repository.getName())));
+    Progress progress = new Progress(missing.size());
+    CountDownLatch latch = new CountDownLatch(missing.size());
+    try {
+      for (String archivePath : missing) {
+        executor.execute(() -> {
+          try {
+            if (!isCanceled()) {
+              fetchArchive(repository, archivePath, progress);
+            }
+          }
+          finally {
+            latch.countDown();
+          }
+        });
+      }
+      while (!latch.await(PROGRESS_INTERVAL, TimeUnit.MILLISECONDS)) {
+        log.info("Mirroring R archives under {} into repository {}: {}", basePath, repository.getName(), progress);
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    finally {
+      executor.shutdownNow();
+    }
+    log.info("Mirrored R archives under {} into repository {}: {}", basePath, repository.getName(), progress);
+  }
+
+  /**
+   * Fetches the upstream PACKAGES index of a contrib path through the proxy.
+   */
+  private Map<String, PackageEntry> fetchIndex(final Repository repository, final String basePath)
+      throws IOException
+  {
+    Content content = RProxyRequests.get(repository, buildPath(basePath, PACKAGES_GZ_FILENAME), PACKAGES);
+    if (content == null) {
+      return null;
+    }
+    try (InputStream in = new GZIPInputStream(content.openInputStream())) {
+      return RDependencyPrefetcher.parseIndex(in);
+    }
+  }
+
+  private List<String> findMissing(final Repository repository,
+                                   final String basePath,
+                                   final Map<String, PackageEntry> index)
+  {
+    Set<String> existing = new HashSet<>();
+    StorageTx tx = repository.facet(StorageFacet.class).txSupplier().get();
+    try {
+      tx.begin();
+      for (Asset asset : browseAssetsByGroups(tx, repository, singleton(basePath), ARCHIVE)) {
+        existing.add(asset.name());
+      }
+    }
+    finally {
+      tx.close();
+    }
+    String extension = getArchiveExtension(basePath);
+    List<String> missing = new ArrayList<>();
+    for (Entry<String, PackageEntry> entry : index.entrySet()) {
+      String archivePath = buildPath(basePath, entry.getKey() + '_' + entry.getValue().version + extension);
+      if (!existing.contains(archivePath)) {
+        missing.add(archivePath);
+      }
+    }
+    return missing;
+  }
+
+  private void fetchArchive(final Repository repository, final String archivePath, final Progress progress) {
+    try {
+      Content content = RProxyRequests.get(repository, archivePath, ARCHIVE);
+      if (content == null) {
+        log.debug("R archive {} listed but not found upstream of repository {}", archivePath, repository.getName());
+        progress.failed.incrementAndGet();
+      }
+      else {
+        progress.bytes.addAndGet(Math.max(0, content.getSize()));
+        progress.fetched.incrementAndGet();
+      }
+    }
+    catch (Exception e) {
+      log.warn("Failed to mirror R archive {} into repository {}: {}", archivePath, repository.getName(),
+          e.toString());
+      log.debug("Failed to mirror R archive {}", archivePath, e);
+      progress.failed.incrementAndGet();
+    }
+  }
+
+  /**
+   * Returns the extension of the archives under a contrib path, following the layout of CRAN.
+   */
+  @VisibleForTesting
+  static String getArchiveExtension(final String basePath) {
+    if (basePath.startsWith("bin/windows/")) {
+      return ".zip";
+    }
+    if (basePath.startsWith("bin/macosx/")) {
+      return ".tgz";
+    }
+    return ".tar.gz";
+  }
+
+  /**
+   * The progress of mirroring a contrib path.
+   */
+  private static final class Progress
+  {
+    private final int total;
+
+    private final long started = System.currentTimeMillis();
+
+    private final AtomicInteger fetched = new AtomicInteger();
+
+    private final AtomicInteger failed = new AtomicInteger();
+
+    private final AtomicLong bytes = new AtomicLong();
+
+    Progress(final int total) {
+      this.total = total;
+    }
+
+    @Override
+    public String toString() {
+      int done = fetched.get() + failed.get();
+      long elapsed = Math.max(1, System.currentTimeMillis() - started);
+      return String.format("%d/%d archives (%d%%), %d failed, %d KB at %d KB/s", done, total, done * 100 / total,
+          failed.get(), bytes.get() / 1024, bytes.get() * 1000 / 1024 / elapsed);
+    }
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.r.internal.proxy;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.sonatype.nexus.formfields.NumberTextFormField;
+import org.sonatype.nexus.formfields.RepositoryCombobox;
+import org.sonatype.nexus.formfields.StringTextFormField;
+import org.sonatype.nexus.repository.RepositoryTaskSupport;
+import org.sonatype.nexus.repository.r.internal.RFormat;
+import org.sonatype.nexus.repository.types.ProxyType;
+import org.sonatype.nexus.scheduling.TaskDescriptorSupport;
+
+import static org.sonatype.nexus.repository.r.internal.proxy.RProxyMirrorTask.DEFAULT_PARALLELISM;
+import static org.sonatype.nexus.repository.r.internal.proxy.RProxyMirrorTask.DEFAULT_PATHS;
+import static org.sonatype.nexus.repository.r.internal.proxy.RProxyMirrorTask.PARALLELISM_FIELD_ID;
+import static org.sonatype.nexus.repository.r.internal.proxy.RProxyMirrorTask.PATHS_FIELD_ID;
+
+/**
+ * Task descriptor for {@link RProxyMirrorTask}.
+ *
+ * @since 1.1.next
+ */
+@Named
+@Singleton
+public class RProxyMirrorTaskDescriptor
+    extends TaskDescriptorSupport
+{
+  public static final String TYPE_ID = "repository.r.mirror";
+
+  public RProxyMirrorTaskDescriptor() {
+    super(TYPE_ID,
+        RProxyMirrorTask.class,
+        "R - Mirror proxy repository",
+        true,
+        true,
+        new RepositoryCombobox(
+            RepositoryTaskSupport.REPOSITORY_NAME_FIELD_ID,
+            "Repository",
+            "Select the R proxy repository to mirror",
+            true
+        ).includingAnyOfFormats(RFormat.NAME).includingAnyOfTypes(ProxyType.NAME).includeAnEntryForAllRepositories(),
+        new StringTextFormField(
+            PATHS_FIELD_ID,
+            "Paths",
+            "Comma-separated contrib paths to mirror, e.g. src/contrib,bin/windows/contrib/4.0 (default: "
+                + DEFAULT_PATHS + ")",
+            false
+        ),
+        new NumberTextFormField(
+            PARALLELISM_FIELD_ID,
+            "Parallelism",
+            "Number of archives fetched at the same time (default: " + DEFAULT_PARALLELISM + ")",
+            false
+        )
+    );
+  }
+}
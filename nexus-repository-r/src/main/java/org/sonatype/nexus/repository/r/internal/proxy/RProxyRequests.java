@@ -0,0 +1,82 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.r.internal.proxy;
+
+import java.io.IOException;
+
+import javax.annotation.Nullable;
+
+import org.sonatype.nexus.repository.Repository;
+import org.sonatype.nexus.repository.proxy.ProxyFacet;
+import org.sonatype.nexus.repository.r.internal.AssetKind;
+import org.sonatype.nexus.repository.storage.StorageFacet;
+import org.sonatype.nexus.repository.view.Content;
+import org.sonatype.nexus.repository.view.Context;
+import org.sonatype.nexus.repository.view.Request;
+import org.sonatype.nexus.transaction.UnitOfWork;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.sonatype.nexus.repository.http.HttpMethods.GET;
+
+/**
+ * Requests made to R proxy repositories by Nexus itself rather than by a client, e.g. to warm a repository. Such
+ * requests go through the {@link ProxyFacet} like client requests, but are marked so that the facet neither streams
+ * what it fetches nor prefetches for them.
+ *
+ * @since 1.1.next
+ */
+public final class RProxyRequests
+{
+  /**
+   * The context attribute marking background requests.
+   */
+  private static final String BACKGROUND = RProxyRequests.class.getName() + ".background";
+
+  private RProxyRequests() {
+    // empty
+  }
+
+  /**
+   * Returns whether or not a request is a background request.
+   */
+  public static boolean isBackground(final Context context) {
+    return Boolean.TRUE.equals(context.getAttributes().get(BACKGROUND));
+  }
+
+  /**
+   * Gets content from a proxy repository as a background request, fetching and storing it if it is not cached.
+   *
+   * @param repository The proxy repository.
+   * @param path       The path of the content.
+   * @param assetKind  The kind of the content.
+   * @return The content, or {@code null} if the upstream does not have it.
+   */
+  @Nullable
+  public static Content get(final Repository repository, final String path, final AssetKind assetKind)
+      throws IOException
+  {
+    checkNotNull(repository);
+    checkNotNull(path);
+    checkNotNull(assetKind);
+    Context context = new Context(repository, new Request.Builder().action(GET).path("/" + path).build());
+    context.getAttributes().set(AssetKind.class, assetKind);
+    context.getAttributes().set(BACKGROUND, Boolean.TRUE);
+    UnitOfWork.begin(repository.facet(StorageFacet.class).txSupplier());
+    try {
+      return repository.facet(ProxyFacet.class).get(context);
+    }
+    finally {
+      UnitOfWork.end();
+    }
+  }
+}
@@ -0,0 +1,254 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.r.internal.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.Collections.emptyMap;
+
+/**
+ * Parser for files in the Debian Control File format used by R, such as DESCRIPTION and PACKAGES files. The input is
+ * read in a single pass directly from the byte stream: line endings are normalized to LF and continuation lines are
+ * attached to their field as the bytes are read, and each stanza (paragraph) is returned as a {@link RDcfStanza}
+ * whose values are only decoded when requested.
+ *
+ * Values are the text after the colon without leading whitespace; continuation lines are kept as they are, including
+ * their indentation, separated by LF. Stanzas are separated by blank lines. Lines that are neither a field nor a
+ * continuation are ignored; when a field is repeated within a stanza, the last value wins.
+ *
+ * @see <a href="https://cran.r-project.org/doc/manuals/r-release/R-exts.html#The-DESCRIPTION-file">Description File</a>
+ * @since 1.1.next
+ */
+public final class RDcfParser
+{
+  private static final int BUFFER_SIZE = 8 * 1024;
+
+  private final InputStream in;
+
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+
+  private int position;
+
+  private int limit;
+
+  private boolean skipLineFeed;
+
+  /**
+   * The normalized bytes of the current stanza.
+   */
+  private byte[] data = new byte[BUFFER_SIZE];
+
+  private int length;
+
+  private int lineStart;
+
+  /**
+   * The name start, name end, value start and value end offsets into {@link #data} of each field of the current stanza.
+   */
+  private int[] offsets = new int[4 * 32];
+
+  private int fieldCount;
+
+  /**
+   * The index of the field that continuation lines belong to, or -1 if there is none.
+   */
+  private int currentField = -1;
+
+  public RDcfParser(final InputStream in) {
+    this.in = checkNotNull(in);
+  }
+
+  /**
+   * Parses the first stanza of the input, as in a DESCRIPTION file.
+   *
+   * @return the fields of the first stanza, or an empty map if there is none
+   */
+  public static Map<String, String> parseStanza(final InputStream in) throws IOException {
+    RDcfStanza stanza = new RDcfParser(in).next();
+    return stanza != null ? stanza : emptyMap();
+  }
+
+  /**
+   * Parses all stanzas of the input, as in a PACKAGES file.
+   */
+  public static List<Map<String, String>> parseStanzas(final InputStream in) throws IOException {
+    RDcfParser parser = new RDcfParser(in);
+    List<Map<String, String>> stanzas = new ArrayList<>();
+    RDcfStanza stanza;
+    while ((stanza = parser.next()) != null) {
+      stanzas.add(stanza);
+    }
+    return stanzas;
+  }
+
+  /**
+   * Returns the next stanza, or {@code null} once the input is exhausted.
+   */
+  @Nullable
+  public RDcfStanza next() throws IOException {
+    while (true) {
+      if (position == limit && !fill()) {
+        if (length > lineStart) {
+          endLine();
+        }
+        return fieldCount > 0 ? endStanza() : null;
+      }
+      byte b = buffer[position++];
+      if (skipLineFeed) {
+        skipLineFeed = false;
+        if (b == '\n') {
+          continue;
+        }
+      }
+      if (b == '\n' || b == '\r') {
+        skipLineFeed = b == '\r';
+        if (endLine()) {
+          return endStanza();
+        }
+      }
+      else {
+        append(b);
+      }
+    }
+  }
+
+  private boolean fill() throws IOException {
+    int read = in.read(buffer);
+    if (read < 0) {
+      return false;
+    }
+    position = 0;
+    limit = read;
+    return true;
+  }
+
+  private void append(final byte b) {
+    if (length == data.length) {
+      data = Arrays.copyOf(data, data.length * 2);
+    }
+    data[length++] = b;
+  }
+
+  /**
+   * Processes the line that was just read.
+   *
+   * @return {@code true} if the line completed a stanza
+   */
+  private boolean endLine() {
+    int lineEnd = length;
+    if (isBlank(lineStart, lineEnd)) {
+      length = lineStart;
+      // leading blank lines do not end a stanza
+      return fieldCount > 0;
+    }
+    byte first = data[lineStart];
+    if (first == ' ' || first == '\t') {
+      if (currentField < 0) {
+        length = lineStart;
+        return false;
+      }
+      offsets[4 * currentField + 3] = lineEnd;
+    }
+    else {
+      int colon = indexOf((byte) ':', lineStart, lineEnd);
+      if (colon < 0) {
+        length = lineStart;
+        currentField = -1;
+        return false;
+      }
+      addField(lineStart, trimEnd(lineStart, colon), colon + 1, lineEnd);
+    }
+    append((byte) '\n');
+    lineStart = length;
+    return false;
+  }
+
+  private void addField(final int nameStart, final int nameEnd, final int valueStart, final int valueEnd) {
+    int field = 0;
+    while (field < fieldCount && !nameEquals(field, nameStart, nameEnd)) {
+      field++;
+    }
+    if (field == fieldCount) {
+      if (4 * (fieldCount + 1) > offsets.length) {
+        offsets = Arrays.copyOf(offsets, offsets.length * 2);
+      }
+      fieldCount++;
+    }
+    offsets[4 * field] = nameStart;
+    offsets[4 * field + 1] = nameEnd;
+    offsets[4 * field + 2] = valueStart;
+    offsets[4 * field + 3] = valueEnd;
+    currentField = field;
+  }
+
+  private RDcfStanza endStanza() {
+    RDcfStanza stanza = new RDcfStanza(Arrays.copyOf(data, length), Arrays.copyOf(offsets, 4 * fieldCount));
+    length = 0;
+    lineStart = 0;
+    fieldCount = 0;
+    currentField = -1;
+    return stanza;
+  }
+
+  private boolean nameEquals(final int field, final int nameStart, final int nameEnd) {
+    int otherStart = offsets[4 * field];
+    int otherEnd = offsets[4 * field + 1];
+    if (otherEnd - otherStart != nameEnd - nameStart) {
+      return false;
+    }
+    for (int i = 0; i < nameEnd - nameStart; i++) {
+      if (data[otherStart + i] != data[nameStart + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int indexOf(final byte b, final int from, final int to) {
+    for (int i = from; i < to; i++) {
+      if (data[i] == b) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private int trimEnd(final int from, final int to) {
+    int end = to;
+    while (end > from && isWhitespace(data[end - 1])) {
+      end--;
+    }
+    return end;
+  }
+
+  private boolean isBlank(final int from, final int to) {
+    for (int i = from; i < to; i++) {
+      if (!isWhitespace(data[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  static boolean isWhitespace(final byte b) {
+    return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f';
+  }
+}
@@ -0,0 +1,209 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.r.internal.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * An unmodifiable map of the fields of a single stanza parsed by {@link RDcfParser}, in the order they appear. Field
+ * names and values are kept as the bytes that were read and only decoded (as UTF-8) the first time they are requested,
+ * so looking up a few fields of a stanza does not decode the others.
+ *
+ * @since 1.1.next
+ */
+public final class RDcfStanza
+    extends AbstractMap<String, String>
+{
+  private final byte[] data;
+
+  /**
+   * The name start, name end, value start and value end offsets into {@link #data} of each field.
+   */
+  private final int[] offsets;
+
+  private final String[] names;
+
+  private final String[] values;
+
+  RDcfStanza(final byte[] data, final int[] offsets) {
+    this.data = data;
+    this.offsets = offsets;
+    this.names = new String[offsets.length / 4];
+    this.values = new String[offsets.length / 4];
+  }
+
+  @Override
+  public int size() {
+    return names.length;
+  }
+
+  @Override
+  public boolean containsKey(final Object key) {
+    return key instanceof String && indexOf((String) key) >= 0;
+  }
+
+  @Override
+  public String get(final Object key) {
+    if (!(key instanceof String)) {
+      return null;
+    }
+    int field = indexOf((String) key);
+    return field >= 0 ? value(field) : null;
+  }
+
+  @Override
+  public Set<Entry<String, String>> entrySet() {
+    return new AbstractSet<Entry<String, String>>()
+    {
+      @Override
+      public Iterator<Entry<String, String>> iterator() {
+        return new Iterator<Entry<String, String>>()
+        {
+          private int next;
+
+          @Override
+          public boolean hasNext() {
+            return next < names.length;
+          }
+
+          @Override
+          public Entry<String, String> next() {
+            if (!hasNext()) {
+              throw new NoSuchElementException();
+            }
+            return new Field(next++);
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return names.length;
+      }
+    };
+  }
+
+  private String name(final int field) {
+    String name = names[field];
+    if (name == null) {
+      int start = offsets[4 * field];
+      name = new String(data, start, offsets[4 * field + 1] - start, UTF_8);
+      names[field] = name;
+    }
+    return name;
+  }
+
+  private String value(final int field) {
+    String value = values[field];
+    if (value == null) {
+      int start = offsets[4 * field + 2];
+      int end = offsets[4 * field + 3];
+      while (start < end && RDcfParser.isWhitespace(data[start])) {
+        start++;
+      }
+      value = new String(data, start, end - start, UTF_8);
+      values[field] = value;
+    }
+    return value;
+  }
+
+  /**
+   * Finds a field by name, comparing ASCII names without decoding them.
+   */
+  private int indexOf(final String key) {
+    for (int field = names.length - 1; field >= 0; field--) {
+      if (nameMatches(field, key)) {
+        return field;
+      }
+    }
+    return -1;
+  }
+
+  private boolean nameMatches(final int field, final String key) {
+    if (names[field] != null) {
+      return names[field].equals(key);
+    }
+    int start = offsets[4 * field];
+    int end = offsets[4 * field + 1];
+    for (int i = start; i < end; i++) {
+      if (data[i] < 0) {
+        // not ASCII, compare the decoded name instead
+        return name(field).equals(key);
+      }
+    }
+    if (end - start != key.length()) {
+      return false;
+    }
+    for (int i = 0; i < key.length(); i++) {
+      if (data[start + i] != key.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * A field of the stanza, decoded when its name or value is requested.
+   */
+  private final class Field
+      implements Entry<String, String>
+  {
+    private final int field;
+
+    Field(final int field) {
+      this.field = field;
+    }
+
+    @Override
+    public String getKey() {
+      return name(field);
+    }
+
+    @Override
+    public String getValue() {
+      return value(field);
+    }
+
+    @Override
+    public String setValue(final String value) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (!(o instanceof Map.Entry)) {
+        return false;
+      }
+      Entry<?, ?> that = (Entry<?, ?>) o;
+      return getKey().equals(that.getKey()) && getValue().equals(that.getValue());
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(getKey()) ^ Objects.hashCode(getValue());
+    }
+
+    @Override
+    public String toString() {
+      return getKey() + '=' + getValue();
+    }
+  }
+}
@@ -0,0 +1,198 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.r.internal.util;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Writer for files in the Debian Control File format used by R, such as PACKAGES files. Field names and values are
+ * encoded as UTF-8 straight into an internal buffer that is written to the underlying stream when full, so no
+ * intermediate strings or writers are created per field.
+ *
+ * Values spanning several lines are folded: every line after the first is written as a continuation line, indented
+ * with a space unless it already starts with whitespace, and blank lines are written as {@code " ."} so that they do
+ * not end the stanza. CR and CRLF line endings in values are written as LF and trailing blank lines are dropped. Fields
+ * without a value are skipped.
+ *
+ * The writer is not thread-safe and does not close the underlying stream.
+ *
+ * @since 1.1.next
+ */
+public final class RDcfWriter
+    implements Flushable
+{
+  private static final int BUFFER_SIZE = 8 * 1024;
+
+  private final OutputStream out;
+
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+
+  private int count;
+
+  public RDcfWriter(final OutputStream out) {
+    this.out = checkNotNull(out);
+  }
+
+  /**
+   * Writes the given fields of an entry as a stanza, in the given order, skipping fields the entry has no value for.
+   */
+  public RDcfWriter writeStanza(final Map<String, String> entry, final Iterable<String> fields) throws IOException {
+    for (String field : fields) {
+      writeField(field, entry.get(field));
+    }
+    return endStanza();
+  }
+
+  /**
+   * Writes a field of the current stanza, or nothing if the value is {@code null}.
+   */
+  public RDcfWriter writeField(final String name, @Nullable final String value) throws IOException {
+    if (value == null) {
+      return this;
+    }
+    writeChars(name, 0, name.length());
+    write(':');
+    write(' ');
+    int end = valueEnd(value);
+    for (int lineStart = 0; ; ) {
+      int lineEnd = lineStart;
+      while (lineEnd < end && !isLineBreak(value.charAt(lineEnd))) {
+        lineEnd++;
+      }
+      if (lineStart == 0) {
+        writeChars(value, 0, lineEnd);
+      }
+      else if (isBlank(value, lineStart, lineEnd)) {
+        write(' ');
+        write('.');
+      }
+      else {
+        if (!isWhitespace(value.charAt(lineStart))) {
+          write(' ');
+        }
+        writeChars(value, lineStart, lineEnd);
+      }
+      write('\n');
+      if (lineEnd == end) {
+        break;
+      }
+      lineStart = lineEnd + (value.startsWith("\r\n", lineEnd) ? 2 : 1);
+    }
+    return this;
+  }
+
+  /**
+   * Ends the current stanza with a blank line.
+   */
+  public RDcfWriter endStanza() throws IOException {
+    write('\n');
+    return this;
+  }
+
+  /**
+   * Writes any buffered bytes and flushes the underlying stream.
+   */
+  @Override
+  public void flush() throws IOException {
+    flushBuffer();
+    out.flush();
+  }
+
+  private void flushBuffer() throws IOException {
+    if (count > 0) {
+      out.write(buffer, 0, count);
+      count = 0;
+    }
+  }
+
+  private void write(final int b) throws IOException {
+    if (count == buffer.length) {
+      flushBuffer();
+    }
+    buffer[count++] = (byte) b;
+  }
+
+  /**
+   * Encodes the characters in the given range as UTF-8. Unpaired surrogates are written as {@code '?'}, as the JDK
+   * encoder does.
+   */
+  private void writeChars(final String s, final int from, final int to) throws IOException {
+    for (int i = from; i < to; i++) {
+      char c = s.charAt(i);
+      if (c < 0x80) {
+        write(c);
+      }
+      else if (c < 0x800) {
+        write(0xc0 | (c >> 6));
+        write(0x80 | (c & 0x3f));
+      }
+      else if (Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(s.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, s.charAt(++i));
+        write(0xf0 | (codePoint >> 18));
+        write(0x80 | ((codePoint >> 12) & 0x3f));
+        write(0x80 | ((codePoint >> 6) & 0x3f));
+        write(0x80 | (codePoint & 0x3f));
+      }
+      else if (Character.isSurrogate(c)) {
+        write('?');
+      }
+      else {
+        write(0xe0 | (c >> 12));
+        write(0x80 | ((c >> 6) & 0x3f));
+        write(0x80 | (c & 0x3f));
+      }
+    }
+  }
+
+  /**
+   * Returns the end of the value without trailing blank lines, which would otherwise be written as empty continuation
+   * lines.
+   */
+  private static int valueEnd(final String value) {
+    int end = value.length();
+    for (int i = end - 1; i >= 0; i--) {
+      char c = value.charAt(i);
+      if (isLineBreak(c)) {
+        end = i;
+      }
+      else if (!isWhitespace(c)) {
+        break;
+      }
+    }
+    return end;
+  }
+
+  private static boolean isBlank(final String s, final int from, final int to) {
+    for (int i = from; i < to; i++) {
+      if (!isWhitespace(s.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isLineBreak(final char c) {
+    return c == '\n' || c == '\r';
+  }
+
+  private static boolean isWhitespace(final char c) {
+    return c == ' ' || c == '\t' || c == '\f';
+  }
+}
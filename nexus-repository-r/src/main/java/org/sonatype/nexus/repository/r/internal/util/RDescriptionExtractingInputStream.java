@@ -0,0 +1,261 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.r.internal.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.annotation.Nullable;
+
+import org.sonatype.nexus.repository.r.internal.RException;
+import org.sonatype.nexus.repository.r.internal.RStreamExecutor;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.sonatype.nexus.repository.r.internal.util.RDescriptionUtils.scanDescriptionFromArchive;
+
+/**
+ * An {@link InputStream} over an R archive that extracts the archive's DESCRIPTION while the archive is being read,
+ * e.g. into a blob, so the archive does not need to be read and decompressed a second time afterwards. The bytes read
+ * through this stream are handed to an extractor running on a separate thread, which stops decompressing as soon as
+ * DESCRIPTION has been parsed; from then on the bytes are only passed through.
+ *
+ * The extractor can fall behind the reader by at most a few chunks, after which reading waits for it to catch up. If
+ * no thread is available for the extractor, the bytes are only passed through and no DESCRIPTION is extracted.
+ *
+ * @since 1.1.next
+ */
+public class RDescriptionExtractingInputStream
+    extends FilterInputStream
+{
+  /**
+   * The number of chunks the extractor can fall behind the reader.
+   */
+  private static final int QUEUE_CAPACITY = 16;
+
+  private static final byte[] END_OF_STREAM = new byte[0];
+
+  private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+  @Nullable
+  private final Future<Map<String, String>> description;
+
+  private volatile boolean extracted;
+
+  private boolean ended;
+
+  /**
+   * Constructor.
+   *
+   * @param filename The archive path, which determines the archive format.
+   * @param in       The archive content.
+   * @param executor The executor running the extractor.
+   */
+  public RDescriptionExtractingInputStream(final String filename,
+                                           final InputStream in,
+                                           final RStreamExecutor executor)
+  {
+    super(checkNotNull(in));
+    checkNotNull(filename);
+    checkNotNull(executor);
+    Future<Map<String, String>> extraction;
+    try {
+      extraction = executor.submit(() -> {
+        try (InputStream chunkStream = new ChunkInputStream()) {
+          return scanDescriptionFromArchive(filename, chunkStream);
+        }
+        finally {
+          finishExtraction();
+        }
+      });
+    }
+    catch (RejectedExecutionException e) {
+      extraction = null;
+      extracted = true;
+    }
+    this.description = extraction;
+  }
+
+  /**
+   * Returns the attributes in the archive's DESCRIPTION, waiting for the extraction to complete if needed. This is
+   * meant to be called once the whole archive has been read.
+   *
+   * @return the attributes, or {@code null} if no thread was available for the extraction, in which case the caller
+   * has to read DESCRIPTION from the archive itself.
+   *
+   * @throws RException            if the archive could not be read.
+   * @throws IllegalStateException if the archive has no DESCRIPTION.
+   * @throws CancellationException if the stream was closed before the end of the archive.
+   */
+  @Nullable
+  public Map<String, String> getDescription() throws IOException {
+    if (description == null) {
+      return null;
+    }
+    try {
+      return description.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while extracting DESCRIPTION");
+    }
+    catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new RException(null, e.getCause());
+    }
+  }
+
+  @Override
+  public int read() throws IOException {
+    int b = super.read();
+    if (b == -1) {
+      end();
+    }
+    else {
+      offer(new byte[]{(byte) b});
+    }
+    return b;
+  }
+
+  @Override
+  public int read(final byte[] b, final int off, final int len) throws IOException {
+    int read = super.read(b, off, len);
+    if (read == -1) {
+      end();
+    }
+    else if (read > 0) {
+      offer(Arrays.copyOfRange(b, off, off + read));
+    }
+    return read;
+  }
+
+  @Override
+  public long skip(final long n) throws IOException {
+    // skipped bytes must still reach the extractor
+    byte[] buffer = new byte[(int) Math.min(n, 8192)];
+    long skipped = 0;
+    while (skipped < n) {
+      int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+      if (read == -1) {
+        break;
+      }
+      skipped += read;
+    }
+    return skipped;
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      super.close();
+    }
+    finally {
+      if (!ended && description != null) {
+        // the archive was not read to the end, so the extractor will not get the rest of it
+        description.cancel(true);
+      }
+    }
+  }
+
+  private void end() throws IOException {
+    if (!ended) {
+      ended = true;
+      offer(END_OF_STREAM);
+    }
+  }
+
+  private void offer(final byte[] chunk) throws IOException {
+    if (extracted) {
+      return;
+    }
+    try {
+      // once the extractor finishes it empties the queue, so this cannot block past that point
+      chunks.put(chunk);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while extracting DESCRIPTION");
+    }
+  }
+
+  private void finishExtraction() {
+    extracted = true;
+    chunks.clear();
+  }
+
+  /**
+   * The extractor's view of the bytes read through the outer stream.
+   */
+  private class ChunkInputStream
+      extends InputStream
+  {
+    private byte[] chunk;
+
+    private int position;
+
+    @Override
+    public int read() throws IOException {
+      byte[] single = new byte[1];
+      int read = read(single, 0, 1);
+      return read == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (chunk == null || position == chunk.length) {
+        if (chunk == END_OF_STREAM) {
+          return -1;
+        }
+        try {
+          chunk = chunks.take();
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Archive was not read to the end");
+        }
+        position = 0;
+        if (chunk == END_OF_STREAM) {
+          return -1;
+        }
+      }
+      int read = Math.min(len, chunk.length - position);
+      System.arraycopy(chunk, position, b, off, read);
+      position += read;
+      return read;
+    }
+
+    @Override
+    public void close() {
+      finishExtraction();
+    }
+  }
+}
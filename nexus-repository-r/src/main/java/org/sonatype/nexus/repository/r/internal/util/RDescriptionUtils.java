@@ -12,22 +12,34 @@
  */
 package org.sonatype.nexus.repository.r.internal.util;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Enumeration;
 import java.util.Map;
 import java.util.regex.Pattern;
 import java.util.zip.GZIPInputStream;
 
 import org.sonatype.nexus.repository.r.internal.RException;
 
+import com.google.common.io.ByteStreams;
 import org.apache.commons.compress.archivers.ArchiveEntry;
 import org.apache.commons.compress.archivers.ArchiveException;
 import org.apache.commons.compress.archivers.ArchiveInputStream;
 import org.apache.commons.compress.archivers.ArchiveStreamFactory;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
 import org.apache.commons.compress.compressors.CompressorException;
 import org.apache.commons.compress.compressors.CompressorStreamFactory;
+import org.apache.commons.compress.utils.SeekableInMemoryByteChannel;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static java.nio.file.StandardOpenOption.DELETE_ON_CLOSE;
+import static java.nio.file.StandardOpenOption.READ;
 import static org.apache.commons.compress.archivers.ArchiveStreamFactory.TAR;
 import static org.apache.commons.compress.archivers.ArchiveStreamFactory.ZIP;
 import static org.apache.commons.compress.compressors.CompressorStreamFactory.GZIP;
@@ -43,9 +55,29 @@ public final class RDescriptionUtils
   private static final Pattern DESCRIPTION_FILE_PATTERN = Pattern.compile("^[^/]*/DESCRIPTION$");
 
   /**
-   * Extracts the DESCRIPTION contents from the tgz or zip.
+   * The size up to which a zip is spooled to memory rather than to a temporary file.
+   */
+  static final int ZIP_MEMORY_THRESHOLD = 1024 * 1024;
+
+  /**
+   * Extracts the DESCRIPTION contents from the tgz or zip. A zip is looked up through its central directory.
    */
   public static Map<String, String> extractDescriptionFromArchive(final String filename, InputStream is) {
+    return extractDescriptionFromArchive(filename, is, true);
+  }
+
+  /**
+   * Extracts the DESCRIPTION contents from the tgz or zip, reading a zip from its start. This suits an archive that is
+   * being written elsewhere at the same time, since the scan can stop at DESCRIPTION instead of copying the archive.
+   */
+  static Map<String, String> scanDescriptionFromArchive(final String filename, final InputStream is) {
+    return extractDescriptionFromArchive(filename, is, false);
+  }
+
+  private static Map<String, String> extractDescriptionFromArchive(final String filename,
+                                                                   final InputStream is,
+                                                                   final boolean zipCentralDirectory)
+  {
     checkNotNull(filename);
     checkNotNull(is);
     final String lowerCaseFilename = filename.toLowerCase();
@@ -56,7 +88,7 @@ public final class RDescriptionUtils
       return extractMetadataFromGz(is);
     }
     else if (lowerCaseFilename.endsWith(".zip")) {
-      return extractMetadataFromZip(is);
+      return zipCentralDirectory ? extractMetadataFromZip(is) : extractMetadataFromArchive(ZIP, is);
     }
     throw new IllegalStateException("Unexpected file extension for file: " + filename);
   }
@@ -85,9 +117,52 @@ public final class RDescriptionUtils
     }
   }
 
+  /**
+   * Looks DESCRIPTION up through the central directory of a zip. The zip is spooled without being decompressed, to
+   * memory or above {@link #ZIP_MEMORY_THRESHOLD} to a temporary file, and only the DESCRIPTION entry is decompressed
+   * rather than every entry stored before it, as a sequential scan would. Reading the central directory also finds
+   * entries whose sizes are only given after their data, which a sequential scan can not always read.
+   */
   private static Map<String, String> extractMetadataFromZip(final InputStream is) {
     checkNotNull(is);
-    return extractMetadataFromArchive(ZIP, is);
+    try (SeekableByteChannel channel = spool(is); ZipFile zipFile = new ZipFile(channel)) {
+      Enumeration<ZipArchiveEntry> entries = zipFile.getEntries();
+      while (entries.hasMoreElements()) {
+        ZipArchiveEntry entry = entries.nextElement();
+        if (!entry.isDirectory() && DESCRIPTION_FILE_PATTERN.matcher(entry.getName()).matches()) {
+          try (InputStream in = zipFile.getInputStream(entry)) {
+            return parseDescriptionFile(in);
+          }
+        }
+      }
+    }
+    catch (IOException e) {
+      throw new RException(null, e);
+    }
+    throw new IllegalStateException("No metadata file found");
+  }
+
+  /**
+   * Copies a stream to a channel supporting random access, in memory up to {@link #ZIP_MEMORY_THRESHOLD} and in a
+   * temporary file deleted when the channel is closed otherwise.
+   */
+  private static SeekableByteChannel spool(final InputStream is) throws IOException {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    if (ByteStreams.copy(ByteStreams.limit(is, ZIP_MEMORY_THRESHOLD + 1L), buffer) <= ZIP_MEMORY_THRESHOLD) {
+      return new SeekableInMemoryByteChannel(buffer.toByteArray());
+    }
+    Path file = Files.createTempFile("r-archive", ".zip");
+    try {
+      try (OutputStream out = Files.newOutputStream(file)) {
+        buffer.writeTo(out);
+        ByteStreams.copy(is, out);
+      }
+      return Files.newByteChannel(file, READ, DELETE_ON_CLOSE);
+    }
+    catch (IOException | RuntimeException e) {
+      Files.deleteIfExists(file);
+      throw e;
+    }
   }
 
   private static Map<String, String> extractMetadataFromArchive(final String archiveType, final InputStream is) {
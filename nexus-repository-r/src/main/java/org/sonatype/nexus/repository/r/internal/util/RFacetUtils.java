@@ -14,6 +14,7 @@ package org.sonatype.nexus.repository.r.internal.util;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collection;
 import java.util.List;
 
 import javax.annotation.Nullable;
@@ -41,6 +42,7 @@ import com.google.common.collect.ImmutableList;
 import static java.util.Collections.singletonList;
 import static org.sonatype.nexus.common.hash.HashAlgorithm.SHA1;
 import static org.sonatype.nexus.repository.storage.AssetEntityAdapter.P_ASSET_KIND;
+import static org.sonatype.nexus.repository.storage.AssetEntityAdapter.P_COMPONENT;
 import static org.sonatype.nexus.repository.storage.ComponentEntityAdapter.P_GROUP;
 import static org.sonatype.nexus.repository.storage.ComponentEntityAdapter.P_VERSION;
 import static org.sonatype.nexus.repository.storage.MetadataNodeEntityAdapter.P_ATTRIBUTES;
@@ -106,19 +108,23 @@ public final class RFacetUtils
   }
 
   /**
-   * Browse all assets in bucket by asset kind
+   * Browse the assets of a particular kind belonging to the components of some groups (the base paths of R archives)
+   * with a single query, so both predicates are evaluated by the database rather than per component.
    *
    * @return {@link Iterable} of assets or empty one
    */
-  public static Iterable<Asset> browseAllAssetsByKind(final StorageTx tx,
-                                                      final Bucket bucket,
-                                                      final AssetKind assetKind)
+  public static Iterable<Asset> browseAssetsByGroups(final StorageTx tx,
+                                                     final Repository repository,
+                                                     final Collection<String> groups,
+                                                     final AssetKind assetKind)
   {
     final Query query = builder()
         .where(P_ATTRIBUTES + "." + RFormat.NAME + "." + P_ASSET_KIND)
         .eq(assetKind.name())
+        .and(P_COMPONENT + "." + P_GROUP + " IN ")
+        .param(groups)
         .build();
-    return tx.browseAssets(query, bucket);
+    return tx.browseAssets(query, tx.findBucket(repository));
   }
 
   /**
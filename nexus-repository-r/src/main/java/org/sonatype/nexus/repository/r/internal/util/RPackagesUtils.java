@@ -12,26 +12,22 @@
  */
 package org.sonatype.nexus.repository.r.internal.util;
 
-import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.util.ArrayList;
+import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Enumeration;
-import java.util.LinkedHashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-
-import javax.mail.internet.InternetHeaders;
+import java.util.Set;
 
 import org.sonatype.nexus.repository.r.internal.RException;
-import org.sonatype.nexus.repository.view.Content;
-import org.sonatype.nexus.repository.view.payloads.BytesPayload;
+import org.sonatype.nexus.repository.view.Payload;
 
+import com.google.common.collect.ImmutableList;
 import org.apache.commons.compress.compressors.CompressorException;
 import org.apache.commons.compress.compressors.CompressorOutputStream;
 import org.apache.commons.compress.compressors.CompressorStreamFactory;
@@ -46,83 +42,218 @@ import static org.sonatype.nexus.repository.r.internal.RAttributes.P_PACKAGE;
 import static org.sonatype.nexus.repository.r.internal.RAttributes.P_SUGGESTS;
 import static org.sonatype.nexus.repository.r.internal.RAttributes.P_LINKINGTO;
 import static org.sonatype.nexus.repository.r.internal.RAttributes.P_VERSION;
-import static org.sonatype.nexus.repository.r.internal.util.RMetadataUtils.parseDescriptionFile;
+import static org.sonatype.nexus.repository.r.internal.util.RSerializationUtils.writeCharacterMatrix;
 
 /**
  * Utility methods for working with R Packages.
  */
 public final class RPackagesUtils
 {
+  /**
+   * The fields written to PACKAGES files, in the order they are written.
+   */
+  public static final List<String> PACKAGES_FIELDS = ImmutableList.of(P_PACKAGE, P_VERSION, P_DEPENDS, P_IMPORTS,
+      P_SUGGESTS, P_LINKINGTO, P_LICENSE, P_NEEDS_COMPILATION);
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
   public static List<Map<String, String>> parseMetadata(final InputStream in) {
-    List<Map<String, String>> entries = new ArrayList<>();
-    try (InputStreamReader inr = new InputStreamReader(in, UTF_8)) {
-      try (BufferedReader br = new BufferedReader(inr)) {
-        StringBuilder sb = new StringBuilder();
-        String line;
-        while ((line = br.readLine()) != null) {
-          if (line.trim().isEmpty()) {
-            String content = sb.toString();
-            if (!content.trim().isEmpty()) {
-              entries.add(parseDescriptionFile(new ByteArrayInputStream(content.getBytes(UTF_8))));
-            }
-            sb = new StringBuilder();
-          }
-          else {
-            sb.append(line);
-            sb.append('\n');
-          }
-        }
-        String content = sb.toString();
-        if (!content.trim().isEmpty()) {
-          entries.add(parseDescriptionFile(new ByteArrayInputStream(content.getBytes(UTF_8))));
-        }
-      }
-      return entries;
+    try (InputStream input = in) {
+      return RDcfParser.parseStanzas(input);
     }
     catch (IOException e) {
       throw new RException(null, e);
     }
   }
 
-  public static Content buildPackages(final Collection<Map<String, String>> entries) throws IOException {
+  /**
+   * Writes the provided entries as a gzip compressed PACKAGES file to the output stream, one stanza at a time.
+   */
+  public static void writePackagesGz(final Iterable<Map<String, String>> entries, final OutputStream out)
+      throws IOException
+  {
     CompressorStreamFactory compressorStreamFactory = new CompressorStreamFactory();
-    ByteArrayOutputStream os = new ByteArrayOutputStream();
-    try (CompressorOutputStream cos = compressorStreamFactory.createCompressorOutputStream(GZIP, os)) {
-      try (OutputStreamWriter writer = new OutputStreamWriter(cos, UTF_8)) {
-        for (Map<String, String> entry : entries) {
-          InternetHeaders headers = new InternetHeaders();
-          headers.addHeader(P_PACKAGE, entry.get(P_PACKAGE));
-          headers.addHeader(P_VERSION, entry.get(P_VERSION));
-          headers.addHeader(P_DEPENDS, entry.get(P_DEPENDS));
-          headers.addHeader(P_IMPORTS, entry.get(P_IMPORTS));
-          headers.addHeader(P_SUGGESTS, entry.get(P_SUGGESTS));
-          headers.addHeader(P_LINKINGTO, entry.get(P_LINKINGTO));
-          headers.addHeader(P_LICENSE, entry.get(P_LICENSE));
-          headers.addHeader(P_NEEDS_COMPILATION, entry.get(P_NEEDS_COMPILATION));
-          Enumeration<String> headerLines = headers.getAllHeaderLines();
-          while (headerLines.hasMoreElements()) {
-            String line = headerLines.nextElement();
-            writer.write(line, 0, line.length());
-            writer.write('\n');
-          }
-          writer.write('\n');
+    try (CompressorOutputStream cos = compressorStreamFactory.createCompressorOutputStream(GZIP, nonClosing(out))) {
+      writePackages(entries, cos);
+    }
+    catch (CompressorException e) {
+      throw new RException(null, e);
+    }
+  }
+
+  /**
+   * Writes the provided entries as an uncompressed PACKAGES file to the output stream, one stanza at a time. The stream
+   * is flushed but not closed.
+   */
+  public static void writePackages(final Iterable<Map<String, String>> entries, final OutputStream out)
+      throws IOException
+  {
+    RDcfWriter writer = new RDcfWriter(out);
+    for (Map<String, String> entry : entries) {
+      writer.writeStanza(entry, PACKAGES_FIELDS);
+    }
+    writer.flush();
+  }
+
+  /**
+   * Writes the provided entries as a gzip compressed PACKAGES.rds file to the output stream, i.e. as the serialized
+   * character matrix of package fields that R reads with {@code readRDS}, with {@code NA} for missing fields.
+   */
+  public static void writePackagesRds(final Collection<Map<String, String>> entries, final OutputStream out)
+      throws IOException
+  {
+    CompressorStreamFactory compressorStreamFactory = new CompressorStreamFactory();
+    try (CompressorOutputStream cos = compressorStreamFactory.createCompressorOutputStream(GZIP, nonClosing(out))) {
+      writeCharacterMatrix(cos, PACKAGES_FIELDS, entries);
+    }
+    catch (CompressorException e) {
+      throw new RException(null, e);
+    }
+  }
+
+  private static OutputStream nonClosing(final OutputStream out) {
+    return new FilterOutputStream(out)
+    {
+      @Override
+      public void write(final byte[] b, final int off, final int len) throws IOException {
+        out.write(b, off, len);
+      }
+
+      @Override
+      public void close() throws IOException {
+        flush();
+      }
+    };
+  }
+
+  /**
+   * Merges gzip compressed PACKAGES files into a single gzip compressed PACKAGES file written to the output stream.
+   * When several members contain the same package, the stanza of the first member wins. Stanzas without a package name
+   * cannot be told apart and are all copied. Stanzas are copied byte for byte without being parsed; only the package
+   * name is read, so memory is bounded by the set of seen package names and the largest stanza.
+   *
+   * @param members The PACKAGES.gz content of each member, in priority order.
+   * @param out     The stream to write to; it is not closed.
+   */
+  public static void mergePackagesGz(final Iterable<? extends Payload> members, final OutputStream out)
+      throws IOException
+  {
+    CompressorStreamFactory compressorStreamFactory = new CompressorStreamFactory();
+    try (CompressorOutputStream cos = compressorStreamFactory.createCompressorOutputStream(GZIP, nonClosing(out))) {
+      StanzaCopier copier = new StanzaCopier(new BufferedOutputStream(cos, BUFFER_SIZE));
+      for (Payload member : members) {
+        try (InputStream in = member.openInputStream();
+             InputStream cin = compressorStreamFactory.createCompressorInputStream(GZIP, in)) {
+          copier.copy(cin);
         }
       }
+      copier.flush();
     }
-    catch ( CompressorException e ) {
+    catch (CompressorException e) {
       throw new RException(null, e);
     }
-    return new Content(new BytesPayload(os.toByteArray(), "application/x-gzip"));
   }
 
-  public static List<Map<String, String>> merge(List<List<Map<String, String>>> parts) {
-    final LinkedHashMap<String, Map<String, String>> merged = new LinkedHashMap<>();
-    for (List<Map<String, String>> part : parts) {
-      for (Map<String, String> thisEntry : part) {
-        merged.putIfAbsent(thisEntry.get(P_PACKAGE), thisEntry);
+  /**
+   * Copies stanzas of PACKAGES files to an output stream, skipping stanzas of packages that were already copied.
+   * Stanzas without a {@code Package} field are always copied.
+   */
+  private static final class StanzaCopier
+  {
+    private static final byte[] PACKAGE_FIELD = (P_PACKAGE + ':').getBytes(UTF_8);
+
+    private final OutputStream out;
+
+    private final Set<String> seenPackages = new HashSet<>();
+
+    private final byte[] chunk = new byte[BUFFER_SIZE];
+
+    private byte[] stanza = new byte[BUFFER_SIZE];
+
+    private int stanzaLength;
+
+    private int lineStart;
+
+    private String packageName;
+
+    StanzaCopier(final OutputStream out) {
+      this.out = out;
+    }
+
+    void copy(final InputStream in) throws IOException {
+      int read;
+      while ((read = in.read(chunk)) != -1) {
+        for (int i = 0; i < read; i++) {
+          if (chunk[i] == '\n') {
+            endLine();
+          }
+          else {
+            append(chunk[i]);
+          }
+        }
+      }
+      if (stanzaLength > lineStart) {
+        endLine();
+      }
+      endStanza();
+    }
+
+    void flush() throws IOException {
+      out.flush();
+    }
+
+    private void append(final byte b) {
+      if (stanzaLength == stanza.length) {
+        stanza = Arrays.copyOf(stanza, stanza.length * 2);
+      }
+      stanza[stanzaLength++] = b;
+    }
+
+    private void endLine() throws IOException {
+      if (isBlank(lineStart, stanzaLength)) {
+        stanzaLength = lineStart;
+        endStanza();
+        return;
+      }
+      if (packageName == null && startsWith(lineStart, PACKAGE_FIELD)) {
+        int valueStart = lineStart + PACKAGE_FIELD.length;
+        packageName = new String(stanza, valueStart, stanzaLength - valueStart, UTF_8).trim();
+      }
+      append((byte) '\n');
+      lineStart = stanzaLength;
+    }
+
+    private void endStanza() throws IOException {
+      if (stanzaLength > 0 && (packageName == null || seenPackages.add(packageName))) {
+        out.write(stanza, 0, stanzaLength);
+        out.write('\n');
+      }
+      stanzaLength = 0;
+      lineStart = 0;
+      packageName = null;
+    }
+
+    private boolean isBlank(final int from, final int to) {
+      for (int i = from; i < to; i++) {
+        // any byte of a multi-byte UTF-8 character is negative
+        if (stanza[i] < 0 || stanza[i] > ' ') {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private boolean startsWith(final int from, final byte[] prefix) {
+      if (stanzaLength - from < prefix.length) {
+        return false;
+      }
+      for (int i = 0; i < prefix.length; i++) {
+        if (stanza[from + i] != prefix[i]) {
+          return false;
+        }
       }
+      return true;
     }
-    return new ArrayList<>(merged.values());
   }
 
   private RPackagesUtils() {
@@ -12,16 +12,22 @@
  */
 package org.sonatype.nexus.repository.r.internal.util;
 
+import java.util.Collections;
+import java.util.Map;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.sonatype.nexus.repository.r.internal.AssetKind;
 import org.sonatype.nexus.repository.view.Context;
 
+import com.google.common.collect.ImmutableMap;
 import org.apache.commons.lang3.StringUtils;
 
 import static org.sonatype.nexus.repository.r.internal.AssetKind.ARCHIVE;
 import static org.sonatype.nexus.repository.r.internal.AssetKind.PACKAGES;
 import static org.sonatype.nexus.repository.r.internal.AssetKind.RDS_METADATA;
+import static org.sonatype.nexus.repository.r.internal.RAttributes.P_PACKAGE;
+import static org.sonatype.nexus.repository.r.internal.RAttributes.P_VERSION;
 
 /**
  * Utility methods for working with R routes and paths.
@@ -36,8 +42,15 @@ public final class RPathUtils
 
   public static final Pattern PATTERN_PATH = Pattern.compile(".+/.+/.+");
 
+  public static final Pattern PATTERN_ARCHIVE_FILENAME =
+      Pattern.compile("(?:.*/)?([A-Za-z][A-Za-z0-9.]*)_([0-9][0-9.-]*)(?:\\.zip|\\.tgz|\\.tar\\.gz)");
+
+  public static final String PACKAGES_FILENAME = "PACKAGES";
+
   public static final String PACKAGES_GZ_FILENAME = "PACKAGES.gz";
 
+  public static final String PACKAGES_RDS_FILENAME = "PACKAGES.rds";
+
   /**
    * Builds a path to an asset for a particular path and filename.
    */
@@ -82,6 +95,18 @@ public final class RPathUtils
     return assetKind;
   }
 
+  /**
+   * Returns the package name and version of an archive following the naming convention of CRAN
+   * ({@code <package>_<version>.tar.gz}), or an empty map if the filename does not follow it.
+   */
+  public static Map<String, String> getArchiveCoordinates(final String path) {
+    Matcher matcher = PATTERN_ARCHIVE_FILENAME.matcher(path);
+    if (!matcher.matches()) {
+      return Collections.emptyMap();
+    }
+    return ImmutableMap.of(P_PACKAGE, matcher.group(1), P_VERSION, matcher.group(2));
+  }
+
   /**
    * Determines if it's a valid extension for archive
    */
@@ -0,0 +1,151 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.r.internal.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import static com.google.common.base.Charsets.UTF_8;
+
+/**
+ * Utility methods for writing objects in the R serialization format (as written by {@code saveRDS}), version 2 with
+ * big-endian XDR encoding. Only the subset required for R metadata files is supported.
+ *
+ * @since 1.1.next
+ */
+public final class RSerializationUtils
+{
+  private static final byte[] XDR_FORMAT = {'X', '\n'};
+
+  private static final int SERIALIZATION_VERSION = 2;
+
+  /**
+   * The version of R that wrote the data, encoded as in {@code R_Version(3, 5, 0)}.
+   */
+  private static final int WRITER_VERSION = (3 << 16) | (5 << 8);
+
+  /**
+   * The minimal version of R able to read version 2 serialization, encoded as in {@code R_Version(2, 3, 0)}.
+   */
+  private static final int MIN_READER_VERSION = (2 << 16) | (3 << 8);
+
+  private static final int SYMSXP = 1;
+
+  private static final int LISTSXP = 2;
+
+  private static final int CHARSXP = 9;
+
+  private static final int INTSXP = 13;
+
+  private static final int STRSXP = 16;
+
+  private static final int VECSXP = 19;
+
+  private static final int NILVALUE_SXP = 254;
+
+  private static final int HAS_ATTRIBUTES = 1 << 9;
+
+  private static final int HAS_TAG = 1 << 10;
+
+  private static final int UTF8_ENCODING = (1 << 3) << 12;
+
+  private static final int ASCII_ENCODING = (1 << 6) << 12;
+
+  private static final int NA_STRING_LENGTH = -1;
+
+  /**
+   * Writes a character matrix with the specified column names and no row names, such as the one returned by
+   * {@code available.packages}. Each row is a map of column name to value; missing values are written as {@code NA}.
+   * The rows are iterated once per column since R matrices are stored in column-major order.
+   *
+   * @param out         The stream to write to; it is not closed.
+   * @param columnNames The column names.
+   * @param rows        The rows of the matrix.
+   */
+  public static void writeCharacterMatrix(final OutputStream out,
+                                          final List<String> columnNames,
+                                          final Collection<Map<String, String>> rows) throws IOException
+  {
+    DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+    data.write(XDR_FORMAT);
+    data.writeInt(SERIALIZATION_VERSION);
+    data.writeInt(WRITER_VERSION);
+    data.writeInt(MIN_READER_VERSION);
+
+    data.writeInt(STRSXP | HAS_ATTRIBUTES);
+    data.writeInt(rows.size() * columnNames.size());
+    for (String columnName : columnNames) {
+      for (Map<String, String> row : rows) {
+        writeString(data, row.get(columnName));
+      }
+    }
+
+    // attributes pairlist: dim = c(rows, columns), dimnames = list(NULL, columnNames)
+    data.writeInt(LISTSXP | HAS_TAG);
+    writeSymbol(data, "dim");
+    data.writeInt(INTSXP);
+    data.writeInt(2);
+    data.writeInt(rows.size());
+    data.writeInt(columnNames.size());
+
+    data.writeInt(LISTSXP | HAS_TAG);
+    writeSymbol(data, "dimnames");
+    data.writeInt(VECSXP);
+    data.writeInt(2);
+    data.writeInt(NILVALUE_SXP);
+    data.writeInt(STRSXP);
+    data.writeInt(columnNames.size());
+    for (String columnName : columnNames) {
+      writeString(data, columnName);
+    }
+    data.writeInt(NILVALUE_SXP);
+    data.flush();
+  }
+
+  private static void writeSymbol(final DataOutputStream data, final String name) throws IOException {
+    data.writeInt(SYMSXP);
+    writeString(data, name);
+  }
+
+  private static void writeString(final DataOutputStream data, @Nullable final String value) throws IOException {
+    if (value == null) {
+      data.writeInt(CHARSXP);
+      data.writeInt(NA_STRING_LENGTH);
+      return;
+    }
+    byte[] bytes = value.getBytes(UTF_8);
+    data.writeInt(CHARSXP | (isAscii(bytes) ? ASCII_ENCODING : UTF8_ENCODING));
+    data.writeInt(bytes.length);
+    data.write(bytes);
+  }
+
+  private static boolean isAscii(final byte[] bytes) {
+    for (byte b : bytes) {
+      if (b < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private RSerializationUtils() {
+    // empty
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.r.internal.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.sonatype.nexus.repository.r.internal.RStreamExecutor;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Utility methods for streaming generated R metadata to consumers that expect an {@link InputStream}, such as
+ * {@code StorageFacet#createTempBlob}, without buffering the whole content in memory.
+ *
+ * @since 1.1.next
+ */
+public final class RStreamUtils
+{
+  /**
+   * The size of the buffer between the writing thread and the reading thread. This bounds the memory used per stream
+   * regardless of the amount of metadata written.
+   */
+  private static final int PIPE_BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Writes content to an {@link OutputStream}.
+   */
+  @FunctionalInterface
+  public interface StreamWriter
+  {
+    void write(OutputStream out) throws IOException;
+  }
+
+  /**
+   * Returns an {@link InputStream} that yields the bytes produced by the writer, which runs on a separate thread and
+   * blocks whenever the reader falls behind by more than a small fixed buffer. Failures of the writer are rethrown to
+   * the reader once the written content has been consumed. Closing the stream early stops the writer.
+   *
+   * @param executor The executor running the writer.
+   * @param writer   The writer producing the content.
+   * @return The stream of written content.
+   * @throws IOException if no thread of the executor is available for the writer.
+   */
+  public static InputStream pipe(final RStreamExecutor executor, final StreamWriter writer) throws IOException {
+    checkNotNull(executor);
+    checkNotNull(writer);
+    PipedInputStream in = new PipedInputStream(PIPE_BUFFER_SIZE);
+    PipedOutputStream out = new PipedOutputStream(in);
+    Future<?> result;
+    try {
+      result = executor.submit(() -> {
+        try (OutputStream os = out) {
+          writer.write(os);
+        }
+        return null;
+      });
+    }
+    catch (RejectedExecutionException e) {
+      in.close();
+      throw new IOException("Too many R metadata streams in progress", e);
+    }
+    return new PipedWriterInputStream(in, result);
+  }
+
+  /**
+   * The reading end of a pipe, which reports the outcome of the writer when the end of the stream is reached.
+   */
+  private static class PipedWriterInputStream
+      extends FilterInputStream
+  {
+    private final Future<?> result;
+
+    PipedWriterInputStream(final InputStream in, final Future<?> result) {
+      super(in);
+      this.result = result;
+    }
+
+    @Override
+    public int read() throws IOException {
+      return checkResult(super.read());
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+      return checkResult(super.read(b, off, len));
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        super.close();
+      }
+      finally {
+        result.cancel(true);
+      }
+    }
+
+    private int checkResult(final int read) throws IOException {
+      if (read == -1) {
+        try {
+          result.get();
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IOException("Interrupted while waiting for metadata writer", e);
+        }
+        catch (ExecutionException e) {
+          throw new IOException("Error writing metadata", e.getCause());
+        }
+      }
+      return read;
+    }
+  }
+
+  private RStreamUtils() {
+    // empty
+  }
+}
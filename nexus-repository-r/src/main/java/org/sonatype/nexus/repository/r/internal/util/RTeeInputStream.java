@@ -0,0 +1,221 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.r.internal.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An {@link InputStream} that hands the bytes read through it to a second reader, e.g. to stream a proxied archive to
+ * the client while it is being written to the blob store. The stream is read at the pace of its own reader; the
+ * second reader, returned by {@link #branch()}, can fall behind by a few chunks before reading waits for it to catch
+ * up.
+ *
+ * The branch never holds up the stream for long: a branch that is closed, or that does not take a chunk within the
+ * timeout, is detached and gets no further bytes, while the stream itself is read to the end. If the stream fails or
+ * is closed before its end, reading the branch fails once it has consumed the bytes read so far, so that a partial
+ * copy is never taken for a complete one.
+ *
+ * @since 1.1.next
+ */
+public class RTeeInputStream
+    extends FilterInputStream
+{
+  /**
+   * The number of chunks the branch can fall behind the stream.
+   */
+  private static final int QUEUE_CAPACITY = 16;
+
+  private static final byte[] END_OF_STREAM = new byte[0];
+
+  private static final byte[] FAILED = new byte[0];
+
+  private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+  private final long timeout;
+
+  private final InputStream branch = new BranchInputStream();
+
+  private volatile boolean detached;
+
+  private boolean ended;
+
+  /**
+   * Constructor.
+   *
+   * @param in      The content to read.
+   * @param timeout The time in milliseconds the branch can keep the stream waiting before it is detached.
+   */
+  public RTeeInputStream(final InputStream in, final long timeout) {
+    super(checkNotNull(in));
+    this.timeout = timeout;
+  }
+
+  /**
+   * Returns the second reader of the bytes read through this stream.
+   */
+  public InputStream branch() {
+    return branch;
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] single = new byte[1];
+    int read = read(single, 0, 1);
+    return read == -1 ? -1 : single[0] & 0xff;
+  }
+
+  @Override
+  public int read(final byte[] b, final int off, final int len) throws IOException {
+    int read;
+    try {
+      read = super.read(b, off, len);
+    }
+    catch (IOException | RuntimeException e) {
+      end(FAILED);
+      throw e;
+    }
+    if (read == -1) {
+      end(END_OF_STREAM);
+    }
+    else if (read > 0) {
+      offer(Arrays.copyOfRange(b, off, off + read));
+    }
+    return read;
+  }
+
+  @Override
+  public long skip(final long n) throws IOException {
+    // skipped bytes must still reach the branch
+    byte[] buffer = new byte[(int) Math.min(n, 8192)];
+    long skipped = 0;
+    while (skipped < n) {
+      int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+      if (read == -1) {
+        break;
+      }
+      skipped += read;
+    }
+    return skipped;
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      super.close();
+    }
+    finally {
+      // a stream closed before its end did not deliver all of the content
+      end(FAILED);
+    }
+  }
+
+  private void end(final byte[] marker) throws IOException {
+    if (!ended) {
+      ended = true;
+      offer(marker);
+    }
+  }
+
+  private void offer(final byte[] chunk) throws IOException {
+    if (detached) {
+      return;
+    }
+    try {
+      if (!chunks.offer(chunk, timeout, TimeUnit.MILLISECONDS)) {
+        detach();
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while handing content to the branch");
+    }
+  }
+
+  private void detach() {
+    detached = true;
+    chunks.clear();
+    // a branch still reading learns that it missed content
+    chunks.offer(FAILED);
+  }
+
+  /**
+   * The branch's view of the bytes read through the outer stream.
+   */
+  private class BranchInputStream
+      extends InputStream
+  {
+    private byte[] chunk;
+
+    private int position;
+
+    @Override
+    public int read() throws IOException {
+      byte[] single = new byte[1];
+      int read = read(single, 0, 1);
+      return read == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (chunk == null || position == chunk.length) {
+        if (chunk == END_OF_STREAM) {
+          return -1;
+        }
+        if (chunk == FAILED) {
+          throw new IOException("Content was not read to the end");
+        }
+        try {
+          chunk = chunks.take();
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while waiting for content");
+        }
+        position = 0;
+        if (chunk == END_OF_STREAM) {
+          return -1;
+        }
+        if (chunk == FAILED) {
+          throw new IOException("Content was not read to the end");
+        }
+      }
+      int read = Math.min(len, chunk.length - position);
+      System.arraycopy(chunk, position, b, off, read);
+      position += read;
+      return read;
+    }
+
+    @Override
+    public void close() {
+      detached = true;
+      chunks.clear();
+    }
+  }
+}
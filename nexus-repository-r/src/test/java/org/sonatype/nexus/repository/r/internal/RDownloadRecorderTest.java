@@ -0,0 +1,134 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.r.internal;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+import org.sonatype.nexus.common.entity.EntityId;
+import org.sonatype.nexus.common.entity.EntityMetadata;
+import org.sonatype.nexus.repository.Repository;
+import org.sonatype.nexus.repository.storage.Asset;
+import org.sonatype.nexus.repository.storage.Bucket;
+import org.sonatype.nexus.repository.storage.StorageFacet;
+import org.sonatype.nexus.repository.storage.StorageTx;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class RDownloadRecorderTest
+    extends TestSupport
+{
+  @Mock
+  Repository repository;
+
+  @Mock
+  StorageFacet storageFacet;
+
+  @Mock
+  StorageTx requestTx;
+
+  @Mock
+  StorageTx flushTx;
+
+  @Mock
+  Bucket bucket;
+
+  @Mock
+  Asset asset;
+
+  @Mock
+  Asset storedAsset;
+
+  @Mock
+  EntityMetadata assetMetadata;
+
+  @Mock
+  EntityId assetId;
+
+  @Before
+  public void setup() {
+    when(repository.getName()).thenReturn("r-proxy");
+    when(repository.facet(StorageFacet.class)).thenReturn(storageFacet);
+    when(storageFacet.txSupplier()).thenReturn(() -> flushTx);
+    when(flushTx.findBucket(repository)).thenReturn(bucket);
+    when(flushTx.findAsset(assetId, bucket)).thenReturn(storedAsset);
+    when(asset.getEntityMetadata()).thenReturn(assetMetadata);
+    when(assetMetadata.getId()).thenReturn(assetId);
+  }
+
+  @Test
+  public void downloadIsSavedImmediatelyWithoutFlushInterval() {
+    when(asset.markAsDownloaded()).thenReturn(true);
+    RDownloadRecorder underTest = new RDownloadRecorder(0);
+
+    underTest.markAsDownloaded(requestTx, repository, asset);
+    underTest.flush();
+
+    verify(requestTx).saveAsset(asset);
+    verify(storageFacet, never()).txSupplier();
+  }
+
+  @Test
+  public void downloadIsFlushedInItsOwnTransaction() {
+    when(asset.markAsDownloaded()).thenReturn(true);
+    when(storedAsset.markAsDownloaded()).thenReturn(true);
+    RDownloadRecorder underTest = new RDownloadRecorder(60000);
+
+    underTest.markAsDownloaded(requestTx, repository, asset);
+    underTest.markAsDownloaded(requestTx, repository, asset);
+    verify(requestTx, never()).saveAsset(any());
+
+    underTest.flush();
+    underTest.flush();
+
+    InOrder inOrder = inOrder(flushTx);
+    inOrder.verify(flushTx).begin();
+    inOrder.verify(flushTx).saveAsset(storedAsset);
+    inOrder.verify(flushTx).commit();
+    inOrder.verify(flushTx).close();
+    verify(flushTx, times(1)).findAsset(assetId, bucket);
+  }
+
+  @Test
+  public void downloadIsNotRecordedWhenAssetWasMarkedRecently() {
+    when(asset.markAsDownloaded()).thenReturn(false);
+    RDownloadRecorder underTest = new RDownloadRecorder(60000);
+
+    underTest.markAsDownloaded(requestTx, repository, asset);
+    underTest.flush();
+
+    verify(requestTx, never()).saveAsset(any());
+    verify(storageFacet, never()).txSupplier();
+  }
+
+  @Test
+  public void deletedAssetIsSkippedWhenFlushed() {
+    when(asset.markAsDownloaded()).thenReturn(true);
+    when(flushTx.findAsset(assetId, bucket)).thenReturn(null);
+    RDownloadRecorder underTest = new RDownloadRecorder(60000);
+
+    underTest.markAsDownloaded(requestTx, repository, asset);
+    underTest.flush();
+
+    verify(flushTx, never()).saveAsset(any());
+    verify(flushTx).commit();
+  }
+}
@@ -0,0 +1,169 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.r.internal;
+
+import java.util.Map;
+
+import org.sonatype.nexus.common.entity.EntityId;
+import org.sonatype.nexus.common.entity.EntityMetadata;
+import org.sonatype.nexus.repository.storage.AssetDeletedEvent;
+import org.sonatype.nexus.repository.storage.Component;
+import org.sonatype.nexus.repository.storage.ComponentDeletedEvent;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.sonatype.nexus.repository.r.internal.RAttributes.P_PACKAGE;
+import static org.sonatype.nexus.repository.r.internal.RAttributes.P_VERSION;
+import static org.sonatype.nexus.repository.storage.MetadataNodeEntityAdapter.P_NAME;
+
+public class RFacetImplTest
+    extends RepositoryFacetTestSupport<RFacetImpl>
+{
+  static final String REPOSITORY_NAME = "r-hosted";
+
+  static final String PACKAGE_PATH = "src/contrib/example_1.0.0.tar.gz";
+
+  static final Map<String, String> ATTRIBUTES = ImmutableMap.of(P_PACKAGE, "example", P_VERSION, "1.0.0");
+
+  @Mock
+  EntityMetadata assetMetadata;
+
+  @Mock
+  EntityId assetId;
+
+  @Mock
+  Component component;
+
+  @Mock
+  EntityMetadata componentMetadata;
+
+  @Mock
+  EntityId componentId;
+
+  @Mock
+  AssetDeletedEvent assetDeletedEvent;
+
+  @Mock
+  ComponentDeletedEvent componentDeletedEvent;
+
+  @Override
+  protected RFacetImpl initialiseSystemUnderTest() {
+    return new RFacetImpl(100, 3600);
+  }
+
+  @Before
+  public void setup() {
+    when(repository.getName()).thenReturn(REPOSITORY_NAME);
+    when(asset.name()).thenReturn(PACKAGE_PATH);
+    when(asset.getEntityMetadata()).thenReturn(assetMetadata);
+    when(assetMetadata.getId()).thenReturn(assetId);
+    when(storageTx.findAsset(assetId, bucket)).thenReturn(asset);
+    when(component.name()).thenReturn("example");
+    when(component.version()).thenReturn("1.0.0");
+    when(component.group()).thenReturn("src/contrib");
+    when(component.getEntityMetadata()).thenReturn(componentMetadata);
+    when(componentMetadata.getId()).thenReturn(componentId);
+    when(storageTx.findComponents(any(), any())).thenReturn(ImmutableList.of(component));
+    when(storageTx.findComponentInBucket(componentId, bucket)).thenReturn(component);
+  }
+
+  @Test
+  public void assetIsLoadedByIdOnceFound() {
+    assertThat(underTest.findAsset(storageTx, PACKAGE_PATH), is(sameInstance(asset)));
+    assertThat(underTest.findAsset(storageTx, PACKAGE_PATH), is(sameInstance(asset)));
+    assertThat(underTest.findOrCreateAsset(storageTx, PACKAGE_PATH), is(sameInstance(asset)));
+
+    verify(storageTx, times(1)).findAssetWithProperty(P_NAME, PACKAGE_PATH, bucket);
+    verify(storageTx, times(2)).findAsset(assetId, bucket);
+  }
+
+  @Test
+  public void staleAssetIdIsLookedUpAgain() {
+    underTest.findAsset(storageTx, PACKAGE_PATH);
+    when(storageTx.findAsset(assetId, bucket)).thenReturn(null);
+
+    assertThat(underTest.findAsset(storageTx, PACKAGE_PATH), is(sameInstance(asset)));
+
+    verify(storageTx, times(2)).findAssetWithProperty(P_NAME, PACKAGE_PATH, bucket);
+  }
+
+  @Test
+  public void deletedAssetIsNoLongerLoadedById() {
+    underTest.findAsset(storageTx, PACKAGE_PATH);
+    when(assetDeletedEvent.getRepositoryName()).thenReturn(REPOSITORY_NAME);
+    when(assetDeletedEvent.getAsset()).thenReturn(asset);
+    underTest.on(assetDeletedEvent);
+
+    underTest.findAsset(storageTx, PACKAGE_PATH);
+
+    verify(storageTx, times(2)).findAssetWithProperty(P_NAME, PACKAGE_PATH, bucket);
+    verify(storageTx, never()).findAsset(assetId, bucket);
+  }
+
+  @Test
+  public void assetDeletedInOtherRepositoryIsIgnored() {
+    underTest.findAsset(storageTx, PACKAGE_PATH);
+    when(assetDeletedEvent.getRepositoryName()).thenReturn("other");
+    when(assetDeletedEvent.getAsset()).thenReturn(asset);
+    underTest.on(assetDeletedEvent);
+
+    underTest.findAsset(storageTx, PACKAGE_PATH);
+
+    verify(storageTx, times(1)).findAssetWithProperty(P_NAME, PACKAGE_PATH, bucket);
+  }
+
+  @Test
+  public void componentIsLoadedByIdOnceFound() {
+    assertThat(underTest.findOrCreateComponent(storageTx, PACKAGE_PATH, ATTRIBUTES), is(sameInstance(component)));
+    assertThat(underTest.findOrCreateComponent(storageTx, PACKAGE_PATH, ATTRIBUTES), is(sameInstance(component)));
+
+    verify(storageTx, times(1)).findComponents(any(), any());
+    verify(storageTx, times(1)).findComponentInBucket(componentId, bucket);
+    verify(storageTx, never()).saveComponent(any());
+  }
+
+  @Test
+  public void componentLoadedByIdWithOtherVersionIsLookedUpAgain() {
+    underTest.findOrCreateComponent(storageTx, PACKAGE_PATH, ATTRIBUTES);
+    when(component.version()).thenReturn("2.0.0");
+
+    underTest.findOrCreateComponent(storageTx, PACKAGE_PATH, ATTRIBUTES);
+
+    verify(storageTx, times(2)).findComponents(any(), any());
+  }
+
+  @Test
+  public void deletedComponentIsNoLongerLoadedById() {
+    underTest.findOrCreateComponent(storageTx, PACKAGE_PATH, ATTRIBUTES);
+    when(componentDeletedEvent.getRepositoryName()).thenReturn(REPOSITORY_NAME);
+    when(componentDeletedEvent.getComponent()).thenReturn(component);
+    underTest.on(componentDeletedEvent);
+
+    underTest.findOrCreateComponent(storageTx, PACKAGE_PATH, ATTRIBUTES);
+
+    verify(storageTx, times(2)).findComponents(any(), any());
+    verify(storageTx, never()).findComponentInBucket(componentId, bucket);
+  }
+}
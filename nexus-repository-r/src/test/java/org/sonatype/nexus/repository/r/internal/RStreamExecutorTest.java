@@ -0,0 +1,86 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.r.internal;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link RStreamExecutor} unit tests.
+ */
+public class RStreamExecutorTest
+    extends TestSupport
+{
+  RStreamExecutor underTest;
+
+  @Before
+  public void setup() throws Exception {
+    underTest = new RStreamExecutor(1);
+    underTest.start();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    underTest.stop();
+  }
+
+  @Test
+  public void tasksAreRejectedRatherThanQueuedWhenEveryThreadIsBusy() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    Future<Boolean> running = underTest.submit(() -> release.await(5, TimeUnit.SECONDS));
+    try {
+      underTest.submit(() -> true);
+      fail("Expected the task to be rejected");
+    }
+    catch (RejectedExecutionException e) {
+      // expected
+    }
+    release.countDown();
+    assertThat(running.get(5, TimeUnit.SECONDS), is(true));
+  }
+
+  @Test
+  public void stoppingInterruptsRunningTasks() throws Exception {
+    RStreamExecutor executor = new RStreamExecutor(1);
+    executor.start();
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch interrupted = new CountDownLatch(1);
+    executor.submit(() -> {
+      started.countDown();
+      try {
+        Thread.sleep(TimeUnit.SECONDS.toMillis(30));
+      }
+      catch (InterruptedException e) {
+        interrupted.countDown();
+      }
+      return null;
+    });
+    assertThat(started.await(5, TimeUnit.SECONDS), is(true));
+
+    executor.stop();
+
+    assertThat(interrupted.await(5, TimeUnit.SECONDS), is(true));
+  }
+}
@@ -92,5 +92,5 @@ public abstract class RepositoryFacetTestSupport<T extends Facet>
     UnitOfWork.end();
   }
 
-  protected abstract T initialiseSystemUnderTest();
+  protected abstract T initialiseSystemUnderTest() throws Exception;
 }
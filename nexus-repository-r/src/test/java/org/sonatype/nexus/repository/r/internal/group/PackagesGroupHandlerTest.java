@@ -14,40 +14,72 @@ package org.sonatype.nexus.repository.r.internal.group;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.sonatype.goodies.testsupport.TestSupport;
 import org.sonatype.goodies.testsupport.junit.TestDataRule;
 import org.sonatype.nexus.repository.Repository;
 import org.sonatype.nexus.repository.group.GroupFacet;
-import org.sonatype.nexus.repository.r.internal.group.PackagesGroupHandler;
+import org.sonatype.nexus.repository.r.internal.RStreamExecutor;
+import org.sonatype.nexus.repository.http.HttpResponses;
+import org.sonatype.nexus.repository.view.Content;
 import org.sonatype.nexus.repository.view.Context;
 import org.sonatype.nexus.repository.view.Payload;
+import org.sonatype.nexus.repository.view.Request;
 import org.sonatype.nexus.repository.view.Response;
 import org.sonatype.nexus.repository.view.Status;
 import org.sonatype.nexus.repository.view.ViewFacet;
+import org.sonatype.nexus.repository.view.payloads.BytesPayload;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.apache.shiro.mgt.DefaultSecurityManager;
+import org.apache.shiro.subject.Subject;
+import org.apache.shiro.util.ThreadContext;
+import org.junit.After;
+import com.google.common.io.ByteStreams;
 import org.junit.Before;
 import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 
 import static java.lang.System.getProperty;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.sonatype.nexus.repository.http.HttpMethods.GET;
 
 public class PackagesGroupHandlerTest
     extends TestSupport
 {
-  @Mock
   Context context;
 
 /*  @Mock
   GroupHandler.DispatchedRepositories dispatchedRepositories;*/
 
+  Request request;
+
   @Mock
   Repository repository;
 
@@ -60,24 +92,44 @@ public class PackagesGroupHandlerTest
   public final TestDataRule testData = new TestDataRule(path.toFile());
 
 
+  static final String PACKAGES_PATH = "src/contrib/PACKAGES.gz";
+
   File packages;
 
   List<Repository> members;
 
+  RGroupMemberExecutor memberExecutor;
+
+  RStreamExecutor streamExecutor;
+
   PackagesGroupHandler underTest;
 
   @Before
   public void setup() throws Exception {
-    underTest = new PackagesGroupHandler();
+    memberExecutor = new RGroupMemberExecutor(4, 4);
+    memberExecutor.start();
+    streamExecutor = new RStreamExecutor(4);
+    streamExecutor.start();
+    underTest = new PackagesGroupHandler(1024 * 1024, 1024 * 1024, 60, 1000, memberExecutor, streamExecutor);
     members = new ArrayList<>();
     packages = testData.resolveFile("org/sonatype/nexus/repository/r/internal/PACKAGES.gz");
 
-    when(context.getRepository()).thenReturn(repository);
+    request = new Request.Builder().action(GET).path("/" + PACKAGES_PATH).build();
+    context = new Context(repository, request);
 
     setupRepository(repository);
     setupRepository(repository2);
 
     members.add(repository);
+
+    ThreadContext.bind(new Subject.Builder(new DefaultSecurityManager()).buildSubject());
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    ThreadContext.unbindSubject();
+    streamExecutor.stop();
+    memberExecutor.stop();
   }
 
   // Commented out until GroupHandler.DispactchedRepositories is made public
@@ -101,6 +153,201 @@ public class PackagesGroupHandlerTest
     assertThat(response.getStatus().getCode(), is(equalTo(404)));
   }*/
 
+  @Test
+  public void dispatchMembersConcurrently() throws Exception {
+    Response response = HttpResponses.ok(packagesContent(null));
+    respondSlowly(repository, response, 400L);
+    respondSlowly(repository2, response, 400L);
+
+    long start = System.currentTimeMillis();
+    Map<Repository, Response> responses = underTest.dispatch(context, ImmutableList.of(repository, repository2));
+
+    assertThat(responses.keySet(), contains(repository, repository2));
+    assertThat(System.currentTimeMillis() - start, is(lessThan(800L)));
+  }
+
+  @Test
+  public void dispatchMembersWithTheirOwnContext() throws Exception {
+    context.getAttributes().set("attribute", "value");
+
+    underTest.dispatch(context, ImmutableList.of(repository, repository2));
+
+    Context first = dispatchedContext(repository);
+    Context second = dispatchedContext(repository2);
+    assertThat(first, is(not(sameInstance(context))));
+    assertThat(second, is(not(sameInstance(first))));
+    assertThat(first.getRequest(), is(not(sameInstance(request))));
+    assertThat(second.getRequest(), is(not(sameInstance(first.getRequest()))));
+    assertThat(second.getRequest().getPath(), is("/" + PACKAGES_PATH));
+    assertThat(second.getAttributes().get("attribute"), is("value"));
+  }
+
+  @Test
+  public void skipMembersNotRespondingInTime() throws Exception {
+    when(repository2.getName()).thenReturn("slow");
+    respondSlowly(repository2, HttpResponses.ok(packagesContent(null)), 5000L);
+
+    long start = System.currentTimeMillis();
+    Map<Repository, Response> responses = underTest.dispatch(context, ImmutableList.of(repository2, repository));
+
+    assertThat(responses.keySet(), contains(repository));
+    assertThat(System.currentTimeMillis() - start, is(lessThan(3000L)));
+  }
+
+  @Test
+  public void skipFailingMembers() throws Exception {
+    when(repository2.getName()).thenReturn("failing");
+    ViewFacet viewFacet = repository2.facet(ViewFacet.class);
+    when(viewFacet.dispatch(any(), any())).thenThrow(new IOException("failed"));
+
+    Map<Repository, Response> responses = underTest.dispatch(context, ImmutableList.of(repository, repository2));
+
+    assertThat(responses.keySet(), contains(repository));
+  }
+
+  @Test
+  public void skipMembersThatCannotBeQueued() throws Exception {
+    Repository repository3 = mock(Repository.class);
+    setupRepository(repository3);
+    when(repository3.getName()).thenReturn("rejected");
+    Response response = HttpResponses.ok(packagesContent(null));
+    respondSlowly(repository, response, 200L);
+    respondSlowly(repository2, response, 200L);
+    RGroupMemberExecutor saturated = new RGroupMemberExecutor(1, 1);
+    saturated.start();
+    try {
+      PackagesGroupHandler handler = new PackagesGroupHandler(1024 * 1024, 1024 * 1024, 60, 1000, saturated,
+          streamExecutor);
+
+      Map<Repository, Response> responses =
+          handler.dispatch(context, ImmutableList.of(repository, repository2, repository3));
+
+      assertThat(responses.keySet(), contains(repository, repository2));
+      verify(repository3.facet(ViewFacet.class), never()).dispatch(any(), any());
+    }
+    finally {
+      saturated.stop();
+    }
+  }
+
+  @Test
+  public void reuseMergedPackagesWhenMembersUnchanged() throws Exception {
+    when(repository.getName()).thenReturn("group");
+    when(repository2.getName()).thenReturn("member");
+    Content first = spy(packagesContent("\"first\""));
+    Content second = spy(packagesContent("\"second\""));
+
+    Response merged = underTest.merge(repository, PACKAGES_PATH, responses(first, second), true);
+    assertThat(merged.getStatus().getCode(), is(equalTo(200)));
+    byte[] mergedContent = toByteArray(merged.getPayload());
+    Response cached = underTest.merge(repository, PACKAGES_PATH, responses(first, second), true);
+
+    assertThat(toByteArray(cached.getPayload()), is(equalTo(mergedContent)));
+    verify(first, times(1)).openInputStream();
+    verify(second, times(1)).openInputStream();
+  }
+
+  @Test
+  public void mergeEveryTimeWhenLargerThanMaxEntrySize() throws Exception {
+    when(repository.getName()).thenReturn("group");
+    when(repository2.getName()).thenReturn("member");
+    Content first = spy(packagesContent("\"first\""));
+    Content second = spy(packagesContent("\"second\""));
+    PackagesGroupHandler handler = new PackagesGroupHandler(1024 * 1024, 16, 60, 1000, memberExecutor, streamExecutor);
+
+    byte[] merged = toByteArray(handler.merge(repository, PACKAGES_PATH, responses(first, second), true).getPayload());
+    byte[] again = toByteArray(handler.merge(repository, PACKAGES_PATH, responses(first, second), true).getPayload());
+
+    assertThat(again, is(equalTo(merged)));
+    verify(first, times(2)).openInputStream();
+    verify(second, times(2)).openInputStream();
+  }
+
+  @Test
+  public void mergeAgainWhenMemberChanged() throws Exception {
+    when(repository.getName()).thenReturn("group");
+    when(repository2.getName()).thenReturn("member");
+    Content first = spy(packagesContent("\"first\""));
+    Content second = spy(packagesContent("\"second\""));
+    Content changed = spy(packagesContent("\"changed\""));
+
+    toByteArray(underTest.merge(repository, PACKAGES_PATH, responses(first, second), true).getPayload());
+    toByteArray(underTest.merge(repository, PACKAGES_PATH, responses(first, changed), true).getPayload());
+
+    verify(first, times(2)).openInputStream();
+    verify(changed, times(1)).openInputStream();
+  }
+
+  @Test
+  public void mergeEveryTimeWhenMembersWereSkipped() throws Exception {
+    when(repository.getName()).thenReturn("group");
+    when(repository2.getName()).thenReturn("member");
+    Content first = spy(packagesContent("\"first\""));
+    Content second = spy(packagesContent("\"second\""));
+
+    toByteArray(underTest.merge(repository, PACKAGES_PATH, responses(first, second), false).getPayload());
+    toByteArray(underTest.merge(repository, PACKAGES_PATH, responses(first, second), false).getPayload());
+    toByteArray(underTest.merge(repository, PACKAGES_PATH, responses(first, second), true).getPayload());
+
+    verify(first, times(3)).openInputStream();
+    verify(second, times(3)).openInputStream();
+  }
+
+  @Test
+  public void mergeEveryTimeWithoutMemberETags() throws Exception {
+    when(repository.getName()).thenReturn("group");
+    when(repository2.getName()).thenReturn("member");
+    Content first = spy(packagesContent(null));
+    Content second = spy(packagesContent("\"second\""));
+
+    toByteArray(underTest.merge(repository, PACKAGES_PATH, responses(first, second), true).getPayload());
+    toByteArray(underTest.merge(repository, PACKAGES_PATH, responses(first, second), true).getPayload());
+
+    verify(second, times(2)).openInputStream();
+  }
+
+  @Test
+  public void nullWhenNoSuccessfulResponses() throws Exception {
+    assertThat(underTest.merge(repository, PACKAGES_PATH, ImmutableMap.of(repository, HttpResponses.notFound()),
+        true),
+        is(nullValue()));
+  }
+
+  private void respondSlowly(final Repository member, final Response response, final long delay) throws Exception {
+    ViewFacet viewFacet = member.facet(ViewFacet.class);
+    when(viewFacet.dispatch(any(), any())).thenAnswer(invocation -> {
+      Thread.sleep(delay);
+      return response;
+    });
+  }
+
+  private static Context dispatchedContext(final Repository member) throws Exception {
+    ArgumentCaptor<Context> context = ArgumentCaptor.forClass(Context.class);
+    verify(member.facet(ViewFacet.class)).dispatch(any(), context.capture());
+    return context.getValue();
+  }
+
+  private Map<Repository, Response> responses(final Content first, final Content second) {
+    Map<Repository, Response> responses = new LinkedHashMap<>();
+    responses.put(repository, HttpResponses.ok(first));
+    responses.put(repository2, HttpResponses.ok(second));
+    return responses;
+  }
+
+  private Content packagesContent(final String etag) throws Exception {
+    Content content = new Content(new BytesPayload(Files.readAllBytes(packages.toPath()), "application/x-gzip"));
+    if (etag != null) {
+      content.getAttributes().set(Content.CONTENT_ETAG, etag);
+    }
+    return content;
+  }
+
+  private static byte[] toByteArray(final Payload payload) throws Exception {
+    try (InputStream in = payload.openInputStream()) {
+      return ByteStreams.toByteArray(in);
+    }
+  }
+
   private void setupRepository(final Repository repository) throws Exception {
     ViewFacet viewFacet = mock(ViewFacet.class);
     Response response = mock(Response.class);
@@ -106,17 +106,17 @@ public class HostedHandlersTest
   @Test
   public void rebuildsLostPackages() throws Exception {
     when(rHostedFacet.getStoredContent(anyString())).thenReturn(null);
-    when(rHostedFacet.buildAndPutPackagesGz(anyString())).thenReturn(content);
+    when(rHostedFacet.buildAndPutPackages(anyString())).thenReturn(content);
 
     assertStatus(underTest.getPackages, 200);
     verify(rHostedFacet, times(1)).getStoredContent(anyString());
-    verify(rHostedFacet, times(1)).buildAndPutPackagesGz(anyString());
+    verify(rHostedFacet, times(1)).buildAndPutPackages(anyString());
   }
 
   @Test
   public void notFoundWhenPackagesNotFound() throws Exception {
     when(rHostedFacet.getStoredContent(anyString())).thenReturn(null);
-    when(rHostedFacet.buildAndPutPackagesGz(anyString())).thenReturn(null);
+    when(rHostedFacet.buildAndPutPackages(anyString())).thenReturn(null);
 
     assertStatus(underTest.getPackages, 404);
   }
@@ -14,12 +14,25 @@ package org.sonatype.nexus.repository.r.internal.hosted;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
 
 import org.sonatype.nexus.repository.r.RFacet;
+import org.sonatype.nexus.repository.r.internal.RDownloadRecorder;
+import org.sonatype.nexus.repository.r.internal.RStreamExecutor;
 import org.sonatype.nexus.repository.r.internal.RepositoryFacetTestSupport;
 import org.sonatype.nexus.repository.r.internal.util.RFacetUtils;
+import org.sonatype.nexus.repository.storage.Asset;
 import org.sonatype.nexus.repository.storage.AssetBlob;
 import org.sonatype.nexus.repository.storage.Bucket;
 import org.sonatype.nexus.repository.storage.Component;
@@ -28,11 +41,18 @@ import org.sonatype.nexus.repository.view.Content;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.io.ByteStreams;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 
+import static com.google.common.base.Charsets.UTF_8;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.startsWith;
 import static org.hamcrest.core.Is.is;
 import static org.hamcrest.core.IsEqual.equalTo;
 import static org.hamcrest.core.IsNull.notNullValue;
@@ -43,9 +63,12 @@ import static org.mockito.Matchers.anyMapOf;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.sonatype.nexus.repository.r.internal.AssetKind.ARCHIVE;
 import static org.sonatype.nexus.repository.r.internal.RAttributes.P_DEPENDS;
 import static org.sonatype.nexus.repository.r.internal.RAttributes.P_IMPORTS;
 import static org.sonatype.nexus.repository.r.internal.RAttributes.P_LICENSE;
@@ -55,12 +78,17 @@ import static org.sonatype.nexus.repository.r.internal.RAttributes.P_PACKAGE;
 import static org.sonatype.nexus.repository.r.internal.RAttributes.P_SUGGESTS;
 import static org.sonatype.nexus.repository.r.internal.RAttributes.P_VERSION;
 import static org.sonatype.nexus.repository.r.internal.util.RDescriptionUtils.extractDescriptionFromArchive;
+import static org.sonatype.nexus.repository.storage.AssetEntityAdapter.P_ASSET_KIND;
 
 public class RHostedFacetImplTest
     extends RepositoryFacetTestSupport<RHostedFacetImpl>
 {
+  static final String PACKAGES = "PACKAGES";
+
   static final String PACKAGES_GZ = "PACKAGES.gz";
 
+  static final String PACKAGES_RDS = "PACKAGES.rds";
+
   static final String PACKAGE_NAME = "package.gz";
 
   static final String REAL_PACKAGE = "r-package.zip";
@@ -71,8 +99,12 @@ public class RHostedFacetImplTest
 
   static final String REAL_PACKAGE_PATH = BASE_PATH + "/" + REAL_PACKAGE;
 
+  static final String PACKAGES_PATH = BASE_PATH + "/" + PACKAGES;
+
   static final String PACKAGES_GZ_PATH = BASE_PATH + "/" + PACKAGES_GZ;
 
+  static final String PACKAGES_RDS_PATH = BASE_PATH + "/" + PACKAGES_RDS;
+
   static final String VERSION = "1.0.0";
 
   static final String DEPENDS = "a,b,c";
@@ -102,9 +134,18 @@ public class RHostedFacetImplTest
   @Mock
   RFacet rFacet;
 
+  RStreamExecutor streamExecutor;
+
   @Override
-  protected RHostedFacetImpl initialiseSystemUnderTest() {
-    return new RHostedFacetImpl();
+  protected RHostedFacetImpl initialiseSystemUnderTest() throws Exception {
+    streamExecutor = new RStreamExecutor(8);
+    streamExecutor.start();
+    return new RHostedFacetImpl(true, 2, new RDownloadRecorder(0), streamExecutor);
+  }
+
+  @After
+  public void stopStreamExecutor() throws Exception {
+    streamExecutor.stop();
   }
 
   @Before
@@ -121,6 +162,10 @@ public class RHostedFacetImplTest
     when(repository.facet(RFacet.class)).thenReturn(rFacet);
     when(rFacet.findOrCreateAsset(any(), any())).thenReturn(asset);
     when(rFacet.findOrCreateAsset(any(), any(), any(), any())).thenReturn(asset);
+    when(rFacet.findAsset(any(), anyString()))
+        .thenAnswer(invocation -> RFacetUtils.findAsset(storageTx, bucket, (String) invocation.getArguments()[1]));
+    when(formatAttributes.get(P_ASSET_KIND, String.class)).thenReturn(ARCHIVE.name());
+    when(storageFacet.txSupplier()).thenReturn(() -> storageTx);
   }
 
   @Test
@@ -164,7 +209,6 @@ public class RHostedFacetImplTest
 
   @Test
   public void putArchive() throws Exception {
-    List<Component> list = ImmutableList.of(component);
     when(tempBlob.get()).thenReturn(getClass().getResourceAsStream(
         "/org/sonatype/nexus/repository/r/internal/" + REAL_PACKAGE));
     when(asset.name()).thenReturn(REAL_PACKAGE_PATH);
@@ -178,8 +222,6 @@ public class RHostedFacetImplTest
         any(),
         any(),
         anyBoolean());
-    when(storageTx.findComponents(any(), any()))
-        .thenReturn(list);
     when(rFacet.findOrCreateComponent(any(storageTx.getClass()), anyString(), anyMapOf(String.class, String.class)))
         .thenReturn(component);
     when(rFacet.findOrCreateAsset(any(storageTx.getClass()), any(component.getClass()), eq(REAL_PACKAGE_PATH),
@@ -208,12 +250,18 @@ public class RHostedFacetImplTest
         invocation -> {
           InputStream is = (InputStream) invocation.getArguments()[0];
           byte[] content = ByteStreams.toByteArray(is);
-          when(tempBlob.get()).thenAnswer(i -> new ByteArrayInputStream(content));
-          return tempBlob;
+          TempBlob createdBlob = mock(TempBlob.class);
+          when(createdBlob.get()).thenAnswer(i -> new ByteArrayInputStream(content));
+          return createdBlob;
         });
     assets.add(asset);
     underTest.buildAndPutPackagesGz(BASE_PATH);
-    try (InputStream in = tempBlob.get()) {
+
+    // metadata is stored in order: PACKAGES, PACKAGES.gz, PACKAGES.rds
+    ArgumentCaptor<Supplier> savedContent = ArgumentCaptor.forClass(Supplier.class);
+    verify(storageTx, times(3)).setBlob(any(), any(), savedContent.capture(), any(), any(), any(), anyBoolean());
+    List<Supplier> savedContents = savedContent.getAllValues();
+    try (InputStream in = (InputStream) savedContents.get(1).get()) {
       Map<String, String> attributes = extractDescriptionFromArchive(PACKAGE_NAME, in);
       assertThat(attributes.get(P_PACKAGE), is(equalTo(PACKAGE_NAME)));
       assertThat(attributes.get(P_VERSION), is(equalTo(VERSION)));
@@ -224,6 +272,182 @@ public class RHostedFacetImplTest
       assertThat(attributes.get(P_LICENSE), is(equalTo(LICENSE)));
       assertThat(attributes.get(P_NEEDS_COMPILATION), is(equalTo(NEEDS_COMPILATION)));
     }
-    verify(storageTx).saveAsset(asset);
+    try (InputStream in = (InputStream) savedContents.get(0).get()) {
+      String packages = new String(ByteStreams.toByteArray(in), UTF_8);
+      assertThat(packages, startsWith("Package: " + PACKAGE_NAME + "\n"));
+    }
+    try (InputStream in = new GZIPInputStream((InputStream) savedContents.get(2).get())) {
+      byte[] header = new byte[2];
+      ByteStreams.readFully(in, header);
+      assertThat(new String(header, UTF_8), is(equalTo("X\n")));
+    }
+    verify(rFacet).findOrCreateAsset(storageTx, PACKAGES_PATH);
+    verify(rFacet).findOrCreateAsset(storageTx, PACKAGES_GZ_PATH);
+    verify(rFacet).findOrCreateAsset(storageTx, PACKAGES_RDS_PATH);
+    verify(storageTx, times(3)).saveAsset(asset);
+  }
+
+  @Test
+  public void shouldScanArchivesOnlyOnceWhenBuildingIncrementally() throws Exception {
+    when(asset.name()).thenReturn(PACKAGE_PATH);
+    when(assetBlob.getBlob()).thenReturn(blob);
+    doReturn(assetBlob)
+        .when(storageTx).setBlob(any(),
+        any(),
+        any(),
+        any(),
+        any(),
+        any(),
+        anyBoolean());
+    when(storageFacet.createTempBlob(any(InputStream.class), eq(RFacetUtils.HASH_ALGORITHMS))).thenReturn(tempBlob);
+    assets.add(asset);
+
+    underTest.buildAndPutPackagesGz(BASE_PATH);
+    underTest.updatePackagesIndex(PACKAGE_PATH);
+    underTest.buildAndPutPackagesGz(BASE_PATH);
+
+    verify(storageTx, times(1)).browseAssets(any(), any(Bucket.class));
+  }
+
+  @Test
+  public void shouldApplyStoredStateOfChangedArchiveToIndex() throws Exception {
+    when(asset.name()).thenReturn(PACKAGE_PATH);
+    when(assetBlob.getBlob()).thenReturn(blob);
+    doReturn(assetBlob)
+        .when(storageTx).setBlob(any(),
+        any(),
+        any(),
+        any(),
+        any(),
+        any(),
+        anyBoolean());
+    List<String> writtenContents = Collections.synchronizedList(new ArrayList<>());
+    when(storageFacet.createTempBlob(any(InputStream.class), eq(RFacetUtils.HASH_ALGORITHMS))).thenAnswer(
+        invocation -> {
+          writtenContents.add(new String(ByteStreams.toByteArray((InputStream) invocation.getArguments()[0]), UTF_8));
+          return tempBlob;
+        });
+    assets.add(asset);
+
+    underTest.buildAndPutPackagesGz(BASE_PATH);
+    assertThat(writtenContents, hasItem(startsWith("Package: " + PACKAGE_NAME + "\n")));
+
+    // the archive is gone from storage, whatever the event that reported the change
+    when(storageTx.findAssetWithProperty(anyString(), anyString(), any(Bucket.class))).thenReturn(null);
+    writtenContents.clear();
+    underTest.updatePackagesIndex(PACKAGE_PATH);
+    underTest.buildAndPutPackagesGz(BASE_PATH);
+
+    assertThat(writtenContents, not(hasItem(startsWith("Package: " + PACKAGE_NAME + "\n"))));
+    verify(storageTx, times(1)).browseAssets(any(), any(Bucket.class));
+  }
+
+  @Test
+  public void shouldNotApplyStateReadBeforeLaterChange() throws Exception {
+    when(asset.name()).thenReturn(PACKAGE_PATH);
+    when(assetBlob.getBlob()).thenReturn(blob);
+    doReturn(assetBlob)
+        .when(storageTx).setBlob(any(),
+        any(),
+        any(),
+        any(),
+        any(),
+        any(),
+        anyBoolean());
+    List<String> writtenContents = Collections.synchronizedList(new ArrayList<>());
+    when(storageFacet.createTempBlob(any(InputStream.class), eq(RFacetUtils.HASH_ALGORITHMS))).thenAnswer(
+        invocation -> {
+          writtenContents.add(new String(ByteStreams.toByteArray((InputStream) invocation.getArguments()[0]), UTF_8));
+          return tempBlob;
+        });
+    assets.add(asset);
+    underTest.buildAndPutPackagesGz(BASE_PATH);
+
+    // the first read sees the archive before its deletion but completes after the read following the deletion
+    CountDownLatch reading = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger reads = new AtomicInteger();
+    when(storageTx.findAssetWithProperty(anyString(), anyString(), any(Bucket.class))).thenAnswer(invocation -> {
+      if (reads.incrementAndGet() == 1) {
+        reading.countDown();
+        release.await(5, TimeUnit.SECONDS);
+        return asset;
+      }
+      return null;
+    });
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<?> staleUpdate = executor.submit(() -> underTest.updatePackagesIndex(PACKAGE_PATH));
+      assertThat(reading.await(5, TimeUnit.SECONDS), is(true));
+      underTest.updatePackagesIndex(PACKAGE_PATH);
+      release.countDown();
+      staleUpdate.get(5, TimeUnit.SECONDS);
+    }
+    finally {
+      executor.shutdownNow();
+    }
+
+    writtenContents.clear();
+    underTest.buildAndPutPackagesGz(BASE_PATH);
+    assertThat(writtenContents, not(hasItem(startsWith("Package: " + PACKAGE_NAME + "\n"))));
+  }
+
+  @Test
+  public void shouldBuildSeveralPathsFromOneScan() throws Exception {
+    String otherBasePath = "other/base/path";
+    Asset otherAsset = mock(Asset.class);
+    when(otherAsset.name()).thenReturn(otherBasePath + "/" + PACKAGE_NAME);
+    when(otherAsset.formatAttributes()).thenReturn(formatAttributes);
+    when(asset.name()).thenReturn(PACKAGE_PATH);
+    when(assetBlob.getBlob()).thenReturn(blob);
+    doReturn(assetBlob)
+        .when(storageTx).setBlob(any(),
+        any(),
+        any(),
+        any(),
+        any(),
+        any(),
+        anyBoolean());
+    when(storageFacet.createTempBlob(any(InputStream.class), eq(RFacetUtils.HASH_ALGORITHMS))).thenReturn(tempBlob);
+    assets.add(asset);
+    assets.add(otherAsset);
+
+    Map<String, Content> packages = underTest.buildAndPutPackages(ImmutableList.of(BASE_PATH, otherBasePath));
+
+    assertThat(packages.keySet(), contains(
+        PACKAGES_PATH, PACKAGES_GZ_PATH, PACKAGES_RDS_PATH,
+        otherBasePath + "/" + PACKAGES, otherBasePath + "/" + PACKAGES_GZ, otherBasePath + "/" + PACKAGES_RDS));
+    verify(storageTx, times(1)).browseAssets(any(), any(Bucket.class));
+    verify(rFacet).findOrCreateAsset(storageTx, PACKAGES_GZ_PATH);
+    verify(rFacet).findOrCreateAsset(storageTx, otherBasePath + "/" + PACKAGES_GZ);
+    verify(rFacet).findOrCreateAsset(storageTx, otherBasePath + "/" + PACKAGES_RDS);
+    verify(storageTx, times(6)).saveAsset(asset);
+  }
+
+  @Test
+  public void shouldReturnRequestedMetadata() throws Exception {
+    when(asset.name()).thenReturn(PACKAGE_PATH);
+    when(assetBlob.getBlob()).thenReturn(blob);
+    doReturn(assetBlob)
+        .when(storageTx).setBlob(any(),
+        any(),
+        any(),
+        any(),
+        any(),
+        any(),
+        anyBoolean());
+    when(storageFacet.createTempBlob(any(InputStream.class), eq(RFacetUtils.HASH_ALGORITHMS))).thenReturn(tempBlob);
+    assets.add(asset);
+
+    assertThat(underTest.buildAndPutPackages(PACKAGES_RDS_PATH), is(notNullValue()));
+  }
+
+  @Test
+  public void shouldNotBuildMetadataForOtherPackagesPaths() throws Exception {
+    assertThat(underTest.buildAndPutPackages(BASE_PATH + "/PACKAGES.xz"), is(nullValue()));
+    assertThat(underTest.buildAndPutPackages(BASE_PATH + "/PACKAGES.gz.sha1"), is(nullValue()));
+
+    verify(storageTx, never()).browseAssets(any(), any(Bucket.class));
+    verify(storageTx, never()).saveAsset(any());
   }
 }
@@ -0,0 +1,161 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.r.internal.hosted;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * {@link RMetadataRebuildScheduler} unit tests.
+ */
+public class RMetadataRebuildSchedulerTest
+    extends TestSupport
+{
+  static final String REPOSITORY_NAME = "repository-name";
+
+  RMetadataRebuildScheduler underTest;
+
+  @After
+  public void tearDown() throws Exception {
+    if (underTest != null) {
+      underTest.stop();
+    }
+  }
+
+  @Test
+  public void shouldCoalesceRequestsForSamePath() throws Exception {
+    start(200L, 10000L);
+    AtomicInteger rebuilds = new AtomicInteger();
+    for (int i = 0; i < 10; i++) {
+      underTest.request(REPOSITORY_NAME, "src/contrib", rebuilds::incrementAndGet);
+    }
+
+    Thread.sleep(1000L);
+
+    assertThat(rebuilds.get(), is(1));
+  }
+
+  @Test
+  public void shouldRebuildEveryPath() throws Exception {
+    start(10L, 100L);
+    CountDownLatch latch = new CountDownLatch(2);
+    underTest.request(REPOSITORY_NAME, "src/contrib", latch::countDown);
+    underTest.request(REPOSITORY_NAME, "bin/windows/contrib/3.6", latch::countDown);
+
+    assertThat(latch.await(5, TimeUnit.SECONDS), is(true));
+  }
+
+  @Test
+  public void shouldNotPostponeBeyondMaximumDelay() throws Exception {
+    start(200L, 400L);
+    CountDownLatch latch = new CountDownLatch(1);
+    long start = System.currentTimeMillis();
+    while (latch.getCount() > 0 && System.currentTimeMillis() - start < 5000L) {
+      underTest.request(REPOSITORY_NAME, "src/contrib", latch::countDown);
+      Thread.sleep(50L);
+    }
+
+    assertThat(latch.getCount(), is(0L));
+  }
+
+  @Test
+  public void shouldRebuildAgainWhenRequestedWhileRunning() throws Exception {
+    start(10L, 100L);
+    CountDownLatch running = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch rerun = new CountDownLatch(1);
+    underTest.request(REPOSITORY_NAME, "src/contrib", () -> {
+      running.countDown();
+      try {
+        release.await();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+
+    assertThat(running.await(5, TimeUnit.SECONDS), is(true));
+    underTest.request(REPOSITORY_NAME, "src/contrib", rerun::countDown);
+    release.countDown();
+
+    assertThat(rerun.await(5, TimeUnit.SECONDS), is(true));
+  }
+
+  @Test
+  public void shouldRetryFailedRebuildWithBackoff() throws Exception {
+    start(10L, 100L);
+    AtomicInteger attempts = new AtomicInteger();
+    CountDownLatch rebuilt = new CountDownLatch(1);
+    long start = System.currentTimeMillis();
+    underTest.request(REPOSITORY_NAME, "src/contrib", () -> {
+      if (attempts.incrementAndGet() < 3) {
+        throw new IllegalStateException("simulated");
+      }
+      rebuilt.countDown();
+    });
+
+    assertThat(rebuilt.await(5, TimeUnit.SECONDS), is(true));
+    assertThat(attempts.get(), is(3));
+    // retried after 50ms, then after 100ms
+    assertThat(System.currentTimeMillis() - start >= 150L, is(true));
+  }
+
+  @Test
+  public void shouldStopRetryingWhenCancelled() throws Exception {
+    start(10L, 100L);
+    AtomicInteger attempts = new AtomicInteger();
+    underTest.request(REPOSITORY_NAME, "src/contrib", () -> {
+      attempts.incrementAndGet();
+      throw new IllegalStateException("simulated");
+    });
+    long start = System.currentTimeMillis();
+    while (attempts.get() == 0 && System.currentTimeMillis() - start < 5000L) {
+      Thread.sleep(10L);
+    }
+
+    underTest.cancel(REPOSITORY_NAME);
+    int cancelledAttempts = attempts.get();
+    Thread.sleep(500L);
+
+    assertThat(attempts.get() <= cancelledAttempts + 1, is(true));
+    int settledAttempts = attempts.get();
+    Thread.sleep(500L);
+    assertThat(attempts.get(), is(settledAttempts));
+  }
+
+  @Test
+  public void shouldDiscardCancelledRequests() throws Exception {
+    start(200L, 10000L);
+    AtomicInteger rebuilds = new AtomicInteger();
+    underTest.request(REPOSITORY_NAME, "src/contrib", rebuilds::incrementAndGet);
+    underTest.cancel(REPOSITORY_NAME);
+
+    Thread.sleep(500L);
+
+    assertThat(rebuilds.get(), is(0));
+  }
+
+  private void start(final long interval, final long maxDelay) throws Exception {
+    underTest = new RMetadataRebuildScheduler(interval, maxDelay, 2, 50L, 200L);
+    underTest.start();
+  }
+}
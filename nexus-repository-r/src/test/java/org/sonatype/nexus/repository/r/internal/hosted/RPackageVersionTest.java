@@ -12,11 +12,17 @@
  */
 package org.sonatype.nexus.repository.r.internal.hosted;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
 import org.sonatype.goodies.testsupport.TestSupport;
 import org.sonatype.nexus.repository.r.internal.hosted.RPackageVersion;
 
 import org.junit.Test;
 
+import static java.util.Arrays.asList;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.is;
@@ -233,4 +239,47 @@ public class RPackageVersionTest
     assertThat(new RPackageVersion("9.9-9999"), is(lessThan(new RPackageVersion("10.0.0"))));
     assertThat(new RPackageVersion("9.9999-9999"), is(lessThan(new RPackageVersion("10.0.0"))));
   }
+
+  @Test
+  public void testOrderingOfCranVersions() {
+    List<String> ordered = asList("0.1", "0.1-1", "0.1.1.9000", "0.9.4", "0.10", "0.10-2", "1.0", "1.0-0", "1.0.1",
+        "1.2-14", "1.2.15", "1.7.8", "1.7.10", "1.7.10.1", "2.1", "3.4.0", "3.99-0.1", "20.1.13");
+    List<RPackageVersion> shuffled = new ArrayList<>();
+    for (String version : ordered) {
+      shuffled.add(new RPackageVersion(version));
+    }
+    Collections.shuffle(shuffled, new Random(1L));
+    Collections.sort(shuffled);
+
+    List<String> sorted = new ArrayList<>();
+    for (RPackageVersion version : shuffled) {
+      sorted.add(version.getVersion());
+    }
+    assertThat(sorted, is(equalTo(ordered)));
+  }
+
+  @Test
+  public void testComparingVersionsOfDifferentLengths() {
+    assertThat(new RPackageVersion("1.0"), is(lessThan(new RPackageVersion("1.0.0"))));
+    assertThat(new RPackageVersion("1.0.0.9000"), is(greaterThan(new RPackageVersion("1.0.0"))));
+    assertThat(new RPackageVersion("1.0.0.9000"), is(lessThan(new RPackageVersion("1.0.1"))));
+    assertThat(new RPackageVersion("1.0.0").isGreaterThan(new RPackageVersion("1.0")), is(true));
+    assertThat(new RPackageVersion("1.0").isGreaterThan(new RPackageVersion("1.0")), is(false));
+  }
+
+  @Test
+  public void testComparingVersionsWithLeadingZeros() {
+    assertThat(new RPackageVersion("1.01"), is(equalTo(new RPackageVersion("1.1"))));
+    assertThat(new RPackageVersion("1.01").hashCode(), is(equalTo(new RPackageVersion("1.1").hashCode())));
+    assertThat(new RPackageVersion("1.09"), is(lessThan(new RPackageVersion("1.10"))));
+  }
+
+  @Test
+  public void testComparingInvalidVersionsAlphanumerically() {
+    assertThat(new RPackageVersion("1.0.0b"), is(greaterThan(new RPackageVersion("1.0.0a"))));
+    assertThat(new RPackageVersion("1.0-rc2"), is(equalTo(new RPackageVersion("1.0.rc2"))));
+    assertThat(new RPackageVersion("1.0-rc2").hashCode(), is(equalTo(new RPackageVersion("1.0.rc2").hashCode())));
+    assertThat(new RPackageVersion("1..0"), is(not(equalTo(new RPackageVersion("1.0")))));
+    assertThat(new RPackageVersion(" 1.0-2 "), is(equalTo(new RPackageVersion("1.0.2"))));
+  }
 }
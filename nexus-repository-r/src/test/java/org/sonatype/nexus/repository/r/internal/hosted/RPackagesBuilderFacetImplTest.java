@@ -12,6 +12,10 @@
  */
 package org.sonatype.nexus.repository.r.internal.hosted;
 
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
 import org.sonatype.goodies.testsupport.TestSupport;
 import org.sonatype.nexus.common.collect.NestedAttributesMap;
 import org.sonatype.nexus.common.event.EventManager;
@@ -27,13 +31,19 @@ import org.sonatype.nexus.repository.storage.StorageFacet;
 import org.sonatype.nexus.repository.storage.StorageTx;
 import org.sonatype.nexus.repository.storage.TempBlob;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 
+import static java.util.Collections.singleton;
+import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
@@ -88,6 +98,8 @@ public class RPackagesBuilderFacetImplTest
   @Mock
   StorageTx storageTx;
 
+  RMetadataRebuildScheduler rebuildScheduler;
+
   RPackagesBuilderFacetImpl underTest;
 
   @Before
@@ -100,10 +112,18 @@ public class RPackagesBuilderFacetImplTest
 
     when(asset.formatAttributes()).thenReturn(formatAttributes);
 
-    underTest = new RPackagesBuilderFacetImpl(eventManager, 1L);
+    rebuildScheduler = new RMetadataRebuildScheduler(1L, 10L, 1, 10L, 100L);
+    rebuildScheduler.start();
+
+    underTest = new RPackagesBuilderFacetImpl(eventManager, rebuildScheduler);
     underTest.attach(repository);
   }
 
+  @After
+  public void tearDown() throws Exception {
+    rebuildScheduler.stop();
+  }
+
   @Test
   public void testAssetDeletedEventHandledCorrectly() {
     when(assetDeletedEvent.isLocal()).thenReturn(true);
@@ -161,6 +181,19 @@ public class RPackagesBuilderFacetImplTest
     verifyNoMoreInteractions(eventManager);
   }
 
+  @Test
+  public void testAssetDeletedEventRemovedFromPackagesIndex() {
+    when(assetDeletedEvent.isLocal()).thenReturn(true);
+    when(assetDeletedEvent.getRepositoryName()).thenReturn(REPOSITORY_NAME);
+    when(assetDeletedEvent.getAsset()).thenReturn(asset);
+    when(asset.name()).thenReturn(ASSET_PATH);
+    when(formatAttributes.get(P_ASSET_KIND, String.class)).thenReturn(ARCHIVE.name());
+
+    underTest.on(assetDeletedEvent);
+
+    verify(hostedFacet).updatePackagesIndex(ASSET_PATH);
+  }
+
   @Test
   public void testAssetCreatedEventHandledCorrectly() {
     when(assetCreatedEvent.isLocal()).thenReturn(true);
@@ -179,6 +212,19 @@ public class RPackagesBuilderFacetImplTest
     assertThat(event.getBasePath(), is(BASE_PATH));
   }
 
+  @Test
+  public void testAssetCreatedEventAppliedToPackagesIndex() {
+    when(assetCreatedEvent.isLocal()).thenReturn(true);
+    when(assetCreatedEvent.getRepositoryName()).thenReturn(REPOSITORY_NAME);
+    when(assetCreatedEvent.getAsset()).thenReturn(asset);
+    when(asset.name()).thenReturn(ASSET_PATH);
+    when(formatAttributes.get(P_ASSET_KIND, String.class)).thenReturn(ARCHIVE.name());
+
+    underTest.on(assetCreatedEvent);
+
+    verify(hostedFacet).updatePackagesIndex(ASSET_PATH);
+  }
+
   @Test
   public void testAssetCreatedEventIgnoredForDifferentNode() {
     when(assetCreatedEvent.isLocal()).thenReturn(false);
@@ -192,6 +238,19 @@ public class RPackagesBuilderFacetImplTest
     verifyNoMoreInteractions(eventManager);
   }
 
+  @Test
+  public void testAssetCreatedEventFromDifferentNodeAppliedToPackagesIndex() {
+    when(assetCreatedEvent.isLocal()).thenReturn(false);
+    when(assetCreatedEvent.getRepositoryName()).thenReturn(REPOSITORY_NAME);
+    when(assetCreatedEvent.getAsset()).thenReturn(asset);
+    when(asset.name()).thenReturn(ASSET_PATH);
+    when(formatAttributes.get(P_ASSET_KIND, String.class)).thenReturn(ARCHIVE.name());
+
+    underTest.on(assetCreatedEvent);
+
+    verify(hostedFacet).updatePackagesIndex(ASSET_PATH);
+  }
+
   @Test
   public void testAssetCreatedEventIgnoredForDifferentRepository() {
     when(assetCreatedEvent.isLocal()).thenReturn(true);
@@ -282,6 +341,47 @@ public class RPackagesBuilderFacetImplTest
 
     underTest.on(invalidationEvent);
 
-    verify(hostedFacet).buildAndPutPackagesGz(BASE_PATH);
+    verify(hostedFacet, timeout(5000)).buildAndPutPackages(singleton(BASE_PATH));
+  }
+
+  @Test
+  public void testRebuildMetadataRetriedAfterFailure() throws Exception {
+    when(invalidationEvent.getBasePath()).thenReturn(BASE_PATH);
+    when(invalidationEvent.getRepositoryName()).thenReturn(REPOSITORY_NAME);
+    doThrow(new IOException("simulated")).doNothing().when(hostedFacet).buildAndPutPackages(singleton(BASE_PATH));
+
+    underTest.on(invalidationEvent);
+
+    verify(hostedFacet, timeout(5000).times(2)).buildAndPutPackages(singleton(BASE_PATH));
+  }
+
+  @Test
+  public void testInvalidationDeferredWhileSuspended() {
+    underTest.suspendInvalidation();
+    underTest.suspendInvalidation();
+    underTest.invalidateMetadata(BASE_PATH);
+    underTest.invalidateMetadata(BASE_PATH);
+    underTest.invalidateMetadata("/other/path");
+    underTest.resumeInvalidation();
+
+    verifyNoMoreInteractions(eventManager);
+
+    underTest.resumeInvalidation();
+
+    ArgumentCaptor<RMetadataInvalidationEvent> eventCaptor = ArgumentCaptor.forClass(RMetadataInvalidationEvent.class);
+    verify(eventManager, times(2)).post(eventCaptor.capture());
+    Set<String> basePaths = new HashSet<>();
+    for (RMetadataInvalidationEvent event : eventCaptor.getAllValues()) {
+      basePaths.add(event.getBasePath());
+    }
+    assertThat(basePaths, containsInAnyOrder(BASE_PATH, "/other/path"));
+
+    underTest.invalidateMetadata(BASE_PATH);
+    verify(eventManager, times(3)).post(eventCaptor.capture());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testResumeWithoutSuspendFails() {
+    underTest.resumeInvalidation();
   }
 }
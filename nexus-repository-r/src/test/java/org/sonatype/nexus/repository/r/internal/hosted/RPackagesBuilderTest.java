@@ -13,6 +13,7 @@
 package org.sonatype.nexus.repository.r.internal.hosted;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Map;
@@ -85,7 +86,9 @@ public class RPackagesBuilderTest
     Map<String, Map<String, String>> packageInformation = underTest.getPackageInformation();
     assertThat(packageInformation.keySet(), contains("a"));
 
-    try (InputStream in = new ByteArrayInputStream(underTest.buildPackagesGz())) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    underTest.writePackagesGz(out);
+    try (InputStream in = new ByteArrayInputStream(out.toByteArray())) {
       Map<String, String> attributes = extractDescriptionFromArchive("PACKAGES.gz", in);
       assertThat(attributes.get(P_PACKAGE), is("a"));
       assertThat(attributes.get(P_VERSION), is("3.0.0"));
@@ -0,0 +1,159 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.r.internal.hosted;
+
+import java.util.Map;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+import org.sonatype.nexus.common.collect.NestedAttributesMap;
+import org.sonatype.nexus.repository.storage.Asset;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Before;
+import org.junit.Test;
+
+import static java.util.Collections.emptyList;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.sonatype.nexus.repository.r.internal.RAttributes.P_PACKAGE;
+import static org.sonatype.nexus.repository.r.internal.RAttributes.P_VERSION;
+
+/**
+ * {@link RPackagesIndex} unit tests.
+ */
+public class RPackagesIndexTest
+    extends TestSupport
+{
+  static final String BASE_PATH = "/foo/bar";
+
+  RPackagesIndex underTest;
+
+  @Before
+  public void setUp() {
+    underTest = new RPackagesIndex();
+  }
+
+  @Test
+  public void shouldKeepLatestVersionFromLoadedAssets() {
+    underTest.load(BASE_PATH, ImmutableList.of(
+        createAsset("/foo/bar/a-1", "a", "1.0.0"),
+        createAsset("/foo/bar/a-3", "a", "3.0.0"),
+        createAsset("/foo/bar/b-4", "b", "4.0.0"),
+        createAsset("/foo/bar/a-2", "a", "2.0.0")));
+
+    assertThat(underTest.isLoaded(BASE_PATH), is(true));
+    Map<String, Map<String, String>> packageInformation = underTest.newBuilder(BASE_PATH).getPackageInformation();
+    assertThat(packageInformation.keySet(), contains("a", "b"));
+    assertThat(packageInformation.get("a").get(P_VERSION), is("3.0.0"));
+    assertThat(packageInformation.get("b").get(P_VERSION), is("4.0.0"));
+  }
+
+  @Test
+  public void shouldApplyAddedAssets() {
+    underTest.load(BASE_PATH, ImmutableList.of(createAsset("/foo/bar/a-1", "a", "1.0.0")));
+
+    underTest.put(createAsset("/foo/bar/a-2", "a", "2.0.0"));
+    underTest.put(createAsset("/foo/bar/b-1", "b", "1.0.0"));
+
+    Map<String, Map<String, String>> packageInformation = underTest.newBuilder(BASE_PATH).getPackageInformation();
+    assertThat(packageInformation.keySet(), contains("a", "b"));
+    assertThat(packageInformation.get("a").get(P_VERSION), is("2.0.0"));
+  }
+
+  @Test
+  public void shouldFallBackToPreviousVersionWhenLatestDeleted() {
+    Asset latest = createAsset("/foo/bar/a-3", "a", "3.0.0");
+    underTest.load(BASE_PATH, ImmutableList.of(
+        createAsset("/foo/bar/a-1", "a", "1.0.0"),
+        createAsset("/foo/bar/a-2", "a", "2.0.0"),
+        latest));
+
+    underTest.remove(latest);
+
+    Map<String, Map<String, String>> packageInformation = underTest.newBuilder(BASE_PATH).getPackageInformation();
+    assertThat(packageInformation.get("a").get(P_VERSION), is("2.0.0"));
+  }
+
+  @Test
+  public void shouldDropPackageWhenLastVersionDeleted() {
+    Asset asset = createAsset("/foo/bar/a-1", "a", "1.0.0");
+    underTest.load(BASE_PATH, ImmutableList.of(asset, createAsset("/foo/bar/b-1", "b", "1.0.0")));
+
+    underTest.remove(asset);
+
+    Map<String, Map<String, String>> packageInformation = underTest.newBuilder(BASE_PATH).getPackageInformation();
+    assertThat(packageInformation.keySet(), contains("b"));
+  }
+
+  @Test
+  public void shouldRecomputeLatestWhenLatestReplacedWithLowerVersion() {
+    underTest.load(BASE_PATH, ImmutableList.of(
+        createAsset("/foo/bar/a-1", "a", "1.0.0"),
+        createAsset("/foo/bar/a-x", "a", "3.0.0")));
+
+    underTest.put(createAsset("/foo/bar/a-x", "a", "0.5.0"));
+
+    Map<String, Map<String, String>> packageInformation = underTest.newBuilder(BASE_PATH).getPackageInformation();
+    assertThat(packageInformation.get("a").get(P_VERSION), is("1.0.0"));
+  }
+
+  @Test
+  public void shouldIgnoreChangesForUnloadedPaths() {
+    underTest.put(createAsset("/foo/bar/a-1", "a", "1.0.0"));
+
+    assertThat(underTest.isLoaded(BASE_PATH), is(false));
+    assertThat(underTest.newBuilder(BASE_PATH).getPackageInformation().get("a"), is(nullValue()));
+  }
+
+  @Test
+  public void shouldPreferChangesReceivedWhileLoading() {
+    Asset deleted = createAsset("/foo/bar/a-2", "a", "2.0.0");
+    underTest.load(BASE_PATH, () -> {
+      // simulate events arriving while the scan is still in progress
+      underTest.put(createAsset("/foo/bar/b-1", "b", "1.0.0"));
+      underTest.remove(deleted);
+      return ImmutableList.of(createAsset("/foo/bar/a-1", "a", "1.0.0"), deleted).iterator();
+    });
+
+    Map<String, Map<String, String>> packageInformation = underTest.newBuilder(BASE_PATH).getPackageInformation();
+    assertThat(packageInformation.keySet(), contains("a", "b"));
+    assertThat(packageInformation.get("a").get(P_VERSION), is("1.0.0"));
+  }
+
+  @Test
+  public void shouldRequireReloadAfterInvalidation() {
+    underTest.load(BASE_PATH, emptyList());
+
+    underTest.invalidate(BASE_PATH);
+
+    assertThat(underTest.isLoaded(BASE_PATH), is(false));
+  }
+
+  private Asset createAsset(final String assetName,
+                            final String packageName,
+                            final String packageVersion)
+  {
+    NestedAttributesMap formatAttributes = mock(NestedAttributesMap.class);
+    when(formatAttributes.get(P_PACKAGE, String.class)).thenReturn(packageName);
+    when(formatAttributes.get(P_VERSION, String.class)).thenReturn(packageVersion);
+
+    Asset asset = mock(Asset.class);
+    when(asset.formatAttributes()).thenReturn(formatAttributes);
+    when(asset.name()).thenReturn(assetName);
+    return asset;
+  }
+}
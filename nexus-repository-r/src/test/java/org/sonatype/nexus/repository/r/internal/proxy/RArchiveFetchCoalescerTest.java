@@ -0,0 +1,203 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.r.internal.proxy;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+import org.sonatype.nexus.repository.view.Content;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.SharedMetricRegistries;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link RArchiveFetchCoalescer} unit tests.
+ */
+public class RArchiveFetchCoalescerTest
+    extends TestSupport
+{
+  static final String PATH = "src/contrib/example_1.0.0.tar.gz";
+
+  @Mock
+  Content fetched;
+
+  @Mock
+  Content stored;
+
+  RArchiveFetchCoalescer underTest;
+
+  ExecutorService executor;
+
+  Meter coalescedRequests;
+
+  CountDownLatch fetching;
+
+  CountDownLatch release;
+
+  @Before
+  public void setup() {
+    underTest = new RArchiveFetchCoalescer();
+    executor = Executors.newCachedThreadPool();
+    coalescedRequests = SharedMetricRegistries.getOrCreate("nexus")
+        .meter(name(RArchiveFetchCoalescer.class, "coalescedRequests"));
+    fetching = new CountDownLatch(1);
+    release = new CountDownLatch(1);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void concurrentRequestsAreServedFromTheStoredArchive() throws Exception {
+    AtomicInteger gets = new AtomicInteger();
+    Future<Content> first = executor.submit(() -> underTest.get(PATH, () -> {
+      gets.incrementAndGet();
+      fetching.countDown();
+      awaitRelease();
+      return fetched;
+    }));
+    assertThat(fetching.await(5, TimeUnit.SECONDS), is(true));
+
+    long coalesced = coalescedRequests.getCount();
+    Future<Content> second = executor.submit(() -> underTest.get(PATH, () -> {
+      gets.incrementAndGet();
+      return stored;
+    }));
+    awaitCoalesced(coalesced + 1);
+    assertThat(gets.get(), is(1));
+    release.countDown();
+
+    assertThat(first.get(5, TimeUnit.SECONDS), is(sameInstance(fetched)));
+    assertThat(second.get(5, TimeUnit.SECONDS), is(sameInstance(stored)));
+    assertThat(gets.get(), is(2));
+  }
+
+  @Test
+  public void concurrentRequestsForMissingArchiveAreNotRetried() throws Exception {
+    Future<Content> first = executor.submit(() -> underTest.get(PATH, () -> {
+      fetching.countDown();
+      awaitRelease();
+      return null;
+    }));
+    assertThat(fetching.await(5, TimeUnit.SECONDS), is(true));
+
+    long coalesced = coalescedRequests.getCount();
+    Future<Content> second = executor.submit(() -> underTest.get(PATH, () -> {
+      throw new AssertionError("Archive requested again");
+    }));
+    awaitCoalesced(coalesced + 1);
+    release.countDown();
+
+    assertThat(first.get(5, TimeUnit.SECONDS), is(nullValue()));
+    assertThat(second.get(5, TimeUnit.SECONDS), is(nullValue()));
+  }
+
+  @Test
+  public void concurrentRequestsFailWithTheFirstRequest() throws Exception {
+    Future<Content> first = executor.submit(() -> underTest.get(PATH, () -> {
+      fetching.countDown();
+      awaitRelease();
+      throw new IOException("upstream unavailable");
+    }));
+    assertThat(fetching.await(5, TimeUnit.SECONDS), is(true));
+
+    long coalesced = coalescedRequests.getCount();
+    Future<Content> second = executor.submit(() -> underTest.get(PATH, () -> stored));
+    awaitCoalesced(coalesced + 1);
+    release.countDown();
+
+    assertFailsWithIOException(first);
+    assertFailsWithIOException(second);
+  }
+
+  @Test
+  public void concurrentRequestsFailWithTheFirstRequestError() throws Exception {
+    Future<Content> first = executor.submit(() -> underTest.get(PATH, () -> {
+      fetching.countDown();
+      awaitRelease();
+      throw new OutOfMemoryError("simulated");
+    }));
+    assertThat(fetching.await(5, TimeUnit.SECONDS), is(true));
+
+    long coalesced = coalescedRequests.getCount();
+    Future<Content> second = executor.submit(() -> underTest.get(PATH, () -> stored));
+    awaitCoalesced(coalesced + 1);
+    release.countDown();
+
+    assertFailsWith(first, OutOfMemoryError.class);
+    assertFailsWith(second, OutOfMemoryError.class);
+  }
+
+  @Test
+  public void sequentialRequestsAreNotCoalesced() throws Exception {
+    long coalesced = coalescedRequests.getCount();
+
+    assertThat(underTest.get(PATH, () -> fetched), is(sameInstance(fetched)));
+    assertThat(underTest.get(PATH, () -> stored), is(sameInstance(stored)));
+
+    assertThat(coalescedRequests.getCount(), is(coalesced));
+  }
+
+  private void awaitRelease() throws IOException {
+    try {
+      release.await();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    }
+  }
+
+  private void awaitCoalesced(final long count) throws InterruptedException {
+    long start = System.currentTimeMillis();
+    while (coalescedRequests.getCount() < count && System.currentTimeMillis() - start < 5000L) {
+      Thread.sleep(10L);
+    }
+    assertThat(coalescedRequests.getCount() >= count, is(true));
+  }
+
+  private void assertFailsWithIOException(final Future<Content> request) throws Exception {
+    assertFailsWith(request, IOException.class);
+  }
+
+  private void assertFailsWith(final Future<Content> request, final Class<? extends Throwable> type) throws Exception {
+    try {
+      request.get(5, TimeUnit.SECONDS);
+      fail("Expected the request to fail");
+    }
+    catch (ExecutionException e) {
+      assertThat(e.getCause(), is(instanceOf(type)));
+    }
+  }
+}
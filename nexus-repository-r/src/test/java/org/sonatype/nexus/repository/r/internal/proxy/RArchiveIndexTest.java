@@ -0,0 +1,102 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.r.internal.proxy;
+
+import java.io.ByteArrayInputStream;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+import org.sonatype.nexus.repository.cache.CacheController;
+import org.sonatype.nexus.repository.cache.CacheInfo;
+
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.when;
+
+/**
+ * {@link RArchiveIndex} unit tests.
+ */
+public class RArchiveIndexTest
+    extends TestSupport
+{
+  static final String PACKAGES = "Package: dplyr\n" +
+      "Version: 1.0.0\n" +
+      "\n" +
+      "Package: dplyr\n" +
+      "Version: 0.8.5\n" +
+      "\n" +
+      "Package: MASS\n" +
+      "Version: 7.3-51.6\n" +
+      "Path: 4.0.0/Recommended\n";
+
+  @Mock
+  CacheController cacheController;
+
+  CacheInfo cacheInfo = new CacheInfo(DateTime.now(), null);
+
+  RArchiveIndex index;
+
+  @Before
+  public void setUp() throws Exception {
+    index = RArchiveIndex.parse(new ByteArrayInputStream(PACKAGES.getBytes(UTF_8)), cacheInfo);
+    when(cacheController.isStale(any(CacheInfo.class))).thenReturn(false);
+  }
+
+  @Test
+  public void listedVersionsAreNotAbsent() {
+    assertThat(index.size(), is(2));
+    assertThat(index.provesAbsent("src/contrib/dplyr_1.0.0.tar.gz", cacheController), is(false));
+    assertThat(index.provesAbsent("src/contrib/dplyr_0.8.5.tar.gz", cacheController), is(false));
+  }
+
+  @Test
+  public void unlistedVersionsAndPackagesAreAbsent() {
+    assertThat(index.provesAbsent("src/contrib/dplyr_0.8.4.tar.gz", cacheController), is(true));
+    assertThat(index.provesAbsent("src/contrib/dpylr_1.0.0.tar.gz", cacheController), is(true));
+  }
+
+  @Test
+  public void packagesElsewhereAreNotIndexed() {
+    assertThat(index.provesAbsent("src/contrib/MASS_7.3-51.6.tar.gz", cacheController), is(true));
+  }
+
+  @Test
+  public void archivesWithoutCoordinatesAreNeverAbsent() {
+    assertThat(index.provesAbsent("src/contrib/dplyr.tar.gz", cacheController), is(false));
+  }
+
+  @Test
+  public void staleIndexProvesNothing() {
+    when(cacheController.isStale(cacheInfo)).thenReturn(true);
+    assertThat(index.provesAbsent("src/contrib/dplyr_0.8.4.tar.gz", cacheController), is(false));
+  }
+
+  @Test
+  public void indexWithoutCacheInfoProvesNothing() throws Exception {
+    RArchiveIndex unknown = RArchiveIndex.parse(new ByteArrayInputStream(PACKAGES.getBytes(UTF_8)), null);
+    assertThat(unknown.provesAbsent("src/contrib/dplyr_0.8.4.tar.gz", cacheController), is(false));
+  }
+
+  @Test
+  public void verifiedIndexIsFreshAgain() {
+    when(cacheController.isStale(cacheInfo)).thenReturn(true);
+    RArchiveIndex verified = index.withCacheInfo(new CacheInfo(DateTime.now().plusMinutes(1), null));
+    assertThat(verified.provesAbsent("src/contrib/dplyr_0.8.4.tar.gz", cacheController), is(true));
+  }
+}
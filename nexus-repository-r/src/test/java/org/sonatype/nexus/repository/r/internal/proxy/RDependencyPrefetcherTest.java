@@ -0,0 +1,114 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.r.internal.proxy;
+
+import java.io.ByteArrayInputStream;
+import java.util.Map;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+import org.sonatype.nexus.repository.r.internal.proxy.RDependencyPrefetcher.PackageEntry;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Before;
+import org.junit.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.sonatype.nexus.repository.r.internal.proxy.RDependencyPrefetcher.parseDependencies;
+import static org.sonatype.nexus.repository.r.internal.proxy.RDependencyPrefetcher.parseIndex;
+import static org.sonatype.nexus.repository.r.internal.proxy.RDependencyPrefetcher.resolveDependencies;
+
+/**
+ * {@link RDependencyPrefetcher} unit tests.
+ */
+public class RDependencyPrefetcherTest
+    extends TestSupport
+{
+  static final String PACKAGES = "Package: dplyr\n" +
+      "Version: 1.0.0\n" +
+      "Depends: R (>= 3.2.0)\n" +
+      "Imports: ellipsis, generics, glue (>= 1.3.2), lifecycle (>=\n" +
+      "        0.2.0), magrittr (>= 1.5), methods, R6, rlang (>= 0.4.6)\n" +
+      "LinkingTo: BH, plogr (>= 0.2.0), Rcpp (>= 1.0.1)\n" +
+      "\n" +
+      "Package: ellipsis\n" +
+      "Version: 0.3.1\n" +
+      "Depends: R (>= 3.2)\n" +
+      "Imports: rlang (>= 0.3.0)\n" +
+      "\n" +
+      "Package: rlang\n" +
+      "Version: 0.4.6\n" +
+      "Depends: R (>= 3.2.0)\n" +
+      "Imports: utils\n" +
+      "\n" +
+      "Package: glue\n" +
+      "Version: 1.4.1\n" +
+      "Depends: R (>= 3.1)\n" +
+      "Imports: methods\n";
+
+  Map<String, PackageEntry> index;
+
+  @Before
+  public void setup() throws Exception {
+    index = parseIndex(new ByteArrayInputStream(PACKAGES.getBytes(UTF_8)));
+  }
+
+  @Test
+  public void parseIndexWithVersionsAndDependencies() {
+    assertThat(index.keySet(), containsInAnyOrder("dplyr", "ellipsis", "rlang", "glue"));
+    assertThat(index.get("glue").version, is("1.4.1"));
+    assertThat(index.get("ellipsis").dependencies, contains("rlang"));
+  }
+
+  @Test
+  public void parseIndexSkippingPackagesWhoseArchivesAreElsewhere() throws Exception {
+    Map<String, PackageEntry> index = parseIndex(new ByteArrayInputStream((PACKAGES + "\n" +
+        "Package: glue\n" +
+        "Version: 1.3.0\n" +
+        "Path: 4.0.0/Recommended\n").getBytes(UTF_8)));
+
+    assertThat(index.keySet(), containsInAnyOrder("dplyr", "ellipsis", "rlang", "glue"));
+    assertThat(index.get("glue").version, is("1.4.1"));
+  }
+
+  @Test
+  public void parseDependenciesWithoutRequirementsAndBasePackages() {
+    assertThat(parseDependencies(ImmutableMap.of(
+        "Depends", "R (>= 3.2.0), stats",
+        "Imports", "ellipsis, glue (>= 1.3.2), lifecycle (>=\n 0.2.0), methods",
+        "LinkingTo", "Rcpp (>= 1.0.1), glue",
+        "Suggests", "testthat")),
+        contains("ellipsis", "glue", "lifecycle", "Rcpp"));
+  }
+
+  @Test
+  public void resolveDirectDependenciesListedInIndex() {
+    assertThat(resolveDependencies(index, "dplyr", 1), contains("ellipsis", "glue", "rlang"));
+  }
+
+  @Test
+  public void resolveDependenciesUpToDepth() {
+    assertThat(resolveDependencies(index, "ellipsis", 1), contains("rlang"));
+    assertThat(resolveDependencies(index, "ellipsis", 2), contains("rlang"));
+    assertThat(resolveDependencies(index, "rlang", 3), is(empty()));
+  }
+
+  @Test
+  public void resolveNothingForUnknownPackage() {
+    assertThat(resolveDependencies(index, "tidyverse", 2), is(empty()));
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.r.internal.proxy;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.SharedMetricRegistries;
+import org.apache.shiro.mgt.DefaultSecurityManager;
+import org.apache.shiro.subject.Subject;
+import org.apache.shiro.util.ThreadContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * {@link RDescriptionExtractionQueue} unit tests.
+ */
+public class RDescriptionExtractionQueueTest
+    extends TestSupport
+{
+  static final String PATH = "src/contrib/example_1.0.0.tar.gz";
+
+  static final String QUEUE_DEPTH = name(RDescriptionExtractionQueue.class, "queueDepth");
+
+  RDescriptionExtractionQueue underTest;
+
+  @Before
+  public void setup() throws Exception {
+    ThreadContext.bind(new Subject.Builder(new DefaultSecurityManager()).buildSubject());
+    underTest = new RDescriptionExtractionQueue(1, 1);
+    underTest.start();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    underTest.stop();
+    ThreadContext.unbindSubject();
+  }
+
+  @Test
+  public void extractionsQueueBehindRunningOne() throws Exception {
+    CountDownLatch running = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch completed = new CountDownLatch(2);
+    underTest.submit(PATH, () -> {
+      running.countDown();
+      await(release);
+      completed.countDown();
+    });
+    assertThat(running.await(5, TimeUnit.SECONDS), is(true));
+    underTest.submit(PATH, completed::countDown);
+
+    assertThat(underTest.getQueueDepth(), is(1));
+    assertThat(queueDepthGauge().getValue(), is(1));
+
+    release.countDown();
+    assertThat(completed.await(5, TimeUnit.SECONDS), is(true));
+    assertThat(underTest.getQueueDepth(), is(0));
+  }
+
+  @Test
+  public void extractionsAreDroppedWhenTheQueueIsFull() throws Exception {
+    CountDownLatch running = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch completed = new CountDownLatch(2);
+    AtomicBoolean dropped = new AtomicBoolean(true);
+    underTest.submit(PATH, () -> {
+      running.countDown();
+      await(release);
+      completed.countDown();
+    });
+    assertThat(running.await(5, TimeUnit.SECONDS), is(true));
+    underTest.submit(PATH, completed::countDown);
+    underTest.submit(PATH, () -> dropped.set(false));
+
+    assertThat(underTest.getQueueDepth(), is(1));
+
+    release.countDown();
+    assertThat(completed.await(5, TimeUnit.SECONDS), is(true));
+    // extractions run in order, so a dropped extraction would have run before this one
+    CountDownLatch last = new CountDownLatch(1);
+    underTest.submit(PATH, last::countDown);
+    assertThat(last.await(5, TimeUnit.SECONDS), is(true));
+    assertThat(dropped.get(), is(true));
+  }
+
+  @Test
+  public void failedExtractionDoesNotStopTheQueue() throws Exception {
+    CountDownLatch completed = new CountDownLatch(1);
+    underTest.submit(PATH, () -> {
+      throw new IllegalStateException("No DESCRIPTION file found in archive");
+    });
+    underTest.submit(PATH, completed::countDown);
+
+    assertThat(completed.await(5, TimeUnit.SECONDS), is(true));
+  }
+
+  @Test
+  public void gaugeIsRemovedWhenStopped() throws Exception {
+    underTest.stop();
+
+    assertThat(SharedMetricRegistries.getOrCreate("nexus").getGauges().get(QUEUE_DEPTH), is(nullValue()));
+
+    underTest = new RDescriptionExtractionQueue(1, 1);
+    underTest.start();
+  }
+
+  @SuppressWarnings("unchecked")
+  private Gauge<Integer> queueDepthGauge() {
+    return (Gauge<Integer>) SharedMetricRegistries.getOrCreate("nexus").getGauges().get(QUEUE_DEPTH);
+  }
+
+  private static void await(final CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
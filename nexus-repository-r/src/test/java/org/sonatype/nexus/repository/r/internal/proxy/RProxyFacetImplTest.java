@@ -12,14 +12,388 @@
  */
 package org.sonatype.nexus.repository.r.internal.proxy;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.sonatype.nexus.blobstore.api.BlobRef;
+import org.sonatype.nexus.common.entity.EntityId;
+import org.sonatype.nexus.repository.r.RFacet;
+import org.sonatype.nexus.repository.r.internal.AssetKind;
+import org.sonatype.nexus.repository.r.internal.RDownloadRecorder;
+import org.sonatype.nexus.repository.r.internal.RStreamExecutor;
 import org.sonatype.nexus.repository.r.internal.RepositoryFacetTestSupport;
-import org.sonatype.nexus.repository.r.internal.proxy.RProxyFacetImpl;
+import org.sonatype.nexus.repository.storage.Component;
+import org.sonatype.nexus.repository.storage.Query;
+import org.sonatype.nexus.repository.storage.TempBlob;
+import org.sonatype.nexus.repository.view.Content;
+import org.sonatype.nexus.repository.view.Context;
+import org.sonatype.nexus.repository.view.Request;
+import org.sonatype.nexus.repository.view.payloads.BytesPayload;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import org.apache.shiro.mgt.DefaultSecurityManager;
+import org.apache.shiro.subject.Subject;
+import org.apache.shiro.util.ThreadContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.sonatype.nexus.repository.http.HttpMethods.GET;
+import static org.sonatype.nexus.repository.r.internal.AssetKind.ARCHIVE;
+import static org.sonatype.nexus.repository.r.internal.RAttributes.P_PACKAGE;
+import static org.sonatype.nexus.repository.r.internal.RAttributes.P_VERSION;
 
+/**
+ * {@link RProxyFacetImpl} unit tests.
+ */
 public class RProxyFacetImplTest
     extends RepositoryFacetTestSupport<RProxyFacetImpl>
 {
+  static final String PATH = "src/contrib/RPostgreSQL_0.4-1.tar.gz";
+
+  @Mock
+  RFacet rFacet;
+
+  @Mock
+  RDescriptionExtractionQueue descriptionQueue;
+
+  @Mock
+  RDependencyPrefetcher dependencyPrefetcher;
+
+  @Mock
+  TempBlob tempBlob;
+
+  @Mock
+  Content stored;
+
+  static final String ARCHIVE_RESOURCE = "/org/sonatype/nexus/repository/r/internal/r-package.tar.gz";
+
+  byte[] archive;
+
+  RStreamExecutor streamExecutor;
+
+  ExecutorService executor;
+
   @Override
-  protected RProxyFacetImpl initialiseSystemUnderTest() {
-    return null;
+  protected RProxyFacetImpl initialiseSystemUnderTest() throws Exception {
+    streamExecutor = new RStreamExecutor(8);
+    streamExecutor.start();
+    return newFacet(false, false, streamExecutor);
+  }
+
+  @Before
+  public void setup() throws Exception {
+    try (InputStream in = getClass().getResourceAsStream(ARCHIVE_RESOURCE)) {
+      archive = ByteStreams.toByteArray(in);
+    }
+    executor = Executors.newCachedThreadPool();
+    ThreadContext.bind(new Subject.Builder(new DefaultSecurityManager()).buildSubject());
+    when(repository.facet(RFacet.class)).thenReturn(rFacet);
+    when(storageFacet.txSupplier()).thenReturn(() -> storageTx);
+    when(storageFacet.createTempBlob(any(InputStream.class), any())).thenAnswer(invocation -> {
+      ByteStreams.exhaust((InputStream) invocation.getArguments()[0]);
+      return tempBlob;
+    });
+    when(rFacet.findAsset(any(), eq(PATH))).thenReturn(asset);
+    when(asset.requireBlobRef()).thenReturn(new BlobRef("node", "store", "blob"));
+    when(blob.getInputStream()).thenAnswer(invocation -> new ByteArrayInputStream(archive));
+  }
+
+  @After
+  public void stopExecutors() throws Exception {
+    ThreadContext.unbindSubject();
+    executor.shutdownNow();
+    streamExecutor.stop();
+  }
+
+  @Test
+  public void streamArchiveToClientWhileStoringIt() throws Exception {
+    RProxyFacetImpl underTest = facet(true, false, streamExecutor);
+    storeWith(underTest);
+
+    Content streamed = underTest.store(context(), upstream());
+
+    assertThat(read(streamed), is(equalTo(archive)));
+    Map<String, String> attributes = storedAttributes(underTest);
+    assertThat(attributes.get(P_PACKAGE), is("RPostgreSQL"));
+    assertThat(attributes.get(P_VERSION), is("0.4-1"));
+    verify(dependencyPrefetcher).prefetch(repository, PATH);
+  }
+
+  @Test
+  public void readStreamedArchiveAgainFromTheStore() throws Exception {
+    RProxyFacetImpl underTest = facet(true, false, streamExecutor);
+    storeWith(underTest);
+
+    Content streamed = underTest.store(context(), upstream());
+
+    assertThat(read(streamed), is(equalTo(archive)));
+    assertThat(read(streamed), is(equalTo(archive)));
+    verify(blob).getInputStream();
+  }
+
+  @Test
+  public void failToReadStreamedArchiveAgainWhenItWasNotStored() throws Exception {
+    RProxyFacetImpl underTest = facet(true, false, streamExecutor);
+    doThrow(new IOException("store failed")).when(underTest)
+        .doPutArchive(anyString(), any(TempBlob.class), any(Content.class), anyMapOf(String.class, String.class));
+
+    Content streamed = underTest.store(context(), upstream());
+
+    assertThat(read(streamed), is(equalTo(archive)));
+    try {
+      read(streamed);
+      fail("Expected the archive not to be stored");
+    }
+    catch (IOException e) {
+      assertThat(e.getCause().getMessage(), is("store failed"));
+    }
+  }
+
+  @Test
+  public void storeArchiveBeforeServingItWhenNoThreadIsAvailable() throws Exception {
+    RStreamExecutor busyExecutor = new RStreamExecutor(1);
+    busyExecutor.start();
+    CountDownLatch release = new CountDownLatch(1);
+    try {
+      busyExecutor.submit(() -> release.await());
+      RProxyFacetImpl underTest = facet(true, false, busyExecutor);
+      doReturn(stored).when(underTest).doPutArchive(anyString(), any(TempBlob.class), any(Content.class));
+
+      assertThat(underTest.store(context(), upstream()), is(sameInstance(stored)));
+      verify(underTest).doPutArchive(eq(PATH), any(TempBlob.class), any(Content.class));
+    }
+    finally {
+      release.countDown();
+      busyExecutor.stop();
+    }
+  }
+
+  @Test
+  public void storeArchiveBeforeReadingItsDescription() throws Exception {
+    RProxyFacetImpl underTest = facet(false, true, streamExecutor);
+    storeWith(underTest);
+
+    assertThat(underTest.store(context(), upstream()), is(sameInstance(stored)));
+
+    Map<String, String> attributes = storedAttributes(underTest);
+    assertThat(attributes.get(P_PACKAGE), is("RPostgreSQL"));
+    assertThat(attributes.get(P_VERSION), is("0.4-1"));
+    assertThat(attributes.containsKey("Title"), is(false));
+    verify(descriptionQueue).submit(eq(PATH), any(Runnable.class));
+  }
+
+  @Test
+  public void completeArchiveWithItsDescriptionLater() throws Exception {
+    RProxyFacetImpl underTest = facet(false, true, streamExecutor);
+    storeWith(underTest);
+    doReturn(blob).when(underTest).getArchiveBlob(PATH);
+    doNothing().when(underTest).updateArchive(anyString(), anyMapOf(String.class, String.class));
+    underTest.store(context(), upstream());
+    ArgumentCaptor<Runnable> extraction = ArgumentCaptor.forClass(Runnable.class);
+    verify(descriptionQueue).submit(eq(PATH), extraction.capture());
+
+    // the queue runs extractions on its own threads, outside of the request's unit of work
+    executor.submit(extraction.getValue()).get(5, TimeUnit.SECONDS);
+
+    @SuppressWarnings("unchecked")
+    ArgumentCaptor<Map<String, String>> attributes = ArgumentCaptor.forClass((Class) Map.class);
+    verify(underTest).updateArchive(eq(PATH), attributes.capture());
+    assertThat(attributes.getValue().get(P_PACKAGE), is("RPostgreSQL"));
+    assertThat(attributes.getValue().get("Title"), is("R interface to the PostgreSQL database system"));
+  }
+
+  @Test
+  public void renameComponentAccordingToDescription() throws Exception {
+    Component component = component("RPostgreSQL", "0.4");
+    when(storageTx.findComponents(any(Query.class), any())).thenReturn(emptyList());
+
+    underTest.updateArchive(PATH, ImmutableMap.of(P_PACKAGE, "RPostgreSQL", P_VERSION, "0.4-1"));
+
+    verify(component).version("0.4-1");
+    verify(storageTx).saveComponent(component);
+  }
+
+  @Test
+  public void keepComponentWhenDescriptionMatchesAnotherComponent() throws Exception {
+    Component component = component("RPostgreSQL", "0.4");
+    when(storageTx.findComponents(any(Query.class), any())).thenReturn(singletonList(mock(Component.class)));
+
+    underTest.updateArchive(PATH, ImmutableMap.of(P_PACKAGE, "RPostgreSQL", P_VERSION, "0.4-1"));
+
+    verify(component, never()).version(anyString());
+    verify(storageTx, never()).saveComponent(any(Component.class));
+    verify(formatAttributes).set("Version", "0.4-1");
+  }
+
+  @Test
+  public void fetchArchiveOnceForConcurrentRequests() throws Exception {
+    RProxyFacetImpl underTest = facet(false, false, streamExecutor);
+    Content fetched = new Content(new BytesPayload(archive, "application/x-gzip"));
+    CountDownLatch fetching = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger gets = new AtomicInteger();
+    doAnswer(invocation -> {
+      if (gets.incrementAndGet() == 1) {
+        fetching.countDown();
+        release.await(5, TimeUnit.SECONDS);
+        return fetched;
+      }
+      return stored;
+    }).when(underTest).getThroughProxy(any(Context.class));
+    Meter coalescedRequests = SharedMetricRegistries.getOrCreate("nexus")
+        .meter(name(RArchiveFetchCoalescer.class, "coalescedRequests"));
+
+    Future<Content> first = executor.submit(() -> underTest.get(context()));
+    assertThat(fetching.await(5, TimeUnit.SECONDS), is(true));
+    long coalesced = coalescedRequests.getCount();
+    Future<Content> second = executor.submit(() -> underTest.get(context()));
+    awaitCount(coalescedRequests, coalesced + 1);
+    assertThat(gets.get(), is(1));
+    release.countDown();
+
+    assertThat(first.get(5, TimeUnit.SECONDS), is(sameInstance(fetched)));
+    assertThat(second.get(5, TimeUnit.SECONDS), is(sameInstance(stored)));
+    verify(underTest, times(2)).getThroughProxy(any(Context.class));
+  }
+
+  @Test
+  public void concurrentRequestsFailWhenTheFetchFails() throws Exception {
+    RProxyFacetImpl underTest = facet(false, false, streamExecutor);
+    CountDownLatch fetching = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    doAnswer(invocation -> {
+      fetching.countDown();
+      release.await(5, TimeUnit.SECONDS);
+      throw new IOException("upstream unavailable");
+    }).when(underTest).getThroughProxy(any(Context.class));
+    Meter coalescedRequests = SharedMetricRegistries.getOrCreate("nexus")
+        .meter(name(RArchiveFetchCoalescer.class, "coalescedRequests"));
+
+    Future<Content> first = executor.submit(() -> underTest.get(context()));
+    assertThat(fetching.await(5, TimeUnit.SECONDS), is(true));
+    long coalesced = coalescedRequests.getCount();
+    Future<Content> second = executor.submit(() -> underTest.get(context()));
+    awaitCount(coalescedRequests, coalesced + 1);
+    release.countDown();
+
+    assertFailsWithIOException(first);
+    assertFailsWithIOException(second);
+    verify(underTest, times(1)).getThroughProxy(any(Context.class));
+  }
+
+  private RProxyFacetImpl facet(final boolean passThroughArchives,
+                                final boolean asyncDescription,
+                                final RStreamExecutor executor) throws Exception
+  {
+    RProxyFacetImpl facet = newFacet(passThroughArchives, asyncDescription, executor);
+    facet.attach(repository);
+    return facet;
+  }
+
+  private RProxyFacetImpl newFacet(final boolean passThroughArchives,
+                                   final boolean asyncDescription,
+                                   final RStreamExecutor executor)
+  {
+    return spy(new RProxyFacetImpl(new RDownloadRecorder(0), executor, true, passThroughArchives, 5000L,
+        descriptionQueue, asyncDescription, dependencyPrefetcher, false));
+  }
+
+  private void storeWith(final RProxyFacetImpl facet) throws IOException {
+    doReturn(stored).when(facet)
+        .doPutArchive(anyString(), any(TempBlob.class), any(Content.class), anyMapOf(String.class, String.class));
+  }
+
+  private Map<String, String> storedAttributes(final RProxyFacetImpl facet) throws IOException {
+    @SuppressWarnings("unchecked")
+    ArgumentCaptor<Map<String, String>> attributes = ArgumentCaptor.forClass((Class) Map.class);
+    verify(facet, timeout(5000)).doPutArchive(eq(PATH), any(TempBlob.class), any(Content.class), attributes.capture());
+    verify(facet, never()).doPutArchive(anyString(), any(TempBlob.class), any(Content.class));
+    return attributes.getValue();
+  }
+
+  private Component component(final String name, final String version) {
+    EntityId componentId = mock(EntityId.class);
+    Component component = mock(Component.class);
+    when(asset.componentId()).thenReturn(componentId);
+    when(storageTx.findComponentInBucket(componentId, bucket)).thenReturn(component);
+    when(component.name()).thenReturn(name);
+    when(component.version()).thenReturn(version);
+    when(component.group()).thenReturn("src/contrib");
+    when(component.name(anyString())).thenReturn(component);
+    when(component.version(anyString())).thenReturn(component);
+    return component;
+  }
+
+  private Context context() {
+    Context context = new Context(repository, new Request.Builder().action(GET).path("/" + PATH).build());
+    context.getAttributes().set(AssetKind.class, ARCHIVE);
+    return context;
+  }
+
+  private Content upstream() {
+    return new Content(new BytesPayload(archive, "application/x-gzip"));
+  }
+
+  private static byte[] read(final Content content) throws IOException {
+    try (InputStream in = content.openInputStream()) {
+      return ByteStreams.toByteArray(in);
+    }
+  }
+
+  private static void awaitCount(final Meter meter, final long count) throws InterruptedException {
+    long start = System.currentTimeMillis();
+    while (meter.getCount() < count && System.currentTimeMillis() - start < 5000L) {
+      Thread.sleep(10L);
+    }
+    assertThat(meter.getCount() >= count, is(true));
+  }
+
+  private static void assertFailsWithIOException(final Future<Content> request) throws Exception {
+    try {
+      request.get(5, TimeUnit.SECONDS);
+      fail("Expected the request to fail");
+    }
+    catch (ExecutionException e) {
+      assertThat(e.getCause(), is(instanceOf(IOException.class)));
+    }
   }
 }
@@ -0,0 +1,238 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.r.internal.proxy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.GZIPOutputStream;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+import org.sonatype.nexus.common.collect.NestedAttributesMap;
+import org.sonatype.nexus.repository.Repository;
+import org.sonatype.nexus.repository.proxy.ProxyFacet;
+import org.sonatype.nexus.repository.storage.Asset;
+import org.sonatype.nexus.repository.storage.Bucket;
+import org.sonatype.nexus.repository.storage.Query;
+import org.sonatype.nexus.repository.storage.StorageFacet;
+import org.sonatype.nexus.repository.storage.StorageTx;
+import org.sonatype.nexus.repository.view.Content;
+import org.sonatype.nexus.repository.view.Context;
+import org.sonatype.nexus.repository.view.payloads.BytesPayload;
+import org.sonatype.nexus.scheduling.TaskConfiguration;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.shiro.mgt.DefaultSecurityManager;
+import org.apache.shiro.subject.Subject;
+import org.apache.shiro.util.ThreadContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.sonatype.nexus.repository.r.internal.AssetKind.ARCHIVE;
+import static org.sonatype.nexus.repository.r.internal.proxy.RProxyMirrorTask.PARALLELISM_FIELD_ID;
+import static org.sonatype.nexus.repository.r.internal.proxy.RProxyMirrorTask.PATHS_FIELD_ID;
+import static org.sonatype.nexus.repository.r.internal.proxy.RProxyMirrorTask.getArchiveExtension;
+import static org.sonatype.nexus.repository.storage.AssetEntityAdapter.P_ASSET_KIND;
+
+/**
+ * {@link RProxyMirrorTask} unit tests.
+ */
+public class RProxyMirrorTaskTest
+    extends TestSupport
+{
+  static final String PACKAGES = "Package: dplyr\n" +
+      "Version: 1.0.0\n" +
+      "Imports: rlang (>= 0.4.6)\n" +
+      "\n" +
+      "Package: rlang\n" +
+      "Version: 0.4.6\n" +
+      "\n" +
+      "Package: glue\n" +
+      "Version: 1.4.1\n";
+
+  static final String PACKAGES_PATH = "/src/contrib/PACKAGES.gz";
+
+  @Mock
+  Repository repository;
+
+  @Mock
+  StorageFacet storageFacet;
+
+  @Mock
+  StorageTx storageTx;
+
+  @Mock
+  ProxyFacet proxyFacet;
+
+  @Mock
+  Bucket bucket;
+
+  @Mock
+  Asset storedArchive;
+
+  @Mock
+  NestedAttributesMap formatAttributes;
+
+  Collection<String> requestedPaths;
+
+  RProxyMirrorTask underTest;
+
+  @Before
+  public void setup() throws Exception {
+    when(repository.getName()).thenReturn("r-proxy");
+    when(repository.facet(StorageFacet.class)).thenReturn(storageFacet);
+    when(repository.facet(ProxyFacet.class)).thenReturn(proxyFacet);
+    when(storageFacet.txSupplier()).thenReturn(() -> storageTx);
+    when(storageTx.findBucket(repository)).thenReturn(bucket);
+    when(storageTx.browseAssets(any(Query.class), eq(bucket))).thenReturn(ImmutableList.of(storedArchive));
+    when(storedArchive.name()).thenReturn("src/contrib/rlang_0.4.6.tar.gz");
+    when(storedArchive.formatAttributes()).thenReturn(formatAttributes);
+    when(formatAttributes.get(P_ASSET_KIND, String.class)).thenReturn(ARCHIVE.name());
+
+    requestedPaths = new ConcurrentLinkedQueue<>();
+    respondWith(PACKAGES_PATH, content(gzip(PACKAGES)));
+
+    TaskConfiguration configuration = new TaskConfiguration();
+    configuration.setId("r-mirror");
+    configuration.setTypeId(RProxyMirrorTaskDescriptor.TYPE_ID);
+    configuration.setString(PATHS_FIELD_ID, "src/contrib");
+    configuration.setInteger(PARALLELISM_FIELD_ID, 2);
+    underTest = new RProxyMirrorTask();
+    underTest.configure(configuration);
+
+    ThreadContext.bind(new Subject.Builder(new DefaultSecurityManager()).buildSubject());
+  }
+
+  @After
+  public void tearDown() {
+    ThreadContext.unbindSubject();
+  }
+
+  @Test
+  public void fetchArchivesListedUpstreamButNotStored() throws Exception {
+    underTest.execute(repository);
+
+    assertThat(requestedPaths, containsInAnyOrder(PACKAGES_PATH,
+        "/src/contrib/dplyr_1.0.0.tar.gz", "/src/contrib/glue_1.4.1.tar.gz"));
+  }
+
+  @Test
+  public void skipPackagesWhoseArchivesAreElsewhere() throws Exception {
+    respondWith(PACKAGES_PATH, content(gzip(PACKAGES + "\n" +
+        "Package: glue\n" +
+        "Version: 1.3.0\n" +
+        "Path: 4.0.0/Recommended\n" +
+        "\n" +
+        "Package: MASS\n" +
+        "Version: 7.3-51.6\n" +
+        "Path: 4.0.0/Recommended\n")));
+
+    underTest.execute(repository);
+
+    assertThat(requestedPaths, containsInAnyOrder(PACKAGES_PATH,
+        "/src/contrib/dplyr_1.0.0.tar.gz", "/src/contrib/glue_1.4.1.tar.gz"));
+  }
+
+  @Test
+  public void continueAfterFailedArchiveFetch() throws Exception {
+    when(proxyFacet.get(any(Context.class))).thenAnswer(invocation -> {
+      String path = ((Context) invocation.getArguments()[0]).getRequest().getPath();
+      requestedPaths.add(path);
+      if (PACKAGES_PATH.equals(path)) {
+        return content(gzip(PACKAGES));
+      }
+      if (path.contains("dplyr")) {
+        throw new IOException("upstream unavailable");
+      }
+      return content(new byte[16]);
+    });
+
+    underTest.execute(repository);
+
+    assertThat(requestedPaths, containsInAnyOrder(PACKAGES_PATH,
+        "/src/contrib/dplyr_1.0.0.tar.gz", "/src/contrib/glue_1.4.1.tar.gz"));
+  }
+
+  @Test
+  public void skipPathWithoutUpstreamIndex() throws Exception {
+    respondWith(PACKAGES_PATH, null);
+
+    underTest.execute(repository);
+
+    assertThat(requestedPaths, containsInAnyOrder(PACKAGES_PATH));
+    verify(storageTx, never()).browseAssets(any(Query.class), any(Bucket.class));
+  }
+
+  @Test(expected = UncheckedIOException.class)
+  public void failWhenUpstreamIndexCannotBeFetched() throws Exception {
+    when(proxyFacet.get(any(Context.class))).thenThrow(new IOException("upstream unavailable"));
+
+    underTest.execute(repository);
+  }
+
+  @Test
+  public void fetchNothingWhenEverythingIsStored() throws Exception {
+    respondWith(PACKAGES_PATH, content(gzip("Package: rlang\nVersion: 0.4.6\n")));
+
+    underTest.execute(repository);
+
+    assertThat(requestedPaths, containsInAnyOrder(PACKAGES_PATH));
+  }
+
+  @Test
+  public void archiveExtensionFollowsCranLayout() {
+    assertThat(getArchiveExtension("src/contrib"), is(".tar.gz"));
+    assertThat(getArchiveExtension("bin/windows/contrib/4.0"), is(".zip"));
+    assertThat(getArchiveExtension("bin/macosx/contrib/4.0"), is(".tgz"));
+    assertThat(getArchiveExtension("bin/macosx/el-capitan/contrib/3.6"), is(".tgz"));
+  }
+
+  /**
+   * Answers the index request with the specified content and every archive request with some bytes, recording the
+   * requested paths.
+   */
+  private void respondWith(final String indexPath, final Content index) throws Exception {
+    when(proxyFacet.get(any(Context.class))).thenAnswer(invocation -> {
+      Context context = (Context) invocation.getArguments()[0];
+      assertThat(RProxyRequests.isBackground(context), is(true));
+      String path = context.getRequest().getPath();
+      requestedPaths.add(path);
+      return indexPath.equals(path) ? index : content(new byte[16]);
+    });
+  }
+
+  private static Content content(final byte[] bytes) {
+    return new Content(new BytesPayload(bytes, "application/x-gzip"));
+  }
+
+  private static byte[] gzip(final String text) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+      gz.write(text.getBytes(UTF_8));
+    }
+    return out.toByteArray();
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.r.internal.util
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import static java.nio.charset.StandardCharsets.UTF_8
+
+/**
+ * {@link RDcfParser} unit tests.
+ */
+class RDcfParserTest
+    extends Specification
+{
+  @Unroll
+  def 'Parse fields and continuation lines with #description line endings'() {
+    given:
+      def content = 'Package: foo\nDescription: First line\n    second line\n\tthird line\nVersion: 1.0-2\n'.
+          replace('\n', eol)
+    when:
+      def stanza = RDcfParser.parseStanza(stream(content))
+    then:
+      stanza == [
+          'Package'    : 'foo',
+          'Description': 'First line\n    second line\n\tthird line',
+          'Version'    : '1.0-2'
+      ]
+      stanza.keySet() as List == ['Package', 'Description', 'Version']
+    where:
+      description | eol
+      'LF'        | '\n'
+      'CRLF'      | '\r\n'
+      'CR'        | '\r'
+  }
+
+  def 'Parse every stanza separated by blank lines'() {
+    when:
+      def stanzas = RDcfParser.parseStanzas(
+          stream('\n\nPackage: a\nVersion: 1\n\n  \nPackage: b\nVersion: 2\n\t\nPackage: c\nVersion: 3'))
+    then:
+      stanzas == [
+          ['Package': 'a', 'Version': '1'],
+          ['Package': 'b', 'Version': '2'],
+          ['Package': 'c', 'Version': '3']
+      ]
+  }
+
+  def 'Return null once the input is exhausted'() {
+    given:
+      def parser = new RDcfParser(stream('Package: a\n\n\n'))
+    expect:
+      parser.next() == ['Package': 'a']
+      parser.next() == null
+      parser.next() == null
+  }
+
+  def 'Parse an empty input as an empty stanza'() {
+    expect:
+      RDcfParser.parseStanza(stream('')).isEmpty()
+      RDcfParser.parseStanzas(stream('\n\n')).isEmpty()
+  }
+
+  def 'Keep the last value of a repeated field in the position of the first'() {
+    when:
+      def stanza = RDcfParser.parseStanza(stream('Package: a\nVersion: 1\nPackage: b\n  continued\n'))
+    then:
+      stanza == ['Package': 'b\n  continued', 'Version': '1']
+      stanza.keySet() as List == ['Package', 'Version']
+  }
+
+  def 'Trim names and leading whitespace of values'() {
+    when:
+      def stanza = RDcfParser.parseStanza(stream('Title :   spaced  \nEmpty:\nDescription:\n  starts on next line\n'))
+    then:
+      stanza == ['Title': 'spaced  ', 'Empty': '', 'Description': 'starts on next line']
+  }
+
+  def 'Ignore lines that are neither fields nor continuations'() {
+    when:
+      def stanza = RDcfParser.parseStanza(stream('  orphan continuation\nPackage: a\nnot a field\n  orphan\nVersion: 1\n'))
+    then:
+      stanza == ['Package': 'a', 'Version': '1']
+  }
+
+  def 'Decode values as UTF-8'() {
+    when:
+      def stanza = RDcfParser.parseStanza(stream('Author: José Pérez\nTítulo: x\n'))
+    then:
+      stanza['Author'] == 'José Pérez'
+      stanza['Título'] == 'x'
+      !stanza.containsKey('Titulo')
+  }
+
+  def 'Parse stanzas larger than the read buffer'() {
+    given:
+      def longValue = (1..2000).collect { "line $it" }.join('\n  ')
+    when:
+      def stanzas = RDcfParser.parseStanzas(stream("Package: a\nDescription: $longValue\n\nPackage: b\n"))
+    then:
+      stanzas == [['Package': 'a', 'Description': longValue], ['Package': 'b']]
+  }
+
+  def 'Parse every stanza of a PACKAGES file'() {
+    when:
+      List<Map<String, String>> stanzas = getClass().getResourceAsStream('/org/sonatype/nexus/repository/r/internal/PACKAGES').
+          withCloseable { input -> RDcfParser.parseStanzas(input) }
+    then:
+      !stanzas.isEmpty()
+      stanzas.every { it.containsKey('Package') && it.containsKey('Version') }
+  }
+
+  def 'Stanzas are unmodifiable'() {
+    given:
+      def stanza = RDcfParser.parseStanza(stream('Package: a\n'))
+    when:
+      stanza.put('Version', '1')
+    then:
+      thrown(UnsupportedOperationException)
+  }
+
+  private static InputStream stream(String content) {
+    new ByteArrayInputStream(content.getBytes(UTF_8))
+  }
+}
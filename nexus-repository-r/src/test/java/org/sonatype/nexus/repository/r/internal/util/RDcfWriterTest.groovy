@@ -0,0 +1,82 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.r.internal.util
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import static java.nio.charset.StandardCharsets.UTF_8
+
+/**
+ * {@link RDcfWriter} unit tests.
+ */
+class RDcfWriterTest
+    extends Specification
+{
+  ByteArrayOutputStream out = new ByteArrayOutputStream()
+
+  RDcfWriter writer = new RDcfWriter(out)
+
+  def 'Write stanzas in field order skipping missing fields'() {
+    when:
+      writer.writeStanza([Version: '1.0', Package: 'a', Other: 'x'], ['Package', 'Version', 'License'])
+      writer.writeStanza([Package: 'b'], ['Package', 'Version'])
+      writer.flush()
+    then:
+      written() == 'Package: a\nVersion: 1.0\n\nPackage: b\n\n'
+  }
+
+  def 'Skip fields with null values'() {
+    when:
+      writer.writeField('Package', 'a').writeField('Version', null).endStanza().flush()
+    then:
+      written() == 'Package: a\n\n'
+  }
+
+  @Unroll
+  def 'Fold #description'() {
+    when:
+      writer.writeField('Depends', value).flush()
+    then:
+      written() == expected
+    where:
+      description                     | value                 | expected
+      'indented continuation lines'   | 'a,\n    b,\n\tc'     | 'Depends: a,\n    b,\n\tc\n'
+      'unindented continuation lines' | 'a,\nb'               | 'Depends: a,\n b\n'
+      'CR and CRLF line endings'      | 'a,\r\n  b,\r  c'     | 'Depends: a,\n  b,\n  c\n'
+      'blank lines'                   | 'a\n\n  \nb'          | 'Depends: a\n .\n .\n b\n'
+      'trailing line breaks'          | 'a \n  \r\n'          | 'Depends: a \n'
+  }
+
+  def 'Encode values as UTF-8'() {
+    given:
+      String value = 'José Pérez € 😀'
+    when:
+      writer.writeField('Author', value).flush()
+    then:
+      out.toByteArray() == "Author: $value\n".getBytes(UTF_8)
+  }
+
+  def 'Write values larger than the buffer'() {
+    given:
+      String value = (1..5000).collect { "line $it" }.join('\n  ')
+    when:
+      writer.writeField('Description', value).endStanza().flush()
+    then:
+      RDcfParser.parseStanza(new ByteArrayInputStream(out.toByteArray())) == [Description: value]
+  }
+
+  private String written() {
+    new String(out.toByteArray(), UTF_8)
+  }
+}
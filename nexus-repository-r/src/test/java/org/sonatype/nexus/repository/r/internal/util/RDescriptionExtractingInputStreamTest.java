@@ -0,0 +1,148 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.r.internal.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+import org.sonatype.goodies.testsupport.junit.TestDataRule;
+import org.sonatype.nexus.repository.r.internal.RStreamExecutor;
+
+import com.google.common.io.ByteStreams;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static java.lang.System.getProperty;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.IsNull.nullValue;
+
+/**
+ * {@link RDescriptionExtractingInputStream} unit tests.
+ */
+public class RDescriptionExtractingInputStreamTest
+    extends TestSupport
+{
+  Path path = Paths.get(new File(getProperty("basedir", "")).getAbsolutePath(), "src/test/resources");
+
+  @Rule
+  public final TestDataRule testData = new TestDataRule(path.toFile());
+
+  RStreamExecutor executor;
+
+  @Before
+  public void setup() throws Exception {
+    executor = new RStreamExecutor(2);
+    executor.start();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    executor.stop();
+  }
+
+  @Test
+  public void extractDescriptionWhileReadingTarGz() throws Exception {
+    assertExtractedWhileReading("r-package.tar.gz");
+  }
+
+  @Test
+  public void extractDescriptionWhileReadingZip() throws Exception {
+    assertExtractedWhileReading("r-package.zip");
+  }
+
+  @Test
+  public void extractDescriptionWhileSkipping() throws Exception {
+    byte[] archive = loadFile("r-package.tar.gz");
+    try (RDescriptionExtractingInputStream in = extracting("r-package.tar.gz", archive)) {
+      assertThat(in.skip(archive.length), is((long) archive.length));
+      assertThat(in.read(), is(-1));
+      assertThat(in.getDescription().get("Package"), is(equalTo("RPostgreSQL")));
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void illegalStateExceptionWhenNoMetadata() throws Exception {
+    try (RDescriptionExtractingInputStream in = extracting("r-package-no-description.zip",
+        loadFile("r-package-no-description.zip"))) {
+      ByteStreams.exhaust(in);
+      in.getDescription();
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void illegalStateExceptionWhenUnsupportedType() throws Exception {
+    try (RDescriptionExtractingInputStream in = extracting("Unsupported.unsupported", new byte[1024 * 1024])) {
+      ByteStreams.exhaust(in);
+      in.getDescription();
+    }
+  }
+
+  @Test(expected = CancellationException.class)
+  public void cancelledWhenClosedBeforeTheEnd() throws Exception {
+    RDescriptionExtractingInputStream in = extracting("r-package.tar.gz", loadFile("r-package.tar.gz"));
+    in.read(new byte[16]);
+    in.close();
+    in.getDescription();
+  }
+
+  @Test
+  public void passedThroughWithoutDescriptionWhenNoThreadIsAvailable() throws Exception {
+    byte[] archive = loadFile("r-package.tar.gz");
+    RStreamExecutor busy = new RStreamExecutor(1);
+    busy.start();
+    CountDownLatch release = new CountDownLatch(1);
+    try {
+      busy.submit(() -> release.await(5, TimeUnit.SECONDS));
+      try (RDescriptionExtractingInputStream in =
+               new RDescriptionExtractingInputStream("r-package.tar.gz", new ByteArrayInputStream(archive), busy)) {
+        assertThat(ByteStreams.toByteArray(in), is(equalTo(archive)));
+        assertThat(in.getDescription(), is(nullValue()));
+      }
+    }
+    finally {
+      release.countDown();
+      busy.stop();
+    }
+  }
+
+  private void assertExtractedWhileReading(final String name) throws Exception {
+    byte[] archive = loadFile(name);
+    try (RDescriptionExtractingInputStream in = extracting(name, archive)) {
+      assertThat(ByteStreams.toByteArray(in), is(equalTo(archive)));
+      Map<String, String> attributes = in.getDescription();
+      assertThat(attributes.get("Package"), is(equalTo("RPostgreSQL")));
+      assertThat(attributes.get("Version"), is(equalTo("0.4-1")));
+      assertThat(attributes.get("Depends"), is(equalTo("R (>= 2.9.0), methods, DBI (>= 0.1-4)")));
+    }
+  }
+
+  private RDescriptionExtractingInputStream extracting(final String name, final byte[] content) {
+    return new RDescriptionExtractingInputStream(name, new ByteArrayInputStream(content), executor);
+  }
+
+  private byte[] loadFile(final String name) throws Exception {
+    return Files.readAllBytes(testData.resolveFile("org/sonatype/nexus/repository/r/internal/" + name).toPath());
+  }
+}
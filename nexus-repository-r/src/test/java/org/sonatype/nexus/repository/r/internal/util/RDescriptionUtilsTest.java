@@ -12,27 +12,36 @@
  */
 package org.sonatype.nexus.repository.r.internal.util;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Map;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import org.sonatype.goodies.testsupport.TestSupport;
 import org.sonatype.goodies.testsupport.junit.TestDataRule;
 import org.sonatype.nexus.repository.r.internal.RException;
 
+import com.google.common.io.ByteStreams;
 import org.junit.Rule;
 import org.junit.Test;
 import org.mockito.Mock;
 
 import static java.lang.System.getProperty;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.core.Is.is;
 import static org.hamcrest.core.IsEqual.equalTo;
 import static org.hamcrest.core.StringContains.containsString;
+import static org.sonatype.nexus.repository.r.internal.util.RDescriptionUtils.ZIP_MEMORY_THRESHOLD;
 import static org.sonatype.nexus.repository.r.internal.util.RDescriptionUtils.extractDescriptionFromArchive;
+import static org.sonatype.nexus.repository.r.internal.util.RDescriptionUtils.scanDescriptionFromArchive;
 
 public class RDescriptionUtilsTest
     extends TestSupport
@@ -78,6 +87,36 @@ public class RDescriptionUtilsTest
     assertAttributes(attributes);
   }
 
+  @Test
+  public void scanDescriptionFromZip() throws Exception {
+    Map<String, String> attributes = scanDescriptionFromArchive("r-package.zip", loadFile("r-package.zip"));
+    assertAttributes(attributes);
+  }
+
+  @Test
+  public void extractDescriptionFromZipLargerThanMemoryThreshold() throws Exception {
+    byte[] libs = new byte[ZIP_MEMORY_THRESHOLD * 2];
+    new Random(42L).nextBytes(libs);
+    ByteArrayOutputStream zip = new ByteArrayOutputStream();
+    try (ZipOutputStream out = new ZipOutputStream(zip)) {
+      out.putNextEntry(new ZipEntry("RPostgreSQL/libs/RPostgreSQL.dll"));
+      out.write(libs);
+      out.putNextEntry(new ZipEntry("RPostgreSQL/DESCRIPTION"));
+      out.write("Package: RPostgreSQL\nVersion: 0.4-1\n".getBytes(UTF_8));
+    }
+
+    Map<String, String> attributes = extractDescriptionFromArchive("r-package.zip",
+        new ByteArrayInputStream(zip.toByteArray()));
+
+    assertThat(attributes.get("Package"), is(equalTo("RPostgreSQL")));
+    assertThat(attributes.get("Version"), is(equalTo("0.4-1")));
+  }
+
+  @Test(expected = RException.class)
+  public void rExceptionOnTruncatedZip() throws Exception {
+    extractDescriptionFromArchive("r-package.zip", ByteStreams.limit(loadFile("r-package.zip"), 512));
+  }
+
   @Test(expected = RException.class)
   public void rExceptionOnCompressorException() throws Exception {
     extractDescriptionFromArchive("r-package.tar.gz", inputStream);
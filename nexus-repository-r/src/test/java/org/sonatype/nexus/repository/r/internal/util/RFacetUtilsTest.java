@@ -31,19 +31,27 @@ import org.sonatype.nexus.repository.view.Content;
 import org.sonatype.nexus.repository.view.Payload;
 
 import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.core.Is.is;
 import static org.hamcrest.core.IsEqual.equalTo;
 import static org.hamcrest.core.IsNull.notNullValue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.sonatype.nexus.repository.r.internal.AssetKind.ARCHIVE;
+import static org.sonatype.nexus.repository.r.internal.util.RFacetUtils.browseAssetsByGroups;
 import static org.sonatype.nexus.repository.r.internal.util.RFacetUtils.findAsset;
 import static org.sonatype.nexus.repository.r.internal.util.RFacetUtils.findComponent;
 import static org.sonatype.nexus.repository.r.internal.util.RFacetUtils.saveAsset;
@@ -164,4 +172,20 @@ public class RFacetUtilsTest
     verify(content).getContentType();
     verify(content).getAttributes();
   }
+
+  @Test
+  public void browseAssetsOfKindInGroupsWithOneQuery() throws Exception {
+    when(tx.findBucket(repository)).thenReturn(bucket);
+    when(tx.browseAssets(any(Query.class), eq(bucket))).thenReturn(ImmutableList.of(asset));
+    List<String> groups = ImmutableList.of("src/contrib", "bin/windows/contrib/4.0");
+
+    assertThat(browseAssetsByGroups(tx, repository, groups, ARCHIVE), contains(asset));
+
+    ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+    verify(tx).browseAssets(query.capture(), eq(bucket));
+    assertThat(query.getValue().getWhere(), containsString("attributes.r.asset_kind = :p0"));
+    assertThat(query.getValue().getWhere(), containsString("component.group IN :p1"));
+    assertThat(query.getValue().getParameters().values(), containsInAnyOrder(ARCHIVE.name(), groups));
+    verify(tx, never()).findComponents(any(), any());
+  }
 }
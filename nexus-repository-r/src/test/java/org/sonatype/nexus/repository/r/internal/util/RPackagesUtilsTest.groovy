@@ -12,6 +12,12 @@
  */
 package org.sonatype.nexus.repository.r.internal.util
 
+import java.util.zip.GZIPInputStream
+import java.util.zip.GZIPOutputStream
+
+import org.sonatype.nexus.repository.view.Payload
+import org.sonatype.nexus.repository.view.payloads.BytesPayload
+
 import spock.lang.Specification
 
 import static org.sonatype.nexus.repository.r.internal.util.RPackagesUtils.parseMetadata
@@ -67,7 +73,7 @@ class RPackagesUtilsTest
 
   def 'Properly merge metadata'() {
     when:
-      List<Map<String, String>> metadata = RPackagesUtils.merge(
+      List<Map<String, String>> metadata = mergeCompressed(
           [
               [
                   [
@@ -144,4 +150,102 @@ class RPackagesUtilsTest
           ]
       ]
   }
+
+  def 'Write uncompressed packages'() {
+    given:
+      List<Map<String, String>> entries = [
+          [Package: 'abc', Version: '2.1', License: 'GPL (>= 3)'],
+          [Package: 'AquaEnv', Version: '1.0-3', Depends: 'minpack.lm, deSolve']
+      ]
+      ByteArrayOutputStream out = new ByteArrayOutputStream()
+    when:
+      RPackagesUtils.writePackages(entries, out)
+    then:
+      new ByteArrayInputStream(out.toByteArray()).withCloseable { input -> parseMetadata(input) } == entries
+  }
+
+  def 'Write packages rds as a compressed serialized matrix'() {
+    given:
+      List<Map<String, String>> entries = [[Package: 'abc', Version: '2.1']]
+      ByteArrayOutputStream out = new ByteArrayOutputStream()
+    when:
+      RPackagesUtils.writePackagesRds(entries, out)
+      DataInputStream data = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())))
+    then: 'the header declares XDR serialization version 2'
+      data.readByte() == ('X' as char) as byte
+      data.readByte() == ('\n' as char) as byte
+      data.readInt() == 2
+    and: 'a character vector with attributes holds one value per field'
+      data.skipBytes(8) == 8
+      data.readInt() == (16 | (1 << 9))
+      data.readInt() == RPackagesUtils.PACKAGES_FIELDS.size()
+  }
+
+  def 'Merge compressed packages keeping the stanza of the first member'() {
+    given:
+      List<List<Map<String, String>>> parts = [
+          [
+              [Package: 'abc', Version: '2.1', License: 'GPL (>= 3)'],
+              [Package: 'AquaEnv', Version: '1.0-3']
+          ],
+          [
+              [Package: 'abc', Version: '2.2', License: 'GPL (>= 3)'],
+              [Package: 'ABCanalysis', Version: '1.1.1', Imports: 'Hmisc, plotrix']
+          ]
+      ]
+    when:
+      List<Map<String, String>> metadata = mergeCompressed(parts)
+    then:
+      metadata == [
+          [Package: 'abc', Version: '2.1', License: 'GPL (>= 3)'],
+          [Package: 'AquaEnv', Version: '1.0-3'],
+          [Package: 'ABCanalysis', Version: '1.1.1', Imports: 'Hmisc, plotrix']
+      ]
+  }
+
+  def 'Merge copies stanzas byte for byte'() {
+    given:
+      String stanza = 'Package: abc\r\nVersion: 2.1\r\nDescription: first line\r\n  continued\r\n'
+      ByteArrayOutputStream gz = new ByteArrayOutputStream()
+      new GZIPOutputStream(gz).withCloseable { it.write((stanza + '\r\n\n' + stanza).getBytes('UTF-8')) }
+      ByteArrayOutputStream out = new ByteArrayOutputStream()
+    when:
+      RPackagesUtils.mergePackagesGz([new BytesPayload(gz.toByteArray(), 'application/x-gzip')], out)
+    then:
+      new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())).getText('UTF-8') ==
+          stanza + '\n'
+  }
+
+  def 'Merge copies every stanza without a package name'() {
+    given:
+      String first = 'Version: 1.0\nLicense: GPL-2\n'
+      String second = 'Version: 2.0\nLicense: MIT\n'
+      String stanza = 'Package: abc\nVersion: 2.1\n'
+      ByteArrayOutputStream gz = new ByteArrayOutputStream()
+      new GZIPOutputStream(gz).withCloseable {
+        it.write((first + '\n' + stanza + '\n' + second + '\n' + stanza).getBytes('UTF-8'))
+      }
+      ByteArrayOutputStream out = new ByteArrayOutputStream()
+    when:
+      RPackagesUtils.mergePackagesGz([new BytesPayload(gz.toByteArray(), 'application/x-gzip')], out)
+    then:
+      new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())).getText('UTF-8') ==
+          first + '\n' + stanza + '\n' + second + '\n'
+  }
+
+  /**
+   * Writes each part as PACKAGES.gz, merges them with {@link RPackagesUtils#mergePackagesGz} and parses the result.
+   */
+  private static List<Map<String, String>> mergeCompressed(final List<List<Map<String, String>>> parts) {
+    List<Payload> members = parts.collect { part ->
+      ByteArrayOutputStream gz = new ByteArrayOutputStream()
+      RPackagesUtils.writePackagesGz(part, gz)
+      new BytesPayload(gz.toByteArray(), 'application/x-gzip')
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream()
+    RPackagesUtils.mergePackagesGz(members, out)
+    return new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())).withCloseable { input ->
+      parseMetadata(input)
+    }
+  }
 }
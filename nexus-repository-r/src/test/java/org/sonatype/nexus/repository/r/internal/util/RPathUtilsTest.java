@@ -0,0 +1,50 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.r.internal.util;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasEntry;
+import static org.hamcrest.core.Is.is;
+import static org.sonatype.nexus.repository.r.internal.RAttributes.P_PACKAGE;
+import static org.sonatype.nexus.repository.r.internal.RAttributes.P_VERSION;
+import static org.sonatype.nexus.repository.r.internal.util.RPathUtils.getArchiveCoordinates;
+
+/**
+ * {@link RPathUtils} unit tests.
+ */
+public class RPathUtilsTest
+    extends TestSupport
+{
+  @Test
+  public void archiveCoordinatesOfSourcePackage() {
+    assertThat(getArchiveCoordinates("src/contrib/data.table_1.12.8.tar.gz"), hasEntry(P_PACKAGE, "data.table"));
+    assertThat(getArchiveCoordinates("src/contrib/data.table_1.12.8.tar.gz"), hasEntry(P_VERSION, "1.12.8"));
+  }
+
+  @Test
+  public void archiveCoordinatesOfBinaryPackages() {
+    assertThat(getArchiveCoordinates("bin/windows/contrib/3.6/Rcpp_1.0.4-6.zip"), hasEntry(P_VERSION, "1.0.4-6"));
+    assertThat(getArchiveCoordinates("bin/macosx/el-capitan/contrib/3.6/Rcpp_1.0.4.tgz"), hasEntry(P_PACKAGE, "Rcpp"));
+  }
+
+  @Test
+  public void noArchiveCoordinatesOfUnconventionalFilenames() {
+    assertThat(getArchiveCoordinates("src/contrib/example.tar.gz").isEmpty(), is(true));
+    assertThat(getArchiveCoordinates("src/contrib/example_latest.tar.gz").isEmpty(), is(true));
+    assertThat(getArchiveCoordinates("src/contrib/PACKAGES.gz").isEmpty(), is(true));
+  }
+}
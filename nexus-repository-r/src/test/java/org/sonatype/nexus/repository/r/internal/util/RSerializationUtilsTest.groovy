@@ -0,0 +1,80 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.r.internal.util
+
+import spock.lang.Specification
+
+import static java.nio.charset.StandardCharsets.UTF_8
+
+/**
+ * {@link RSerializationUtils} unit tests.
+ */
+class RSerializationUtilsTest
+    extends Specification
+{
+  static final int CHARSXP = 9
+
+  static final int ASCII = 64 << 12
+
+  static final int UTF8 = 8 << 12
+
+  def 'Write a character matrix in column-major order'() {
+    given:
+      ByteArrayOutputStream out = new ByteArrayOutputStream()
+    when:
+      RSerializationUtils.writeCharacterMatrix(out, ['Package', 'Version'],
+          [[Package: 'a', Version: '1.0'], [Package: 'b']])
+      DataInputStream data = new DataInputStream(new ByteArrayInputStream(out.toByteArray()))
+    then: 'the header'
+      new String([data.readByte(), data.readByte()] as byte[], UTF_8) == 'X\n'
+      data.readInt() == 2
+      data.readInt() == 0x030500
+      data.readInt() == 0x020300
+    and: 'a character vector with attributes'
+      data.readInt() == (16 | (1 << 9))
+      data.readInt() == 4
+    and: 'the values column by column, with NA for missing values'
+      readString(data) == 'a'
+      readString(data) == 'b'
+      readString(data) == '1.0'
+      data.readInt() == CHARSXP
+      data.readInt() == -1
+    and: 'the dim attribute'
+      data.readInt() == (2 | (1 << 10))
+      data.readInt() == 1
+      readString(data) == 'dim'
+      data.readInt() == 13
+      data.readInt() == 2
+      data.readInt() == 2
+      data.readInt() == 2
+  }
+
+  def 'Flag non-ASCII strings as UTF-8'() {
+    given:
+      ByteArrayOutputStream out = new ByteArrayOutputStream()
+    when:
+      RSerializationUtils.writeCharacterMatrix(out, ['Package'], [[Package: 'café']])
+      DataInputStream data = new DataInputStream(new ByteArrayInputStream(out.toByteArray()))
+      data.skipBytes(2 + 3 * 4 + 2 * 4)
+    then:
+      data.readInt() == (CHARSXP | UTF8)
+      data.readInt() == 'café'.getBytes(UTF_8).length
+  }
+
+  private static String readString(final DataInputStream data) {
+    assert data.readInt() == (CHARSXP | ASCII)
+    byte[] bytes = new byte[data.readInt()]
+    data.readFully(bytes)
+    return new String(bytes, UTF_8)
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.repository.r.internal.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.sonatype.goodies.testsupport.TestSupport;
+
+import com.google.common.io.ByteStreams;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link RTeeInputStream} unit tests.
+ */
+public class RTeeInputStreamTest
+    extends TestSupport
+{
+  ExecutorService executor = Executors.newCachedThreadPool();
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void branchReadsTheSameContent() throws Exception {
+    byte[] content = content(1024 * 1024);
+    RTeeInputStream underTest = new RTeeInputStream(new ByteArrayInputStream(content), 5000L);
+    Future<byte[]> branch = executor.submit(() -> ByteStreams.toByteArray(underTest.branch()));
+
+    try (InputStream in = underTest) {
+      assertThat(ByteStreams.toByteArray(in), is(equalTo(content)));
+    }
+
+    assertThat(branch.get(5, TimeUnit.SECONDS), is(equalTo(content)));
+  }
+
+  @Test
+  public void branchFailsWhenContentFails() throws Exception {
+    InputStream failing = new SequenceInputStream(new ByteArrayInputStream(content(4096)), new InputStream()
+    {
+      @Override
+      public int read() throws IOException {
+        throw new IOException("upstream failed");
+      }
+    });
+    RTeeInputStream underTest = new RTeeInputStream(failing, 5000L);
+    Future<byte[]> branch = executor.submit(() -> ByteStreams.toByteArray(underTest.branch()));
+
+    try (InputStream in = underTest) {
+      ByteStreams.toByteArray(in);
+      fail("Expected the content to fail");
+    }
+    catch (IOException e) {
+      // expected
+    }
+
+    assertBranchFails(branch);
+  }
+
+  @Test
+  public void branchFailsWhenContentIsClosedBeforeItsEnd() throws Exception {
+    RTeeInputStream underTest = new RTeeInputStream(new ByteArrayInputStream(content(4096)), 5000L);
+    Future<byte[]> branch = executor.submit(() -> ByteStreams.toByteArray(underTest.branch()));
+
+    try (InputStream in = underTest) {
+      assertThat(in.read(new byte[1024]), is(1024));
+    }
+
+    assertBranchFails(branch);
+  }
+
+  @Test
+  public void contentIsReadToTheEndWithoutBranchReader() throws Exception {
+    byte[] content = content(1024 * 1024);
+    RTeeInputStream underTest = new RTeeInputStream(new ByteArrayInputStream(content), 10L);
+
+    try (InputStream in = underTest) {
+      assertThat(ByteStreams.toByteArray(in), is(equalTo(content)));
+    }
+
+    try {
+      ByteStreams.toByteArray(underTest.branch());
+      fail("Expected the detached branch to fail");
+    }
+    catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void contentIsReadToTheEndWhenBranchIsClosed() throws Exception {
+    byte[] content = content(1024 * 1024);
+    RTeeInputStream underTest = new RTeeInputStream(new ByteArrayInputStream(content), 5000L);
+    underTest.branch().close();
+
+    try (InputStream in = underTest) {
+      assertThat(ByteStreams.toByteArray(in), is(equalTo(content)));
+    }
+  }
+
+  private void assertBranchFails(final Future<byte[]> branch) throws Exception {
+    try {
+      branch.get(5, TimeUnit.SECONDS);
+      fail("Expected the branch to fail");
+    }
+    catch (ExecutionException e) {
+      assertThat(e.getCause() instanceof IOException, is(true));
+    }
+  }
+
+  private static byte[] content(final int size) {
+    byte[] content = new byte[size];
+    new Random(size).nextBytes(content);
+    return content;
+  }
+}
@@ -12,6 +12,10 @@
  */
 package org.sonatype.nexus.blobstore.restore.r.internal;
 
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
 import org.sonatype.nexus.blobstore.restore.RestoreBlobData;
 import org.sonatype.nexus.blobstore.restore.RestoreBlobDataSupport;
 
@@ -20,7 +24,22 @@ import org.sonatype.nexus.blobstore.restore.RestoreBlobDataSupport;
  */
 class RRestoreBlobData extends RestoreBlobDataSupport
 {
+  /**
+   * The DESCRIPTION attributes of the archive in the blob, once extracted, so each restore step can reuse them.
+   */
+  @Nullable
+  private Map<String, String> attributes;
+
   RRestoreBlobData(final RestoreBlobData blobData) {
     super(blobData);
   }
+
+  @Nullable
+  Map<String, String> getAttributes() {
+    return attributes;
+  }
+
+  void setAttributes(final Map<String, String> attributes) {
+    this.attributes = attributes;
+  }
 }
@@ -17,13 +17,24 @@ import java.io.InputStream;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
 
 import javax.annotation.Nonnull;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.codahale.metrics.Timer;
 import com.google.common.collect.ImmutableList;
+import org.sonatype.nexus.blobstore.api.Blob;
+import org.sonatype.nexus.blobstore.api.BlobMetrics;
 import org.sonatype.nexus.blobstore.api.BlobStoreManager;
 import org.sonatype.nexus.blobstore.restore.BaseRestoreBlobStrategy;
 import org.sonatype.nexus.blobstore.restore.RestoreBlobData;
@@ -32,16 +43,34 @@ import org.sonatype.nexus.common.log.DryRunPrefix;
 import org.sonatype.nexus.common.node.NodeAccess;
 import org.sonatype.nexus.repository.Repository;
 import org.sonatype.nexus.repository.manager.RepositoryManager;
+import org.sonatype.nexus.repository.r.RPackagesBuilderFacet;
 import org.sonatype.nexus.repository.r.RRestoreFacet;
 import org.sonatype.nexus.repository.r.internal.RFormat;
 import org.sonatype.nexus.repository.storage.AssetBlob;
 import org.sonatype.nexus.repository.storage.Query;
 
+import static com.codahale.metrics.MetricRegistry.name;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 import static org.eclipse.aether.util.StringUtils.isEmpty;
 import static org.sonatype.nexus.common.hash.HashAlgorithm.SHA1;
+import static org.sonatype.nexus.repository.r.internal.util.RPathUtils.getBasePath;
 
 /**
+ * Restore strategy for R blobs. By default blobs are restored one at a time as the restore task hands them over. With
+ * {@code nexus.r.restore.parallelism} set to a positive number, blobs are restored concurrently on that many workers,
+ * and the PACKAGES metadata of hosted repositories is not rebuilt for every restored archive: invalidation is suspended
+ * while restoring and each affected base path is rebuilt once when the task finishes with the repository.
+ *
+ * A suspension is held as a lease: should the task fail or be cancelled before it finishes with the repository, the
+ * suspension expires once no archive has been restored to the repository for the suspension timeout, and the affected
+ * base paths are rebuilt then.
+ *
+ * Concurrent restores still commit every blob in a transaction of its own: {@link BaseRestoreBlobStrategy} begins and
+ * ends the unit of work of each blob itself, so blobs cannot share a transaction without reimplementing its restore.
+ * Restoring concurrently is opt-in, as it changes the order in which a restore task creates assets.
+ *
  * @since 1.1.next
  */
 @Named(RFormat.NAME)
@@ -49,13 +78,204 @@ import static org.sonatype.nexus.common.hash.HashAlgorithm.SHA1;
 public class RRestoreBlobStrategy
     extends BaseRestoreBlobStrategy<RRestoreBlobData>
 {
+  /**
+   * The rate and duration of restoring blobs, including those that are skipped.
+   */
+  private final Timer restoreTimer;
+
+  /**
+   * The rate of restored content, in bytes.
+   */
+  private final Meter restoredBytes;
+
+  /**
+   * The rate and duration of extracting DESCRIPTION attributes from archives.
+   */
+  private final Timer extractTimer;
+
+  /**
+   * The rate of blobs that failed to restore.
+   */
+  private final Meter failures;
+
+  /**
+   * The workers restoring blobs concurrently, if enabled.
+   */
+  private final RRestoreExecutor restoreExecutor;
+
+  /**
+   * The time in milliseconds without restored archives after which a suspension of metadata invalidation expires.
+   */
+  private final long suspensionTimeout;
+
+  /**
+   * The number of blobs handed to the workers that have not been restored yet, guarded by {@link #pendingLock}.
+   */
+  private int pendingRestores;
+
+  private final Object pendingLock = new Object();
+
+  /**
+   * The suspensions of metadata invalidation held for the archives restored concurrently, by repository name.
+   */
+  private final ConcurrentMap<String, Suspension> suspensions = new ConcurrentHashMap<>();
+
+  /**
+   * Constructor.
+   *
+   * @param restoreExecutor   The workers restoring blobs concurrently, if enabled.
+   * @param suspensionTimeout The time in milliseconds without restored archives after which a suspension of metadata
+   *                          invalidation expires.
+   */
   @Inject
   public RRestoreBlobStrategy(final NodeAccess nodeAccess,
                               final RepositoryManager repositoryManager,
                               final BlobStoreManager blobStoreManager,
-                              final DryRunPrefix dryRunPrefix)
+                              final DryRunPrefix dryRunPrefix,
+                              final RRestoreExecutor restoreExecutor,
+                              @Named("${nexus.r.restore.suspensionTimeout:-600000}") final long suspensionTimeout)
   {
     super(nodeAccess, repositoryManager, blobStoreManager, dryRunPrefix);
+    checkArgument(suspensionTimeout > 0, "Suspension timeout must be greater than 0");
+    this.restoreExecutor = checkNotNull(restoreExecutor);
+    this.suspensionTimeout = suspensionTimeout;
+    MetricRegistry registry = SharedMetricRegistries.getOrCreate("nexus");
+    this.restoreTimer = registry.timer(name(RRestoreBlobStrategy.class, "restore"));
+    this.restoredBytes = registry.meter(name(RRestoreBlobStrategy.class, "restore", "bytes"));
+    this.extractTimer = registry.timer(name(RRestoreBlobStrategy.class, "extractDescription"));
+    this.failures = registry.meter(name(RRestoreBlobStrategy.class, "restore", "failures"));
+  }
+
+  @Override
+  public void restore(final Properties properties,
+                      final Blob blob,
+                      final String blobStoreName,
+                      final boolean isDryRun)
+  {
+    if (!restoreExecutor.isConcurrent()) {
+      timedRestore(properties, blob, blobStoreName, isDryRun);
+      return;
+    }
+    synchronized (pendingLock) {
+      pendingRestores++;
+    }
+    try {
+      // restore as the user running the task
+      restoreExecutor.executeAsCurrentUser(() -> {
+        try {
+          timedRestore(properties, blob, blobStoreName, isDryRun);
+        }
+        finally {
+          restoreDone();
+        }
+      });
+    }
+    catch (RuntimeException e) {
+      restoreDone();
+      throw e;
+    }
+  }
+
+  /**
+   * Waits for the blobs handed to the workers to be restored, then lets the metadata of the repository be rebuilt once
+   * for every base path an archive was restored to.
+   */
+  @Override
+  public void after(final boolean updateAssets, final Repository repository) {
+    awaitPendingRestores();
+    Suspension suspension = suspensions.get(repository.getName());
+    if (suspension != null) {
+      release(suspension);
+    }
+  }
+
+  private void timedRestore(final Properties properties,
+                            final Blob blob,
+                            final String blobStoreName,
+                            final boolean isDryRun)
+  {
+    try (Timer.Context ignored = restoreTimer.time()) {
+      super.restore(properties, blob, blobStoreName, isDryRun);
+    }
+    BlobMetrics metrics = blob.getMetrics();
+    if (metrics != null) {
+      restoredBytes.mark(metrics.getContentSize());
+    }
+  }
+
+  private void restoreDone() {
+    synchronized (pendingLock) {
+      if (--pendingRestores == 0) {
+        pendingLock.notifyAll();
+      }
+    }
+  }
+
+  private void awaitPendingRestores() {
+    synchronized (pendingLock) {
+      while (pendingRestores > 0) {
+        try {
+          pendingLock.wait();
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          log.warn("Interrupted while waiting for {} R blobs to be restored", pendingRestores);
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Records the base path of an archive restored concurrently, suspending the metadata invalidation of its repository
+   * when it is the first, and renewing the suspension's lease.
+   */
+  private void trackRestoredArchive(final Repository repository, final String path) {
+    Suspension suspension = suspensions.computeIfAbsent(repository.getName(), name -> suspend(repository));
+    suspension.basePaths.add(getBasePath(path));
+    suspension.lastRestored = System.currentTimeMillis();
+  }
+
+  private Suspension suspend(final Repository repository) {
+    Suspension suspension = new Suspension(repository);
+    // the lease is taken first so that a suspension is never left without one
+    suspension.lease = restoreExecutor.scheduleWithFixedDelay(() -> expire(suspension), suspensionTimeout);
+    repository.optionalFacet(RPackagesBuilderFacet.class).ifPresent(RPackagesBuilderFacet::suspendInvalidation);
+    return suspension;
+  }
+
+  private void expire(final Suspension suspension) {
+    long idle = System.currentTimeMillis() - suspension.lastRestored;
+    if (idle >= suspensionTimeout) {
+      log.warn("No R archive restored to repository {} for {}ms, resuming its metadata invalidation",
+          suspension.repository.getName(), idle);
+      release(suspension);
+    }
+  }
+
+  /**
+   * Resumes the metadata invalidation of a repository, letting the metadata be rebuilt once for every base path an
+   * archive was restored to. Only the first release of a suspension has any effect.
+   */
+  private void release(final Suspension suspension) {
+    Repository repository = suspension.repository;
+    if (!suspensions.remove(repository.getName(), suspension)) {
+      return;
+    }
+    ScheduledFuture<?> lease = suspension.lease;
+    if (lease != null) {
+      lease.cancel(false);
+    }
+    repository.optionalFacet(RPackagesBuilderFacet.class).ifPresent(facet -> {
+      try {
+        log.info("Rebuilding R metadata for {} paths of restored archives in repository {}",
+            suspension.basePaths.size(), repository.getName());
+        suspension.basePaths.forEach(facet::invalidateMetadata);
+      }
+      finally {
+        facet.resumeInvalidation();
+      }
+    });
   }
 
   @Override
@@ -97,7 +317,16 @@ public class RRestoreBlobStrategy
     RRestoreFacet facet = getRestoreFacet(rRestoreBlobData);
     final String path = getAssetPath(rRestoreBlobData);
 
-    facet.restore(assetBlob, path);
+    if (restoreExecutor.isConcurrent() && facet.componentRequired(path)) {
+      trackRestoredArchive(getRepository(rRestoreBlobData), path);
+    }
+    try {
+      facet.restore(assetBlob, path, rRestoreBlobData.getAttributes());
+    }
+    catch (IOException | RuntimeException e) {
+      failures.mark();
+      throw e;
+    }
   }
 
   @Nonnull
@@ -117,13 +346,29 @@ public class RRestoreBlobStrategy
   @Override
   protected Query getComponentQuery(final RRestoreBlobData data) throws IOException {
     RRestoreFacet facet = getRestoreFacet(data);
-    RestoreBlobData blobData = data.getBlobData();
-    Map<String, String> attributes;
-    try (InputStream inputStream = blobData.getBlob().getInputStream()) {
-      attributes = facet.extractComponentAttributesFromArchive(blobData.getBlobName(), inputStream);
+    try {
+      return facet.getComponentQuery(getAttributes(facet, data));
     }
+    catch (IOException | RuntimeException e) {
+      failures.mark();
+      throw e;
+    }
+  }
 
-    return facet.getComponentQuery(attributes);
+  /**
+   * Returns the DESCRIPTION attributes of the archive in the blob, extracting them only the first time.
+   */
+  private Map<String, String> getAttributes(final RRestoreFacet facet, final RRestoreBlobData data) throws IOException {
+    Map<String, String> attributes = data.getAttributes();
+    if (attributes == null) {
+      RestoreBlobData blobData = data.getBlobData();
+      try (Timer.Context ignored = extractTimer.time();
+           InputStream inputStream = blobData.getBlob().getInputStream()) {
+        attributes = facet.extractComponentAttributesFromArchive(blobData.getBlobName(), inputStream);
+      }
+      data.setAttributes(attributes);
+    }
+    return attributes;
   }
 
   @Override
@@ -136,4 +381,25 @@ public class RRestoreBlobStrategy
 
     return repository.facet(RRestoreFacet.class);
   }
+
+  /**
+   * A suspension of the metadata invalidation of a repository, held while archives are restored to it concurrently.
+   */
+  private static final class Suspension
+  {
+    private final Repository repository;
+
+    /**
+     * The base paths of the archives restored while suspended.
+     */
+    private final Set<String> basePaths = ConcurrentHashMap.newKeySet();
+
+    private volatile long lastRestored = System.currentTimeMillis();
+
+    private volatile ScheduledFuture<?> lease;
+
+    Suspension(final Repository repository) {
+      this.repository = repository;
+    }
+  }
 }
@@ -0,0 +1,128 @@
+/*
+ * Sonatype Nexus (TM) Open Source Version
+ * Copyright (c) 2017-present Sonatype, Inc.
+ * All rights reserved. Includes the third-party code listed at http://links.sonatype.com/products/nexus/oss/attributions.
+ *
+ * This program and the accompanying materials are made available under the terms of the Eclipse Public License Version 1.0,
+ * which accompanies this distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Sonatype Nexus (TM) Professional Version is available from Sonatype, Inc. "Sonatype" and "Sonatype Nexus" are trademarks
+ * of Sonatype, Inc. Apache Maven is a trademark of the Apache Software Foundation. M2eclipse is a trademark of the
+ * Eclipse Foundation. All other trademarks are the property of their respective owners.
+ */
+package org.sonatype.nexus.blobstore.restore.r.internal;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.sonatype.goodies.lifecycle.LifecycleSupport;
+import org.sonatype.nexus.common.app.ManagedLifecycle;
+import org.sonatype.nexus.thread.NexusExecutorService;
+import org.sonatype.nexus.thread.NexusThreadFactory;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static org.sonatype.nexus.common.app.ManagedLifecycle.Phase.SERVICES;
+
+/**
+ * Runs the concurrent restores of R blobs, and the checks expiring the metadata invalidation suspensions they hold, on
+ * pools that are shut down with the rest of the services. Restores are only concurrent with
+ * {@code nexus.r.restore.parallelism} set to a positive number; otherwise no thread is started.
+ *
+ * @since 1.1.next
+ */
+@Named
+@Singleton
+@ManagedLifecycle(phase = SERVICES)
+public class RRestoreExecutor
+    extends LifecycleSupport
+{
+  /**
+   * The number of blobs restored at the same time, 0 if blobs are restored on the calling thread.
+   */
+  private final int parallelism;
+
+  private ThreadPoolExecutor restoreExecutor;
+
+  private ScheduledExecutorService leaseExecutor;
+
+  /**
+   * Constructor.
+   *
+   * @param parallelism The number of blobs restored at the same time, 0 to restore them on the calling thread.
+   */
+  @Inject
+  public RRestoreExecutor(@Named("${nexus.r.restore.parallelism:-0}") final int parallelism) {
+    checkArgument(parallelism >= 0, "Restore parallelism must not be negative");
+    this.parallelism = parallelism;
+  }
+
+  @Override
+  protected void doStart() throws Exception {
+    if (!isConcurrent()) {
+      return;
+    }
+    // a short queue keeps the restore task from reading blobs far ahead of the workers; when it is full the task
+    // restores the blob itself
+    restoreExecutor = new ThreadPoolExecutor(parallelism, parallelism, 60L, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<>(parallelism * 2), new NexusThreadFactory("r-restore", "blob-restore"),
+        (task, executor) -> {
+          if (executor.isShutdown()) {
+            throw new RejectedExecutionException("R restore executor is stopped");
+          }
+          task.run();
+        });
+    restoreExecutor.allowCoreThreadTimeOut(true);
+    leaseExecutor = Executors.newSingleThreadScheduledExecutor(new NexusThreadFactory("r-restore", "suspension-lease"));
+  }
+
+  @Override
+  protected void doStop() throws Exception {
+    if (restoreExecutor != null) {
+      restoreExecutor.shutdownNow();
+      restoreExecutor = null;
+    }
+    if (leaseExecutor != null) {
+      leaseExecutor.shutdownNow();
+      leaseExecutor = null;
+    }
+  }
+
+  /**
+   * Returns whether or not blobs are restored concurrently.
+   */
+  public boolean isConcurrent() {
+    return parallelism > 0;
+  }
+
+  /**
+   * Restores a blob on a worker, running as the current user, or on the calling thread if every worker is busy and the
+   * queue is full.
+   *
+   * @throws RejectedExecutionException if the executor is stopped.
+   */
+  public void executeAsCurrentUser(final Runnable restore) {
+    checkNotNull(restore);
+    checkState(restoreExecutor != null, "R restore executor is not started");
+    NexusExecutorService.forCurrentSubject(restoreExecutor).execute(restore);
+  }
+
+  /**
+   * Runs a check repeatedly, waiting for the delay in milliseconds before each run, until it is cancelled.
+   */
+  public ScheduledFuture<?> scheduleWithFixedDelay(final Runnable check, final long delay) {
+    checkNotNull(check);
+    checkState(leaseExecutor != null, "R restore executor is not started");
+    return leaseExecutor.scheduleWithFixedDelay(check, delay, delay, TimeUnit.MILLISECONDS);
+  }
+}
@@ -14,11 +14,19 @@ package org.sonatype.nexus.blobstore.restore.r.internal;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Properties;
 
+import com.google.common.collect.ImmutableMap;
+import org.apache.shiro.mgt.DefaultSecurityManager;
+import org.apache.shiro.subject.Subject;
+import org.apache.shiro.util.ThreadContext;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.sonatype.goodies.testsupport.TestSupport;
 import org.sonatype.nexus.blobstore.api.Blob;
@@ -29,6 +37,7 @@ import org.sonatype.nexus.common.log.DryRunPrefix;
 import org.sonatype.nexus.common.node.NodeAccess;
 import org.sonatype.nexus.repository.Repository;
 import org.sonatype.nexus.repository.manager.RepositoryManager;
+import org.sonatype.nexus.repository.r.RPackagesBuilderFacet;
 import org.sonatype.nexus.repository.r.RRestoreFacet;
 import org.sonatype.nexus.repository.storage.AssetBlob;
 import org.sonatype.nexus.repository.storage.StorageFacet;
@@ -41,6 +50,10 @@ import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyMapOf;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -90,20 +103,30 @@ public class RRestoreBlobStrategyTest
   @Mock
   StorageTx storageTx;
 
+  @Mock
+  AssetBlob assetBlob;
+
+  @Mock
+  RPackagesBuilderFacet rPackagesBuilderFacet;
+
   private byte[] blobBytes = "blobbytes".getBytes();
 
   private Properties properties = new Properties();
 
+  private RRestoreExecutor restoreExecutor;
+
   private RRestoreBlobStrategy restoreBlobStrategy;
 
   @Before
-  public void setup() {
-    restoreBlobStrategy = new RRestoreBlobStrategy(nodeAccess, repositoryManager, blobStoreManager, new DryRunPrefix("dryrun"));
+  public void setup() throws Exception {
+    restoreBlobStrategy = strategy(0, 600000L);
 
     when(repositoryManager.get(anyString())).thenReturn(repository);
     when(repository.facet(RRestoreFacet.class)).thenReturn(rRestoreFacet);
     when(repository.optionalFacet(RRestoreFacet.class)).thenReturn(Optional.of(rRestoreFacet));
     when(repository.optionalFacet(StorageFacet.class)).thenReturn(Optional.of(storageFacet));
+    when(repository.optionalFacet(RPackagesBuilderFacet.class)).thenReturn(Optional.of(rPackagesBuilderFacet));
+    when(repository.getName()).thenReturn("r-hosted");
     when(blob.getInputStream()).thenReturn(new ByteArrayInputStream(blobBytes));
     when(rRestoreBlobData.getBlobData()).thenReturn(restoreBlobData);
     when(restoreBlobData.getBlobName()).thenReturn(ARCHIVE_PATH);
@@ -123,6 +146,12 @@ public class RRestoreBlobStrategyTest
     properties.setProperty("sha1", "0088eb478752a810f48f04d3cf9f46d2924e334a");
   }
 
+  @After
+  public void tearDown() throws Exception {
+    ThreadContext.unbindSubject();
+    restoreExecutor.stop();
+  }
+
   @Test
   public void testBlobDataIsCreated() {
     assertThat(restoreBlobStrategy.createRestoreData(restoreBlobData).getBlobData(), is(restoreBlobData));
@@ -148,7 +177,7 @@ public class RRestoreBlobStrategyTest
   public void testPackageIsRestored() throws Exception {
     restoreBlobStrategy.restore(properties, blob, TEST_BLOB_STORE_NAME, false);
     verify(rRestoreFacet).assetExists(ARCHIVE_PATH);
-    verify(rRestoreFacet).restore(any(AssetBlob.class), eq(ARCHIVE_PATH));
+    verify(rRestoreFacet).restore(any(AssetBlob.class), eq(ARCHIVE_PATH), (Map<String, String>) isNull());
     verifyNoMoreInteractions(rRestoreFacet);
   }
 
@@ -177,4 +206,106 @@ public class RRestoreBlobStrategyTest
     restoreBlobStrategy.getComponentQuery(rRestoreBlobData);
     verify(rRestoreFacet, times(1)).getComponentQuery(anyMapOf(String.class, String.class));
   }
+
+  @Test
+  public void testAttributesAreExtractedOnceForQueryAndRestore() throws IOException {
+    Map<String, String> attributes = ImmutableMap.of("Package", "curl", "Version", "4.2");
+    when(rRestoreFacet.extractComponentAttributesFromArchive(eq(ARCHIVE_PATH), any(InputStream.class)))
+        .thenReturn(attributes);
+    RRestoreBlobData data = restoreBlobStrategy.createRestoreData(restoreBlobData);
+
+    restoreBlobStrategy.getComponentQuery(data);
+    restoreBlobStrategy.getComponentQuery(data);
+    restoreBlobStrategy.createAssetFromBlob(assetBlob, data);
+
+    verify(rRestoreFacet, times(1)).extractComponentAttributesFromArchive(eq(ARCHIVE_PATH), any(InputStream.class));
+    verify(rRestoreFacet, times(2)).getComponentQuery(attributes);
+    verify(rRestoreFacet).restore(assetBlob, ARCHIVE_PATH, attributes);
+  }
+
+  @Test
+  public void testPackagesAreRestoredConcurrently() throws Exception {
+    ThreadContext.bind(new Subject.Builder(new DefaultSecurityManager()).buildSubject());
+    restoreBlobStrategy = strategy(2, 600000L);
+
+    for (int i = 0; i < 10; i++) {
+      restoreBlobStrategy.restore(properties, blob, TEST_BLOB_STORE_NAME, false);
+    }
+    restoreBlobStrategy.after(true, repository);
+
+    verify(rRestoreFacet, times(10)).restore(any(AssetBlob.class), eq(ARCHIVE_PATH), (Map<String, String>) isNull());
+  }
+
+  @Test
+  public void testMetadataIsRebuiltOncePerBasePathAfterConcurrentRestore() throws Exception {
+    restoreBlobStrategy = strategy(2, 600000L);
+    when(rRestoreFacet.componentRequired(ARCHIVE_PATH)).thenReturn(true);
+    when(rRestoreFacet.componentRequired("src/contrib/jsonlite_1.6.tar.gz")).thenReturn(true);
+    when(rRestoreFacet.componentRequired("bin/windows/contrib/3.6/curl_4.2.zip")).thenReturn(true);
+
+    restoreBlobStrategy.createAssetFromBlob(assetBlob, restoreData(ARCHIVE_PATH));
+    restoreBlobStrategy.createAssetFromBlob(assetBlob, restoreData("src/contrib/jsonlite_1.6.tar.gz"));
+    restoreBlobStrategy.createAssetFromBlob(assetBlob, restoreData("bin/windows/contrib/3.6/curl_4.2.zip"));
+
+    verify(rPackagesBuilderFacet).suspendInvalidation();
+    verifyNoMoreInteractions(rPackagesBuilderFacet);
+
+    restoreBlobStrategy.after(true, repository);
+
+    InOrder inOrder = inOrder(rPackagesBuilderFacet);
+    inOrder.verify(rPackagesBuilderFacet).invalidateMetadata("src/contrib");
+    inOrder.verify(rPackagesBuilderFacet).resumeInvalidation();
+    InOrder binaryOrder = inOrder(rPackagesBuilderFacet);
+    binaryOrder.verify(rPackagesBuilderFacet).invalidateMetadata("bin/windows/contrib/3.6");
+    binaryOrder.verify(rPackagesBuilderFacet).resumeInvalidation();
+    verify(rPackagesBuilderFacet).suspendInvalidation();
+    verifyNoMoreInteractions(rPackagesBuilderFacet);
+
+    restoreBlobStrategy.after(true, repository);
+    verifyNoMoreInteractions(rPackagesBuilderFacet);
+  }
+
+  @Test
+  public void testMetadataInvalidationIsNotSuspendedByDefault() throws Exception {
+    when(rRestoreFacet.componentRequired(ARCHIVE_PATH)).thenReturn(true);
+
+    restoreBlobStrategy.createAssetFromBlob(assetBlob, restoreData(ARCHIVE_PATH));
+    restoreBlobStrategy.after(true, repository);
+
+    verifyNoMoreInteractions(rPackagesBuilderFacet);
+  }
+
+  @Test
+  public void testSuspensionExpiresWhenTheTaskDoesNotFinish() throws Exception {
+    restoreBlobStrategy = strategy(2, 50L);
+    when(rRestoreFacet.componentRequired(ARCHIVE_PATH)).thenReturn(true);
+
+    restoreBlobStrategy.createAssetFromBlob(assetBlob, restoreData(ARCHIVE_PATH));
+
+    verify(rPackagesBuilderFacet).suspendInvalidation();
+    verify(rPackagesBuilderFacet, timeout(5000)).resumeInvalidation();
+    verify(rPackagesBuilderFacet).invalidateMetadata("src/contrib");
+
+    restoreBlobStrategy.after(true, repository);
+    verify(rPackagesBuilderFacet, times(1)).resumeInvalidation();
+  }
+
+  private RRestoreBlobStrategy strategy(final int parallelism, final long suspensionTimeout)
+      throws Exception
+  {
+    if (restoreExecutor != null) {
+      restoreExecutor.stop();
+    }
+    restoreExecutor = new RRestoreExecutor(parallelism);
+    restoreExecutor.start();
+    return new RRestoreBlobStrategy(nodeAccess, repositoryManager, blobStoreManager, new DryRunPrefix("dryrun"),
+        restoreExecutor, suspensionTimeout);
+  }
+
+  private RRestoreBlobData restoreData(final String path) {
+    RestoreBlobData data = mock(RestoreBlobData.class);
+    when(data.getBlobName()).thenReturn(path);
+    when(data.getRepository()).thenReturn(repository);
+    return new RRestoreBlobData(data);
+  }
 }